@@ -0,0 +1,46 @@
+package pt.isel.pc.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Runs the benchmarks matching a regular expression once for each thread count,
+ * writing the results of each run into a JSON file, e.g. {@code threads-4.json}.
+ * <p>
+ * Arguments, all optional: the include regular expression (default all), the comma separated
+ * thread counts (default 1,2,4,8) and the output directory (default build/jmh-results).
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String include = args.length > 0 ? args[0] : ".*";
+        String threadCounts = args.length > 1 ? args[1] : "1,2,4,8";
+        Path outputDir = Paths.get(args.length > 2 ? args[2] : "build/jmh-results");
+        Files.createDirectories(outputDir);
+
+        for (String threadCount : threadCounts.split(",")) {
+            int threads = Integer.parseInt(threadCount.trim());
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .forks(1)
+                    .warmupIterations(3)
+                    .warmupTime(TimeValue.seconds(1))
+                    .measurementIterations(5)
+                    .measurementTime(TimeValue.seconds(1))
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(outputDir.resolve("threads-" + threads + ".json").toString())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
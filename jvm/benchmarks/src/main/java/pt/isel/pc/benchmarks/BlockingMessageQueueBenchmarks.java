@@ -0,0 +1,59 @@
+package pt.isel.pc.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import pt.isel.pc.examples.synchronizers.BlockingMessageQueue;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link BlockingMessageQueue} hand-off throughput, with the same number of producer and
+ * consumer threads. The runner thread count is split into groups of one producer and one consumer,
+ * all sharing the same queue.
+ * <p>
+ * The operations use a short timeout, so that the threads blocked at the end of an iteration,
+ * when the other role already stopped, are released.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BlockingMessageQueueBenchmarks {
+
+    private static final long TIMEOUT_MS = 10;
+
+    // Blackhole.consumeCPU tokens consumed by the producer before each enqueue
+    @Param({"0", "100"})
+    public int produceTokens;
+
+    private BlockingMessageQueue<Integer> queue;
+
+    @Setup
+    public void setup() {
+        queue = new BlockingMessageQueue<>();
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public boolean produce() throws InterruptedException {
+        Blackhole.consumeCPU(produceTokens);
+        return queue.enqueue(42, TIMEOUT_MS);
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public Optional<Integer> consume() throws InterruptedException {
+        return queue.dequeue(TIMEOUT_MS);
+    }
+}
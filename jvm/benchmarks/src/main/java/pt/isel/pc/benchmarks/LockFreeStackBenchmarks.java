@@ -0,0 +1,86 @@
+package pt.isel.pc.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import pt.isel.pc.examples.lockfree.LockFreeStack;
+
+import java.util.ArrayDeque;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link LockFreeStack} with a stack protected by a monitor, using a push followed by a pop
+ * on each operation. The contention decreases with the work done between the two.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LockFreeStackBenchmarks {
+
+    private interface Stack {
+        void push(Integer value);
+
+        Optional<Integer> pop();
+    }
+
+    @Param({"lockFree", "synchronized"})
+    public String implementation;
+
+    // Blackhole.consumeCPU tokens between the push and the pop
+    @Param({"0", "100"})
+    public int thinkTokens;
+
+    private Stack stack;
+
+    @Setup
+    public void setup() {
+        switch (implementation) {
+            case "lockFree": {
+                LockFreeStack<Integer> lockFree = new LockFreeStack<>();
+                stack = new Stack() {
+                    @Override
+                    public void push(Integer value) {
+                        lockFree.push(value);
+                    }
+
+                    @Override
+                    public Optional<Integer> pop() {
+                        return lockFree.pop();
+                    }
+                };
+                break;
+            }
+            case "synchronized": {
+                ArrayDeque<Integer> deque = new ArrayDeque<>();
+                stack = new Stack() {
+                    @Override
+                    public synchronized void push(Integer value) {
+                        deque.push(value);
+                    }
+
+                    @Override
+                    public synchronized Optional<Integer> pop() {
+                        return Optional.ofNullable(deque.poll());
+                    }
+                };
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("unknown implementation " + implementation);
+        }
+    }
+
+    @Benchmark
+    public Optional<Integer> pushAndPop() {
+        stack.push(42);
+        Blackhole.consumeCPU(thinkTokens);
+        return stack.pop();
+    }
+}
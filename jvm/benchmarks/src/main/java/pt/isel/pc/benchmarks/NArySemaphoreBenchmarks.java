@@ -0,0 +1,71 @@
+package pt.isel.pc.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import pt.isel.pc.examples.synchronizers.NAryFifoSemaphore;
+import pt.isel.pc.examples.synchronizers.NAryFifoSemaphoreWithKernelStyle;
+import pt.isel.pc.examples.synchronizers.NAryFifoSemaphoreWithKernelStyleAndSpecificNotification;
+import pt.isel.pc.examples.synchronizers.NArySemaphore;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the three {@link NArySemaphore} implementations, with the general notification used by the first two
+ * and the specific notification used by the third.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NArySemaphoreBenchmarks {
+
+    private static final long TIMEOUT_MS = 60_000;
+
+    @Param({"fifo", "kernelStyle", "specificNotification"})
+    public String implementation;
+
+    @Param({"4", "64"})
+    public int units;
+
+    // units acquired and released on each operation
+    @Param({"1", "3"})
+    public int unitsPerOperation;
+
+    @Param({"0", "100"})
+    public int holdTokens;
+
+    private NArySemaphore semaphore;
+
+    @Setup
+    public void setup() {
+        switch (implementation) {
+            case "fifo":
+                semaphore = new NAryFifoSemaphore(units);
+                break;
+            case "kernelStyle":
+                semaphore = new NAryFifoSemaphoreWithKernelStyle(units);
+                break;
+            case "specificNotification":
+                semaphore = new NAryFifoSemaphoreWithKernelStyleAndSpecificNotification(units);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown implementation " + implementation);
+        }
+    }
+
+    @Benchmark
+    public boolean acquireAndRelease() throws InterruptedException {
+        boolean acquired = semaphore.acquire(unitsPerOperation, TIMEOUT_MS);
+        if (acquired) {
+            Blackhole.consumeCPU(holdTokens);
+            semaphore.release(unitsPerOperation);
+        }
+        return acquired;
+    }
+}
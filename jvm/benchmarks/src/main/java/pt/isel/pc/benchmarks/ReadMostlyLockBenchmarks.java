@@ -0,0 +1,100 @@
+package pt.isel.pc.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import pt.isel.pc.sketchboard.LocksExamples;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Compares the counters in {@link LocksExamples} on a mix of reads and writes.
+ * Each thread does {@code readsPerWrite} calls to {@code getValue} for each call to {@code inc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadMostlyLockBenchmarks {
+
+    private interface Counter {
+        void inc();
+
+        int getValue();
+    }
+
+    @Param({"privateLock", "explicitLock", "readWriteLock", "stampedLock", "copyOnWrite"})
+    public String implementation;
+
+    @Param({"1", "10", "100", "1000"})
+    public int readsPerWrite;
+
+    private Counter counter;
+
+    // So that each thread has its own position in the read and write sequence
+    @State(Scope.Thread)
+    public static class Operations {
+        int count;
+    }
+
+    @Setup
+    public void setup() {
+        switch (implementation) {
+            case "privateLock": {
+                LocksExamples.UsingAPrivateLock c = new LocksExamples.UsingAPrivateLock();
+                counter = of(c::inc, c::getValue);
+                break;
+            }
+            case "explicitLock": {
+                LocksExamples.UsingAPrivateExplicitLock c = new LocksExamples.UsingAPrivateExplicitLock();
+                counter = of(c::inc, c::getValue);
+                break;
+            }
+            case "readWriteLock": {
+                LocksExamples.UsingAReadWriteLock c = new LocksExamples.UsingAReadWriteLock();
+                counter = of(c::inc, c::getValue);
+                break;
+            }
+            case "stampedLock": {
+                LocksExamples.UsingAStampedLock c = new LocksExamples.UsingAStampedLock();
+                counter = of(c::inc, c::getValue);
+                break;
+            }
+            case "copyOnWrite": {
+                LocksExamples.UsingCopyOnWrite c = new LocksExamples.UsingCopyOnWrite();
+                counter = of(c::inc, c::getValue);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("unknown implementation " + implementation);
+        }
+    }
+
+    private static Counter of(Runnable inc, IntSupplier getValue) {
+        return new Counter() {
+            @Override
+            public void inc() {
+                inc.run();
+            }
+
+            @Override
+            public int getValue() {
+                return getValue.getAsInt();
+            }
+        };
+    }
+
+    @Benchmark
+    public int readOrWrite(Operations operations) {
+        if (operations.count++ % (readsPerWrite + 1) == 0) {
+            counter.inc();
+            return 0;
+        }
+        return counter.getValue();
+    }
+}
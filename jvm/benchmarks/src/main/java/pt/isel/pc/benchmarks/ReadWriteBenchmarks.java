@@ -0,0 +1,180 @@
+package pt.isel.pc.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import pt.isel.pc.nio.IoCompletionPool;
+import pt.isel.pc.nio.ReadWrite;
+import pt.isel.pc.nio.ReadWriteParallel;
+import pt.isel.pc.nio.RxReadWrite;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Compares the socket to file copy time of the hand-written CPS state machines ({@link ReadWrite} and
+ * {@link ReadWriteParallel}) with the RxJava compositions ({@link RxReadWrite}).
+ * <p>
+ * The data is served by a local blocking server, which writes {@code megabytes} on each accepted
+ * connection and then closes it. Each invocation copies one connection into a new temporary file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReadWriteBenchmarks {
+
+    @Param({"64"})
+    public int megabytes;
+
+    @Param({"16384"})
+    public int bufferSize;
+
+    private long size;
+    private ServerSocket serverSocket;
+    private InetSocketAddress address;
+
+    // Only used by the rxRunParallel benchmark, so the other ones don't run for each value
+    @State(Scope.Benchmark)
+    public static class Concurrency {
+        @Param({"2", "4", "8"})
+        public int maxConcurrency;
+    }
+
+    // A new connection and file for each copy
+    @State(Scope.Thread)
+    public static class Channels {
+        private Path path;
+        private AsynchronousSocketChannel source;
+        private AsynchronousFileChannel target;
+
+        @Setup(Level.Invocation)
+        public void open(ReadWriteBenchmarks benchmark) throws Exception {
+            IoCompletionPool ioPool = IoCompletionPool.shared();
+            path = Files.createTempFile("benchmark", ".bin");
+            source = ioPool.openSocket();
+            target = ioPool.openFile(path, WRITE);
+            source.connect(benchmark.address).get();
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() throws IOException {
+            source.close();
+            target.close();
+            Files.delete(path);
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        size = megabytes * 1024L * 1024L;
+        serverSocket = startSourceServer(size);
+        address = new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        serverSocket.close();
+    }
+
+    @Benchmark
+    public long cpsReadWrite(Channels channels) throws Exception {
+        return checked(await(ch -> ReadWrite.run(channels.source, channels.target, null, bufferSize, ch)));
+    }
+
+    @Benchmark
+    public long cpsReadWriteParallel(Channels channels) throws Exception {
+        return checked(await(ch -> ReadWriteParallel.run(channels.source, channels.target, bufferSize, ch)));
+    }
+
+    @Benchmark
+    public long rxRun(Channels channels) {
+        return checked(RxReadWrite.run(channels.source, channels.target, bufferSize).blockingGet());
+    }
+
+    @Benchmark
+    public long rxRunParallel(Channels channels, Concurrency concurrency) {
+        return checked(RxReadWrite.runParallel(
+                channels.source, channels.target, bufferSize, concurrency.maxConcurrency).blockingGet());
+    }
+
+    private long checked(long copied) {
+        if (copied != size) {
+            throw new IllegalStateException("copied " + copied + " bytes instead of " + size);
+        }
+        return copied;
+    }
+
+    private static long await(Consumer<CompletionHandler<Integer, Void>> operation) throws Exception {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        operation.accept(new CompletionHandler<>() {
+            @Override
+            public void completed(Integer result, Void attachment) {
+                future.complete(result);
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                future.completeExceptionally(exc);
+            }
+        });
+        return future.get(1, TimeUnit.MINUTES);
+    }
+
+    // Serves each connection on its own thread, so that runs with more than one thread copy concurrently
+    private static ServerSocket startSourceServer(long size) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread th = new Thread(() -> {
+            while (true) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    // server socket was closed
+                    return;
+                }
+                Thread writer = new Thread(() -> serve(socket, size));
+                writer.setDaemon(true);
+                writer.start();
+            }
+        });
+        th.setDaemon(true);
+        th.start();
+        return serverSocket;
+    }
+
+    private static void serve(Socket socket, long size) {
+        byte[] chunk = new byte[64 * 1024];
+        try (socket) {
+            OutputStream out = socket.getOutputStream();
+            long remaining = size;
+            while (remaining > 0) {
+                int len = (int) Math.min(chunk.length, remaining);
+                out.write(chunk, 0, len);
+                remaining -= len;
+            }
+        } catch (IOException e) {
+            // the copy failed or was abandoned, which the benchmark reports
+        }
+    }
+}
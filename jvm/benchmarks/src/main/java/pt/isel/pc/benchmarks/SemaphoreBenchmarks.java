@@ -0,0 +1,95 @@
+package pt.isel.pc.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import pt.isel.pc.examples.lockfree.OptimizedSemaphore;
+import pt.isel.pc.examples.synchronizers.SimpleSemaphore;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link SimpleSemaphore}, using a monitor, with the {@link OptimizedSemaphore}, with a lock-free fast path.
+ * The contention is defined by the number of units, relative to the number of threads,
+ * and by the amount of work done while holding a unit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SemaphoreBenchmarks {
+
+    // large enough to never be reached
+    private static final long TIMEOUT_MS = 60_000;
+
+    private interface UnarySemaphore {
+        boolean acquire(long timeout) throws InterruptedException;
+
+        void release();
+    }
+
+    @Param({"simple", "optimized"})
+    public String implementation;
+
+    @Param({"1", "4", "64"})
+    public int units;
+
+    // Blackhole.consumeCPU tokens while holding the unit
+    @Param({"0", "100"})
+    public int holdTokens;
+
+    private UnarySemaphore semaphore;
+
+    @Setup
+    public void setup() {
+        switch (implementation) {
+            case "simple": {
+                SimpleSemaphore simple = new SimpleSemaphore(units);
+                semaphore = new UnarySemaphore() {
+                    @Override
+                    public boolean acquire(long timeout) throws InterruptedException {
+                        return simple.acquire(timeout);
+                    }
+
+                    @Override
+                    public void release() {
+                        simple.release();
+                    }
+                };
+                break;
+            }
+            case "optimized": {
+                OptimizedSemaphore optimized = new OptimizedSemaphore(units);
+                semaphore = new UnarySemaphore() {
+                    @Override
+                    public boolean acquire(long timeout) throws InterruptedException {
+                        return optimized.acquire(timeout);
+                    }
+
+                    @Override
+                    public void release() {
+                        optimized.release();
+                    }
+                };
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("unknown implementation " + implementation);
+        }
+    }
+
+    @Benchmark
+    public boolean acquireAndRelease() throws InterruptedException {
+        boolean acquired = semaphore.acquire(TIMEOUT_MS);
+        if (acquired) {
+            Blackhole.consumeCPU(holdTokens);
+            semaphore.release();
+        }
+        return acquired;
+    }
+}
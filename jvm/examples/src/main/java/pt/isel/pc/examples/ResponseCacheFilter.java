@@ -0,0 +1,544 @@
+package pt.isel.pc.examples;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.isel.pc.utils.Timeouts;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A filter that caches successful GET responses, keyed by method and URI, and replays their headers and body
+ * without calling the rest of the chain. Each cached response has an ETag, so that requests with a matching
+ * {@code If-None-Match} get a 304 response without a body.
+ * <p>
+ * Only responses with a 200 status, without a redirect or an error, are cached. Responses that forbid it
+ * with {@code Cache-Control} ({@code no-store}, {@code no-cache} or {@code private}), or that depend on
+ * request headers ({@code Vary}), are not cached either, since the key is only the method and the URI.
+ * Entries expire after a time to live, so responses that change over time are served stale for at most
+ * that long. Only responses that depend solely on the URI belong behind this filter.
+ * <p>
+ * The cache is bounded by the estimated size of its entries: the body, the key, the headers, and a fixed
+ * overhead for the map entry and the ETag, so that many small or empty responses under distinct URIs, e.g.
+ * differing only on the query string, are also evicted. It is split into segments, each one an LRU map
+ * protected by its own lock, so that concurrent requests for different URIs seldom contend.
+ * The eviction is LRU per segment, which approximates a global LRU when the keys are evenly distributed.
+ * <p>
+ * Only for synchronous servlets: the response body is captured when the chain returns.
+ * The filter holder must not be marked as async supported, so that {@code startAsync} fails
+ * on any servlet behind it.
+ */
+public class ResponseCacheFilter implements Filter {
+
+    private static final Logger log = LoggerFactory.getLogger(ResponseCacheFilter.class);
+
+    private static final int DEFAULT_SEGMENTS = 16;
+    private static final long DEFAULT_TIME_TO_LIVE_SECONDS = 60;
+    // the map node, the Entry and the ETag, plus the arrays and lists behind the key and the headers
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    private final Segment[] segments;
+    private final long timeToLiveNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ResponseCacheFilter(long maxBytes) {
+        this(maxBytes, DEFAULT_SEGMENTS);
+    }
+
+    public ResponseCacheFilter(long maxBytes, int nOfSegments) {
+        this(maxBytes, nOfSegments, DEFAULT_TIME_TO_LIVE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public ResponseCacheFilter(long maxBytes, int nOfSegments, long timeToLive, TimeUnit timeUnit) {
+        if (maxBytes <= 0 || nOfSegments <= 0 || timeToLive <= 0) {
+            throw new IllegalArgumentException("maxBytes, nOfSegments and timeToLive must be positive");
+        }
+        timeToLiveNanos = timeUnit.toNanos(timeToLive);
+        segments = new Segment[nOfSegments];
+        for (int i = 0; i < nOfSegments; ++i) {
+            segments[i] = new Segment(Math.max(1, maxBytes / nOfSegments));
+        }
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) resp;
+        if (!request.getMethod().equals("GET")) {
+            chain.doFilter(req, resp);
+            return;
+        }
+        String key = keyOf(request);
+        Segment segment = segmentFor(key);
+        Entry entry = segment.get(key);
+        if (entry != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            CapturingResponse capturing = new CapturingResponse(response);
+            chain.doFilter(request, capturing);
+            if (capturing.sent) {
+                // the redirect or error response was already written by the container
+                return;
+            }
+            byte[] body = capturing.getBody();
+            if (!capturing.isCacheable()) {
+                // not cached, only forwarded
+                replayHeaders(capturing.headers, response);
+                response.setStatus(capturing.status);
+                response.setContentLength(body.length);
+                response.getOutputStream().write(body);
+                return;
+            }
+            entry = new Entry(key, body, capturing.headers, etagOf(body),
+                    Timeouts.deadlineForNanos(timeToLiveNanos));
+            evictions.add(segment.put(key, entry));
+        }
+        replayHeaders(entry.headers, response);
+        response.setHeader("ETag", entry.etag);
+        if (matches(request.getHeader("If-None-Match"), entry.etag)) {
+            notModified.increment();
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentLength(entry.body.length);
+        response.getOutputStream().write(entry.body);
+    }
+
+    public Stats getStats() {
+        long bytes = 0;
+        int entries = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                bytes += segment.bytes;
+                entries += segment.map.size();
+            }
+        }
+        return new Stats(hits.sum(), misses.sum(), notModified.sum(), evictions.sum(), entries, bytes);
+    }
+
+    private static void replayHeaders(Map<String, List<String>> headers, HttpServletResponse response) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            for (String value : header.getValue()) {
+                response.addHeader(header.getKey(), value);
+            }
+        }
+    }
+
+    private static String keyOf(HttpServletRequest request) {
+        String query = request.getQueryString();
+        return request.getMethod() + " " + request.getRequestURI() + (query != null ? "?" + query : "");
+    }
+
+    private Segment segmentFor(String key) {
+        // spreads the hash bits, as in HashMap
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String etagOf(byte[] body) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is required on every Java platform
+            throw new IllegalStateException(e);
+        }
+        byte[] hash = digest.digest(body);
+        StringBuilder sb = new StringBuilder("\"");
+        // 128 bits are enough to identify a representation
+        for (int i = 0; i < 16; ++i) {
+            sb.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(hash[i] & 0xF, 16));
+        }
+        return sb.append('"').toString();
+    }
+
+    private static class Entry {
+        final byte[] body;
+        // all the response headers, except Content-Length
+        final Map<String, List<String>> headers;
+        final String etag;
+        // a Timeouts.nowNanos value
+        final long expiresAt;
+        // the estimated size, counted against the segment's bound
+        final long size;
+
+        Entry(String key, byte[] body, Map<String, List<String>> headers, String etag, long expiresAt) {
+            this.body = body;
+            this.headers = headers;
+            this.etag = etag;
+            this.expiresAt = expiresAt;
+            this.size = sizeOf(key, body, headers);
+        }
+
+        // strings are counted as two bytes per char, since they may not be Latin-1
+        private static long sizeOf(String key, byte[] body, Map<String, List<String>> headers) {
+            long size = ENTRY_OVERHEAD_BYTES + body.length + 2L * key.length();
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                for (String value : header.getValue()) {
+                    size += 2L * (header.getKey().length() + value.length());
+                }
+            }
+            return size;
+        }
+    }
+
+    private static class Segment {
+        private final long maxBytes;
+        // access ordered, so the iteration starts on the least recently used entry
+        private final LinkedHashMap<String, Entry> map = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes = 0;
+
+        Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * @return the entry, or null if there is none or it expired, in which case it is removed.
+         */
+        synchronized Entry get(String key) {
+            Entry entry = map.get(key);
+            if (entry != null && Timeouts.isTimeout(Timeouts.remainingNanosUntil(entry.expiresAt))) {
+                map.remove(key);
+                bytes -= entry.size;
+                return null;
+            }
+            return entry;
+        }
+
+        /**
+         * @return the number of evicted entries.
+         */
+        synchronized int put(String key, Entry entry) {
+            if (entry.size > maxBytes) {
+                log.debug("response for '{}' with {} bytes is too large to cache", key, entry.size);
+                return 0;
+            }
+            Entry previous = map.put(key, entry);
+            bytes += entry.size - (previous != null ? previous.size : 0);
+            int evicted = 0;
+            Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+            while (bytes > maxBytes) {
+                Entry eldest = it.next().getValue();
+                it.remove();
+                bytes -= eldest.size;
+                evicted += 1;
+            }
+            return evicted;
+        }
+    }
+
+    /**
+     * A snapshot of the cache metrics.
+     */
+    public static class Stats {
+        public final long hits;
+        public final long misses;
+        public final long notModified;
+        public final long evictions;
+        public final int entries;
+        public final long bytes;
+
+        private Stats(long hits, long misses, long notModified, long evictions, int entries, long bytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.notModified = notModified;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits
+                    + ", misses=" + misses
+                    + ", notModified=" + notModified
+                    + ", evictions=" + evictions
+                    + ", entries=" + entries
+                    + ", bytes=" + bytes;
+        }
+    }
+
+    // Captures the body, status and headers, which are only written to the wrapped response after the chain
+    // returns, except on a redirect or an error, which the container writes immediately
+    private static class CapturingResponse extends HttpServletResponseWrapper {
+
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        // header names are case insensitive
+        private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private int status = SC_OK;
+        // true if a redirect or an error was sent
+        private boolean sent = false;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        CapturingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        byte[] getBody() {
+            if (writer != null) {
+                writer.flush();
+            }
+            return body.toByteArray();
+        }
+
+        boolean isCacheable() {
+            if (status != SC_OK || sent || headers.containsKey("Vary")) {
+                return false;
+            }
+            for (String value : headers.getOrDefault("Cache-Control", List.of())) {
+                String directives = value.toLowerCase();
+                if (directives.contains("no-store") || directives.contains("no-cache")
+                        || directives.contains("private")) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            if (writer != null) {
+                throw new IllegalStateException("getWriter was already called");
+            }
+            if (outputStream == null) {
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public boolean isReady() {
+                        return true;
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        throw new IllegalStateException("non-blocking output is not supported when caching");
+                    }
+
+                    @Override
+                    public void write(int b) {
+                        body.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                        body.write(b, off, len);
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() {
+            if (outputStream != null) {
+                throw new IllegalStateException("getOutputStream was already called");
+            }
+            if (writer == null) {
+                String encoding = getCharacterEncoding();
+                writer = new PrintWriter(new OutputStreamWriter(body,
+                        encoding != null ? Charset.forName(encoding) : StandardCharsets.ISO_8859_1));
+            }
+            return writer;
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            status = sc;
+        }
+
+        @Override
+        public int getStatus() {
+            return status;
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            beforeSend(sc);
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            beforeSend(sc);
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            beforeSend(SC_FOUND);
+            super.sendRedirect(location);
+        }
+
+        private void beforeSend(int sc) {
+            status = sc;
+            sent = true;
+            // e.g. cookies set before the redirect
+            replayHeaders(headers, (HttpServletResponse) getResponse());
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            resetBuffer();
+            headers.clear();
+            status = SC_OK;
+        }
+
+        @Override
+        public void resetBuffer() {
+            if (writer != null) {
+                // so that the characters still buffered in the writer are also discarded
+                writer.flush();
+            }
+            body.reset();
+        }
+
+        @Override
+        public void setContentType(String type) {
+            // also on the wrapped response, so that getCharacterEncoding observes the charset
+            super.setContentType(type);
+            if (type != null) {
+                setCapturedHeader("Content-Type", type);
+            } else {
+                headers.remove("Content-Type");
+            }
+        }
+
+        @Override
+        public String getContentType() {
+            return getHeader("Content-Type");
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            // set from the captured body
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            // set from the captured body
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (name.equalsIgnoreCase("Content-Type")) {
+                setContentType(value);
+            } else if (!name.equalsIgnoreCase("Content-Length")) {
+                headers.computeIfAbsent(name, ignore -> new ArrayList<>()).add(value);
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (name.equalsIgnoreCase("Content-Type")) {
+                setContentType(value);
+            } else if (!name.equalsIgnoreCase("Content-Length")) {
+                setCapturedHeader(name, value);
+            }
+        }
+
+        private void setCapturedHeader(String name, String value) {
+            List<String> values = new ArrayList<>();
+            values.add(value);
+            headers.put(name, values);
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            addHeader(name, Integer.toString(value));
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            setHeader(name, Integer.toString(value));
+        }
+
+        @Override
+        public void addDateHeader(String name, long date) {
+            addHeader(name, formatDate(date));
+        }
+
+        @Override
+        public void setDateHeader(String name, long date) {
+            setHeader(name, formatDate(date));
+        }
+
+        private static String formatDate(long date) {
+            return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(date).atZone(ZoneOffset.UTC));
+        }
+
+        @Override
+        public boolean containsHeader(String name) {
+            return headers.containsKey(name);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            List<String> values = headers.get(name);
+            return values != null && !values.isEmpty() ? values.get(0) : null;
+        }
+
+        @Override
+        public Collection<String> getHeaders(String name) {
+            return List.copyOf(headers.getOrDefault(name, List.of()));
+        }
+
+        @Override
+        public Collection<String> getHeaderNames() {
+            return List.copyOf(headers.keySet());
+        }
+
+        @Override
+        public void flushBuffer() {
+            // nothing is written to the wrapped response before the chain returns
+        }
+    }
+}
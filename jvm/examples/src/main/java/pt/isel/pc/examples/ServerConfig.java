@@ -0,0 +1,237 @@
+package pt.isel.pc.examples;
+
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * Jetty server settings, loaded from a properties file so that they can be tuned per host.
+ * All the keys are optional:
+ * <ul>
+ *     <li>{@code server.port}, 8080 by default, 0 for an ephemeral port.</li>
+ *     <li>{@code threads.min}, {@code threads.max} and {@code threads.idleTimeoutMs},
+ *     the {@link QueuedThreadPool} configuration.</li>
+ *     <li>{@code threads.virtual}, {@code true} to use a {@link VirtualThreadPool} instead, ignoring the other
+ *     thread settings.</li>
+ *     <li>{@code connector.acceptors} and {@code connector.selectors}, -1 for Jetty to choose based on the
+ *     number of processors.</li>
+ *     <li>{@code connector.acceptQueueSize}, the listen backlog, 0 for the OS default.</li>
+ *     <li>{@code connector.idleTimeoutMs}, the connection idle timeout.</li>
+ *     <li>{@code http.outputBufferSize}, the response buffer size, i.e. the size of the responses
+ *     that don't need to be written in multiple steps.</li>
+ * </ul>
+ */
+public class ServerConfig {
+
+    public static final String CONFIG_PROPERTY = "pt.isel.pc.serverConfig";
+    public static final String DEFAULT_RESOURCE = "server.properties";
+
+    private final int port;
+    private final int minThreads;
+    private final int maxThreads;
+    private final int threadIdleTimeoutMs;
+    private final boolean virtualThreads;
+    private final int acceptors;
+    private final int selectors;
+    private final int acceptQueueSize;
+    private final long connectorIdleTimeoutMs;
+    private final int outputBufferSize;
+
+    private ServerConfig(Properties props) {
+        port = getInt(props, "server.port", 8080);
+        minThreads = getInt(props, "threads.min", 8);
+        maxThreads = getInt(props, "threads.max", 200);
+        threadIdleTimeoutMs = getInt(props, "threads.idleTimeoutMs", 60_000);
+        virtualThreads = Boolean.parseBoolean(props.getProperty("threads.virtual", "false").trim());
+        acceptors = getInt(props, "connector.acceptors", -1);
+        selectors = getInt(props, "connector.selectors", -1);
+        acceptQueueSize = getInt(props, "connector.acceptQueueSize", 0);
+        connectorIdleTimeoutMs = getInt(props, "connector.idleTimeoutMs", 30_000);
+        outputBufferSize = getInt(props, "http.outputBufferSize", 32 * 1024);
+        if (port < 0 || minThreads < 1 || maxThreads < minThreads || threadIdleTimeoutMs < 0
+                || acceptQueueSize < 0 || connectorIdleTimeoutMs < 0 || outputBufferSize <= 0) {
+            throw new IllegalArgumentException("invalid server configuration: " + this);
+        }
+    }
+
+    public static ServerConfig fromProperties(Properties props) {
+        return new ServerConfig(props);
+    }
+
+    public static ServerConfig load(Path path) throws IOException {
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            props.load(reader);
+        }
+        return new ServerConfig(props);
+    }
+
+    /**
+     * Loads from the file named by the {@value #CONFIG_PROPERTY} system property, if defined,
+     * otherwise from the {@value #DEFAULT_RESOURCE} class path resource, if present,
+     * otherwise uses all the default values.
+     */
+    public static ServerConfig loadDefault() throws IOException {
+        String fileName = System.getProperty(CONFIG_PROPERTY);
+        if (fileName != null) {
+            return load(Paths.get(fileName));
+        }
+        Properties props = new Properties();
+        try (InputStream in = ServerConfig.class.getClassLoader().getResourceAsStream(DEFAULT_RESOURCE)) {
+            if (in != null) {
+                props.load(in);
+            }
+        }
+        return new ServerConfig(props);
+    }
+
+    /**
+     * Creates a server with a single HTTP connector, without a handler.
+     */
+    public Server createServer() {
+        Server server = new Server(createThreadPool());
+        HttpConfiguration httpConfig = new HttpConfiguration();
+        httpConfig.setOutputBufferSize(outputBufferSize);
+        ServerConnector connector = new ServerConnector(
+                server, acceptors, selectors, new HttpConnectionFactory(httpConfig));
+        connector.setPort(port);
+        connector.setAcceptQueueSize(acceptQueueSize);
+        connector.setIdleTimeout(connectorIdleTimeoutMs);
+        server.addConnector(connector);
+        return server;
+    }
+
+    private ThreadPool createThreadPool() {
+        if (virtualThreads) {
+            return new VirtualThreadPool();
+        }
+        QueuedThreadPool threadPool = new QueuedThreadPool(maxThreads, minThreads, threadIdleTimeoutMs);
+        threadPool.setName("server");
+        return threadPool;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public int getThreadIdleTimeoutMs() {
+        return threadIdleTimeoutMs;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    public int getSelectors() {
+        return selectors;
+    }
+
+    public int getAcceptQueueSize() {
+        return acceptQueueSize;
+    }
+
+    public long getConnectorIdleTimeoutMs() {
+        return connectorIdleTimeoutMs;
+    }
+
+    public int getOutputBufferSize() {
+        return outputBufferSize;
+    }
+
+    @Override
+    public String toString() {
+        return "ServerConfig{port=" + port
+                + ", threads=" + (virtualThreads ? "virtual" : minThreads + ".." + maxThreads
+                + ", threadIdleTimeoutMs=" + threadIdleTimeoutMs)
+                + ", acceptors=" + acceptors
+                + ", selectors=" + selectors
+                + ", acceptQueueSize=" + acceptQueueSize
+                + ", connectorIdleTimeoutMs=" + connectorIdleTimeoutMs
+                + ", outputBufferSize=" + outputBufferSize
+                + "}";
+    }
+
+    private static int getInt(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid value for '" + key + "': " + value);
+        }
+    }
+
+    /**
+     * A snapshot of the statistics of a server thread pool.
+     */
+    public static class ThreadPoolStats {
+        public final int threads;
+        public final int idleThreads;
+        public final int busyThreads;
+        // -1 if not known
+        public final int queueSize;
+        public final int maxThreads;
+        public final boolean lowOnThreads;
+
+        private ThreadPoolStats(int threads, int idleThreads, int busyThreads, int queueSize, int maxThreads,
+                                boolean lowOnThreads) {
+            this.threads = threads;
+            this.idleThreads = idleThreads;
+            this.busyThreads = busyThreads;
+            this.queueSize = queueSize;
+            this.maxThreads = maxThreads;
+            this.lowOnThreads = lowOnThreads;
+        }
+
+        public static ThreadPoolStats of(Server server) {
+            ThreadPool pool = server.getThreadPool();
+            if (pool instanceof QueuedThreadPool) {
+                QueuedThreadPool qtp = (QueuedThreadPool) pool;
+                return new ThreadPoolStats(qtp.getThreads(), qtp.getIdleThreads(), qtp.getBusyThreads(),
+                        qtp.getQueueSize(), qtp.getMaxThreads(), qtp.isLowOnThreads());
+            }
+            int threads = pool.getThreads();
+            int idle = pool.getIdleThreads();
+            int max = pool instanceof ThreadPool.SizedThreadPool
+                    ? ((ThreadPool.SizedThreadPool) pool).getMaxThreads()
+                    : -1;
+            return new ThreadPoolStats(threads, idle, threads - idle, -1, max, pool.isLowOnThreads());
+        }
+
+        @Override
+        public String toString() {
+            return "threads=" + threads
+                    + ", idle=" + idleThreads
+                    + ", busy=" + busyThreads
+                    + ", queued=" + queueSize
+                    + ", max=" + maxThreads
+                    + (lowOnThreads ? ", LOW ON THREADS" : "");
+        }
+    }
+}
@@ -1,40 +1,84 @@
 package pt.isel.pc.examples;
 
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class SimpleServletExample {
 
     private static final Logger log = LoggerFactory.getLogger(SimpleServletExample.class);
-    private static final int PORT = 8080;
+    private static final long DELAY_MS = 1000;
+    private static final long CACHE_MAX_BYTES = 16 * 1024 * 1024;
 
+    /**
+     * Starts the server with {@link TheServlet}, or with {@link TheAsyncServlet} if the first argument is "async".
+     * The server settings are loaded as defined in {@link ServerConfig#loadDefault()}.
+     */
     public static void main(String[] args) throws Exception {
-        Server server = new Server(PORT);
+        ServerConfig config = ServerConfig.loadDefault();
+        log.info("using {}", config);
+        Server server = config.createServer();
         ServletHandler handler = new ServletHandler();
-        TheServlet servlet = new TheServlet();
-
-        handler.addServletWithMapping(new ServletHolder(servlet), "/*");
-        log.info("registered {} on all paths", servlet);
+        ScheduledExecutorService timer = null;
+
+        if (args.length > 0 && args[0].equals("async")) {
+            timer = Executors.newSingleThreadScheduledExecutor();
+            TheAsyncServlet servlet = new TheAsyncServlet(timer, DELAY_MS);
+            handler.addServletWithMapping(asyncHolder(servlet), "/*");
+            log.info("registered {} on all paths", servlet);
+        } else {
+            TheServlet servlet = new TheServlet();
+            handler.addServletWithMapping(new ServletHolder(servlet), "/*");
+            log.info("registered {} on all paths", servlet);
+            // repeated GETs for the same URI are served from the cache, without the servlet delay.
+            // Until the entry expires, the body has the thread name of the request that was cached.
+            handler.addFilterWithMapping(new FilterHolder(new ResponseCacheFilter(CACHE_MAX_BYTES)),
+                    "/*", EnumSet.of(DispatcherType.REQUEST));
+        }
 
         server.setHandler(handler);
         server.start();
-        log.info("server started listening on port {}", PORT);
+        log.info("server started listening on port {}", config.getPort());
+        log.info("thread pool: {}", ServerConfig.ThreadPoolStats.of(server));
 
         log.info("Waiting for server to end");
         server.join();
 
+        if (timer != null) {
+            timer.shutdown();
+        }
         log.info("main is ending");
     }
 
+    static ServletHolder asyncHolder(HttpServlet servlet) {
+        ServletHolder holder = new ServletHolder(servlet);
+        // without this, request.startAsync throws IllegalStateException
+        holder.setAsyncSupported(true);
+        return holder;
+    }
+
     static class TheServlet extends HttpServlet {
 
         private String fieldRequestURI;
@@ -67,4 +111,130 @@ public class SimpleServletExample {
             response.getOutputStream().write(bodyBytes);
         }
     }
+
+    /**
+     * Same response as {@link TheServlet}, without blocking the request thread.
+     * The delay is a timer task instead of a sleep and the response is written with a {@link WriteListener},
+     * so the number of concurrent requests is no longer bounded by the number of pool threads.
+     */
+    static class TheAsyncServlet extends HttpServlet {
+
+        private final ScheduledExecutorService timer;
+        private final long delayMs;
+
+        TheAsyncServlet(ScheduledExecutorService timer, long delayMs) {
+            this.timer = timer;
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public void doGet(HttpServletRequest request, HttpServletResponse response) {
+            log.info("doGet request: URI='{}', method='{}'", request.getRequestURI(), request.getMethod());
+
+            // the request may be recycled after the async context completes, so these are captured now
+            String method = request.getMethod();
+            String requestURI = request.getRequestURI();
+
+            // the response is only committed when the async context completes, after doGet returns
+            AsyncContext asyncContext = request.startAsync();
+            asyncContext.setTimeout(delayMs + 30_000);
+            // set by whoever produces the response first: the timer task, or the timeout or error handling,
+            // so that the timer task never uses an already completed context
+            AtomicBoolean responded = new AtomicBoolean();
+            ScheduledFuture<?> delayed;
+            try {
+                delayed = timer.schedule(
+                        () -> respond(asyncContext, responded, method, requestURI), delayMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                log.warn("timer is shut down, unable to delay the response");
+                respondWithError(asyncContext, responded, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+            asyncContext.addListener(new AsyncListener() {
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                    log.warn("request timed out: URI='{}'", requestURI);
+                    delayed.cancel(false);
+                    respondWithError(asyncContext, responded, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                    log.warn("request failed: URI='{}', {}", requestURI, String.valueOf(event.getThrowable()));
+                    // the container completes the context after the error
+                    responded.set(true);
+                    delayed.cancel(false);
+                }
+
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    delayed.cancel(false);
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                    // not restarted
+                }
+            });
+        }
+
+        private static void respondWithError(AsyncContext asyncContext, AtomicBoolean responded, int status) {
+            if (!responded.compareAndSet(false, true)) {
+                // the response is already being written
+                return;
+            }
+            ((HttpServletResponse) asyncContext.getResponse()).setStatus(status);
+            asyncContext.complete();
+        }
+
+        private static void respond(
+                AsyncContext asyncContext, AtomicBoolean responded, String method, String requestURI) {
+            if (!responded.compareAndSet(false, true)) {
+                log.debug("request already completed, not responding: URI='{}'", requestURI);
+                return;
+            }
+            String bodyString = String.format("Request processed on thread '%s', method='%s', URI='%s'\n",
+                    Thread.currentThread().getName(),
+                    method,
+                    requestURI);
+            byte[] bodyBytes = bodyString.getBytes(StandardCharsets.UTF_8);
+
+            HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+            response.addHeader("Content-Type", "text/plain, charset=utf-8");
+            response.addHeader("Content-Length", Integer.toString(bodyBytes.length));
+            ServletOutputStream out;
+            try {
+                out = response.getOutputStream();
+            } catch (IOException e) {
+                log.warn("unable to get the response output stream: {}", e.getMessage());
+                asyncContext.complete();
+                return;
+            }
+            out.setWriteListener(new WriteListener() {
+
+                // only accessed on onWritePossible, which is never called concurrently
+                private boolean written = false;
+
+                @Override
+                public void onWritePossible() throws IOException {
+                    // isReady returning false means that onWritePossible will be called again when it is possible
+                    // to write, so there isn't any thread blocked waiting for the write
+                    while (out.isReady()) {
+                        if (written) {
+                            asyncContext.complete();
+                            return;
+                        }
+                        out.write(bodyBytes);
+                        written = true;
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    log.warn("response write failed: {}", t.getMessage());
+                    asyncContext.complete();
+                }
+            });
+        }
+    }
 }
@@ -0,0 +1,91 @@
+package pt.isel.pc.examples;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Jetty {@link ThreadPool} that runs each task on a new virtual thread, so that blocking servlets don't
+ * need a pool thread per in-flight request.
+ * <p>
+ * The project targets Java 11, so {@code Executors.newVirtualThreadPerTaskExecutor} is obtained by reflection
+ * and this pool can only be created when running on a JVM with virtual threads (see {@link #isAvailable()}).
+ */
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+    private static final Method NEW_EXECUTOR = findFactory();
+
+    private final ExecutorService executor;
+    private final AtomicInteger activeThreads = new AtomicInteger();
+
+    public VirtualThreadPool() {
+        if (NEW_EXECUTOR == null) {
+            throw new UnsupportedOperationException("virtual threads are not available on this JVM");
+        }
+        try {
+            executor = (ExecutorService) NEW_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("unable to create the virtual thread executor", e);
+        }
+    }
+
+    public static boolean isAvailable() {
+        return NEW_EXECUTOR != null;
+    }
+
+    private static Method findFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(() -> {
+            activeThreads.incrementAndGet();
+            try {
+                command.run();
+            } finally {
+                activeThreads.decrementAndGet();
+            }
+        });
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            // wait until stopped
+        }
+    }
+
+    /**
+     * The number of running tasks, since there is a thread per task.
+     */
+    @Override
+    public int getThreads() {
+        return activeThreads.get();
+    }
+
+    @Override
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        executor.shutdownNow();
+        super.doStop();
+    }
+}
@@ -0,0 +1,81 @@
+package pt.isel.pc.examples.lockfree;
+
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A one-shot countdown latch, similar to {@link java.util.concurrent.CountDownLatch}, that can also be awaited
+ * asynchronously. The waiting is delegated to a {@link LockFreeManualResetEvent}, set when the count reaches zero.
+ * <p>
+ * Useful for fan-in over asynchronous operations: {@link #asCompletionHandler()} counts down on each
+ * completion and the first failure is available via {@link #getFailure()}.
+ */
+public class AsyncCountdownLatch {
+
+    private final AtomicInteger count;
+    private final LockFreeManualResetEvent event;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public AsyncCountdownLatch(int initialCount) {
+        if (initialCount < 0) {
+            throw new IllegalArgumentException("initialCount must not be negative");
+        }
+        count = new AtomicInteger(initialCount);
+        event = new LockFreeManualResetEvent(initialCount == 0);
+    }
+
+    public void countDown() {
+        while (true) {
+            int observed = count.get();
+            if (observed == 0) {
+                return;
+            }
+            if (count.compareAndSet(observed, observed - 1)) {
+                if (observed == 1) {
+                    event.set();
+                }
+                return;
+            }
+        }
+    }
+
+    public int getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the first failure reported to a handler from {@link #asCompletionHandler()}, or {@code null}.
+     */
+    public Throwable getFailure() {
+        return failure.get();
+    }
+
+    public boolean await(long timeout) throws InterruptedException {
+        return event.awaitSet(timeout);
+    }
+
+    public CompletableFuture<Boolean> awaitAsync(long timeout) {
+        return event.awaitSetAsync(timeout);
+    }
+
+    /**
+     * A handler that counts down on completion, either successful or failed.
+     * Each handler must be completed only once.
+     */
+    public <V, A> CompletionHandler<V, A> asCompletionHandler() {
+        return new CompletionHandler<>() {
+            @Override
+            public void completed(V result, A attachment) {
+                countDown();
+            }
+
+            @Override
+            public void failed(Throwable exc, A attachment) {
+                failure.compareAndSet(null, exc);
+                countDown();
+            }
+        };
+    }
+}
@@ -0,0 +1,229 @@
+package pt.isel.pc.examples.lockfree;
+
+import pt.isel.pc.utils.TimerWheel;
+import pt.isel.pc.utils.Timeouts;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link pt.isel.pc.examples.synchronizers.ManualResetEvent} without locks.
+ * <p>
+ * The state and the generation are in a single atomic word: the lower bit is the state and the remaining bits
+ * are the generation, incremented by each {@link #reset()} of a set event.
+ * So, {@link #awaitSet(long)} on a set event and {@link #isSet()} are a single volatile read.
+ * <p>
+ * The generation has the role of the {@code Request} on the lock-based version: a waiter that observed
+ * generation {@code g} unset is released if the event is set on that generation, even if it is reset
+ * before the waiter resumes, because the reset changes the generation.
+ * <p>
+ * The waiters park on a lock-free stack (Treiber stack), which {@link #set()} drains with a single
+ * {@code getAndSet}, unparking all of them. The asynchronous waiters, from {@link #awaitSetAsync(long)},
+ * are on the same stack and their futures are completed by {@link #set()}.
+ * A waiter that gives up (timeout or interrupt) is marked as cancelled and then unlinks all the cancelled
+ * waiters from the stack, wherever they are, so that they don't accumulate until the next set.
+ */
+public class LockFreeManualResetEvent {
+
+    private static final long SET = 1;
+    private static final long GENERATION_UNIT = 2;
+
+    private static class Waiter {
+        // null for an asynchronous waiter
+        final Thread thread;
+        final CompletableFuture<Boolean> future;
+        volatile boolean cancelled = false;
+        // written by push before the waiter is published, and by removeCancelled to skip cancelled waiters
+        volatile Waiter next;
+
+        Waiter(Thread thread, CompletableFuture<Boolean> future) {
+            this.thread = thread;
+            this.future = future;
+        }
+
+        void release() {
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            } else {
+                future.complete(true);
+            }
+        }
+    }
+
+    // generation << 1 | state
+    private final AtomicLong word;
+    private final AtomicReference<Waiter> waiters = new AtomicReference<>(null);
+
+    public LockFreeManualResetEvent(boolean initialState) {
+        word = new AtomicLong(initialState ? SET : 0);
+    }
+
+    public boolean isSet() {
+        return (word.get() & SET) != 0;
+    }
+
+    public void set() {
+        while (true) {
+            long observed = word.get();
+            if ((observed & SET) != 0) {
+                // already set, so there are no waiters to release
+                return;
+            }
+            if (word.compareAndSet(observed, observed | SET)) {
+                break;
+            }
+        }
+        Waiter waiter = waiters.getAndSet(null);
+        while (waiter != null) {
+            if (!waiter.cancelled) {
+                waiter.release();
+            }
+            waiter = waiter.next;
+        }
+    }
+
+    public void reset() {
+        while (true) {
+            long observed = word.get();
+            if ((observed & SET) == 0) {
+                return;
+            }
+            // clears the state and starts a new generation
+            if (word.compareAndSet(observed, (observed & ~SET) + GENERATION_UNIT)) {
+                return;
+            }
+        }
+    }
+
+    public boolean awaitSet(long timeout) throws InterruptedException {
+        // fast-path
+        long observed = word.get();
+        if ((observed & SET) != 0) {
+            return true;
+        }
+        if (Timeouts.noWait(timeout)) {
+            return false;
+        }
+        // wait-path
+        long deadline = Timeouts.deadlineFor(timeout);
+        Waiter waiter = new Waiter(Thread.currentThread(), null);
+        push(waiter);
+        while (true) {
+            // the event was set on the observed generation, if the word changed.
+            // Checked after the push, so that a set happening before it is not missed.
+            if (word.get() != observed) {
+                waiter.cancelled = true;
+                return true;
+            }
+            long remaining = Timeouts.remainingNanosUntil(deadline);
+            if (Timeouts.isTimeout(remaining)) {
+                waiter.cancelled = true;
+                removeCancelled();
+                return false;
+            }
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) {
+                waiter.cancelled = true;
+                if (word.get() != observed) {
+                    // the set happened before the interrupt was observed, so the interrupt is kept
+                    Thread.currentThread().interrupt();
+                    return true;
+                }
+                removeCancelled();
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #awaitSet(long)}: the returned future completes with {@code true}
+     * when the event is set or with {@code false} when the timeout expires, without blocking any thread.
+     * When completed by a set, the continuations run on the thread calling {@link #set()}.
+     */
+    public CompletableFuture<Boolean> awaitSetAsync(long timeout) {
+        // fast-path
+        long observed = word.get();
+        if ((observed & SET) != 0) {
+            return CompletableFuture.completedFuture(true);
+        }
+        if (Timeouts.noWait(timeout)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        // wait-path
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        Waiter waiter = new Waiter(null, future);
+        push(waiter);
+        // same check as in awaitSet, for a set happening before the push
+        if (word.get() != observed) {
+            waiter.cancelled = true;
+            future.complete(true);
+            return future;
+        }
+        TimerWheel.Timeout timer = TimerWheel.shared()
+                .schedule(() -> future.complete(false), timeout, TimeUnit.MILLISECONDS);
+        future.whenComplete((result, error) -> {
+            waiter.cancelled = true;
+            timer.cancel();
+            // on a set, the waiter was already removed from the stack. Otherwise, it timed out or the future
+            // was cancelled by the caller, with a null result
+            if (!Boolean.TRUE.equals(result)) {
+                removeCancelled();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return the number of waiters on the stack, including the cancelled ones not yet unlinked.
+     * Not an atomic snapshot, only for monitoring.
+     */
+    public int getWaiterCount() {
+        int count = 0;
+        for (Waiter waiter = waiters.get(); waiter != null; waiter = waiter.next) {
+            count += 1;
+        }
+        return count;
+    }
+
+    private void push(Waiter waiter) {
+        while (true) {
+            Waiter observedHead = waiters.get();
+            // prunes the cancelled waiters at the top
+            Waiter next = observedHead;
+            while (next != null && next.cancelled) {
+                next = next.next;
+            }
+            waiter.next = next;
+            if (waiters.compareAndSet(observedHead, waiter)) {
+                return;
+            }
+        }
+    }
+
+    // Unlinks the cancelled waiters, both at the top, with a CAS on the head, and below it, by making the
+    // previous live waiter skip them. A next is only ever changed to skip cancelled waiters, so a concurrent
+    // unlink may at most relink an already unlinked cancelled waiter, which is removed later, but never
+    // unlinks a live one. Unlinking waiters already drained by a set is harmless.
+    private void removeCancelled() {
+        Waiter previous = null;
+        Waiter current = waiters.get();
+        while (current != null) {
+            Waiter next = current.next;
+            if (!current.cancelled) {
+                previous = current;
+            } else if (previous == null) {
+                if (!waiters.compareAndSet(current, next)) {
+                    // the top changed, so restart from the new one
+                    current = waiters.get();
+                    continue;
+                }
+            } else {
+                previous.next = next;
+            }
+            current = next;
+        }
+    }
+}
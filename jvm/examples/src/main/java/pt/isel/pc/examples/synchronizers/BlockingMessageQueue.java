@@ -1,5 +1,6 @@
 package pt.isel.pc.examples.synchronizers;
 
+import pt.isel.pc.utils.CancellationToken;
 import pt.isel.pc.utils.NodeLinkedList;
 import pt.isel.pc.utils.Timeouts;
 
@@ -35,6 +36,17 @@ public class BlockingMessageQueue<M> {
     private final Lock lock = new ReentrantLock();
 
     public boolean enqueue(M message, long timeout) throws InterruptedException {
+        return enqueue(message, TimeUnit.MILLISECONDS.toNanos(timeout), CancellationToken.none());
+    }
+
+    /**
+     * Waits until the token's deadline, giving up (as on a timeout) as soon as the token is cancelled.
+     */
+    public boolean enqueue(M message, CancellationToken token) throws InterruptedException {
+        return enqueue(message, token.remainingNanos(), token);
+    }
+
+    private boolean enqueue(M message, long timeoutNanos, CancellationToken token) throws InterruptedException {
         lock.lock();
         try{
             // fast-path
@@ -45,33 +57,49 @@ public class BlockingMessageQueue<M> {
                 dequeueRequest.condition.signal();
                 return true;
             }
-            if(Timeouts.noWait(timeout)){
+            if(Timeouts.noWait(timeoutNanos) || token.isCancelled()){
                 return false;
             }
             // wait-path
-            long deadline = Timeouts.deadlineFor(timeout);
-            long remaining = Timeouts.remainingUntil(deadline);
+            long deadline = Timeouts.deadlineForNanos(timeoutNanos);
+            long remaining = Timeouts.remainingNanosUntil(deadline);
             NodeLinkedList.Node<EnqueueRequest<M>> node = enqueueRequests.enqueue(
                     new EnqueueRequest<>(message, lock.newCondition()));
-            while(true){
-                try {
-                    node.value.condition.await(remaining, TimeUnit.MILLISECONDS);
-                }catch(InterruptedException e) {
+            // the callback wakes up this waiter, which then observes the cancellation.
+            // It can only signal after the await, because it needs the lock.
+            CancellationToken.Registration registration = token.register(() -> signal(node.value.condition));
+            try {
+                // cancelled before the registration, in which case the callback already ran
+                if(token.isCancelled()) {
+                    enqueueRequests.remove(node);
+                    return false;
+                }
+                while(true){
+                    try {
+                        node.value.condition.awaitNanos(remaining);
+                    }catch(InterruptedException e) {
+                        if(node.value.isDone) {
+                            Thread.currentThread().interrupt();
+                            return true;
+                        }
+                        enqueueRequests.remove(node);
+                        throw e;
+                    }
                     if(node.value.isDone) {
-                        Thread.currentThread().interrupt();
                         return true;
                     }
-                    enqueueRequests.remove(node);
-                    throw e;
-                }
-                if(node.value.isDone) {
-                    return true;
-                }
-                remaining = Timeouts.remainingUntil(deadline);
-                if(Timeouts.isTimeout(remaining)) {
-                    enqueueRequests.remove(node);
-                    return false;
+                    if(token.isCancelled()) {
+                        enqueueRequests.remove(node);
+                        return false;
+                    }
+                    remaining = Timeouts.remainingNanosUntil(deadline);
+                    if(Timeouts.isTimeout(remaining)) {
+                        enqueueRequests.remove(node);
+                        return false;
+                    }
                 }
+            } finally {
+                registration.close();
             }
         }finally {
             lock.unlock();
@@ -79,6 +107,17 @@ public class BlockingMessageQueue<M> {
     }
 
     public Optional<M> dequeue(long timeout) throws InterruptedException {
+        return dequeue(TimeUnit.MILLISECONDS.toNanos(timeout), CancellationToken.none());
+    }
+
+    /**
+     * Waits until the token's deadline, giving up (as on a timeout) as soon as the token is cancelled.
+     */
+    public Optional<M> dequeue(CancellationToken token) throws InterruptedException {
+        return dequeue(token.remainingNanos(), token);
+    }
+
+    private Optional<M> dequeue(long timeoutNanos, CancellationToken token) throws InterruptedException {
         lock.lock();
         try{
             // fast-path
@@ -88,36 +127,61 @@ public class BlockingMessageQueue<M> {
                 enqueueRequest.condition.signal();
                 return Optional.of(enqueueRequest.message);
             }
-            if(Timeouts.noWait(timeout)){
+            if(Timeouts.noWait(timeoutNanos) || token.isCancelled()){
                 return Optional.empty();
             }
             // wait-path
-            long deadline = Timeouts.deadlineFor(timeout);
-            long remaining = Timeouts.remainingUntil(deadline);
+            long deadline = Timeouts.deadlineForNanos(timeoutNanos);
+            long remaining = Timeouts.remainingNanosUntil(deadline);
             NodeLinkedList.Node<DequeueRequest<M>> node = dequeueRequests.enqueue(
                     new DequeueRequest<>(lock.newCondition()));
-            while(true){
-                try {
-                    node.value.condition.await(remaining, TimeUnit.MILLISECONDS);
-                }catch(InterruptedException e) {
+            // the callback wakes up this waiter, which then observes the cancellation.
+            // It can only signal after the await, because it needs the lock.
+            CancellationToken.Registration registration = token.register(() -> signal(node.value.condition));
+            try {
+                // cancelled before the registration, in which case the callback already ran
+                if(token.isCancelled()) {
+                    dequeueRequests.remove(node);
+                    return Optional.empty();
+                }
+                while(true){
+                    try {
+                        node.value.condition.awaitNanos(remaining);
+                    }catch(InterruptedException e) {
+                        if(node.value.isDone) {
+                            Thread.currentThread().interrupt();
+                            return Optional.of(node.value.message);
+                        }
+                        dequeueRequests.remove(node);
+                        throw e;
+                    }
                     if(node.value.isDone) {
-                        Thread.currentThread().interrupt();
                         return Optional.of(node.value.message);
                     }
-                    dequeueRequests.remove(node);
-                    throw e;
-                }
-                if(node.value.isDone) {
-                    return Optional.of(node.value.message);
-                }
-                remaining = Timeouts.remainingUntil(deadline);
-                if(Timeouts.isTimeout(remaining)) {
-                    dequeueRequests.remove(node);
-                    return Optional.empty();
+                    if(token.isCancelled()) {
+                        dequeueRequests.remove(node);
+                        return Optional.empty();
+                    }
+                    remaining = Timeouts.remainingNanosUntil(deadline);
+                    if(Timeouts.isTimeout(remaining)) {
+                        dequeueRequests.remove(node);
+                        return Optional.empty();
+                    }
                 }
+            } finally {
+                registration.close();
             }
         }finally {
             lock.unlock();
         }
     }
+
+    private void signal(Condition condition) {
+        lock.lock();
+        try {
+            condition.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
 }
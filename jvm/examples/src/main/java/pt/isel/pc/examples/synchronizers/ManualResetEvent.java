@@ -1,7 +1,11 @@
 package pt.isel.pc.examples.synchronizers;
 
+import pt.isel.pc.utils.CancellationToken;
+import pt.isel.pc.utils.NodeLinkedList;
+import pt.isel.pc.utils.TimerWheel;
 import pt.isel.pc.utils.Timeouts;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
@@ -22,6 +26,8 @@ public class ManualResetEvent {
     private final Condition condition = monitor.newCondition();
     private Request request;
     private int awaiters = 0;
+    // replaced by set, so that it can be completed outside of the lock
+    private NodeLinkedList<CompletableFuture<Boolean>> asyncAwaiters = new NodeLinkedList<>();
 
     public ManualResetEvent(boolean initialState) {
         this.state = initialState;
@@ -29,6 +35,7 @@ public class ManualResetEvent {
     }
 
     public void set() {
+        NodeLinkedList<CompletableFuture<Boolean>> toComplete = null;
         monitor.lock();
         try {
             this.state = true;
@@ -37,9 +44,19 @@ public class ManualResetEvent {
                 this.condition.signalAll();
                 awaiters = 0;
             }
+            if (asyncAwaiters.isNotEmpty()) {
+                toComplete = asyncAwaiters;
+                asyncAwaiters = new NodeLinkedList<>();
+            }
         } finally {
             monitor.unlock();
         }
+        // the continuations run on this thread, so they must not run while holding the lock
+        if (toComplete != null) {
+            while (toComplete.isNotEmpty()) {
+                toComplete.pull().value.complete(true);
+            }
+        }
     }
 
     public void reset() {
@@ -54,40 +71,137 @@ public class ManualResetEvent {
         }
     }
 
+    /**
+     * Asynchronous version of {@link #awaitSet(long)}: the returned future completes with {@code true}
+     * when the event is set or with {@code false} when the timeout expires, without blocking any thread.
+     */
+    public CompletableFuture<Boolean> awaitSetAsync(long timeout) {
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        CompletableFuture<Boolean> future = enqueueAsyncAwaiter(Timeouts.noWait(timeoutNanos));
+        if (future.isDone()) {
+            return future;
+        }
+        TimerWheel.Timeout timer = TimerWheel.shared()
+                .schedule(() -> future.complete(false), timeoutNanos, TimeUnit.NANOSECONDS);
+        future.whenComplete((result, error) -> timer.cancel());
+        return future;
+    }
+
+    /**
+     * Same as {@link #awaitSetAsync(long)}, completing with {@code false} at the token's deadline
+     * or as soon as the token is cancelled.
+     * The deadline is already scheduled by the token, so only the token registration completes the future,
+     * and a token without deadline waits until the event is set or the token is cancelled.
+     */
+    public CompletableFuture<Boolean> awaitSetAsync(CancellationToken token) {
+        CompletableFuture<Boolean> future = enqueueAsyncAwaiter(token.isCancelled());
+        if (future.isDone()) {
+            return future;
+        }
+        CancellationToken.Registration registration = token.register(() -> future.complete(false));
+        future.whenComplete((result, error) -> registration.close());
+        return future;
+    }
+
+    // Returns a completed future if the event is set or if there is no wait, otherwise a pending one
+    // that is removed from the async awaiters when completed by anything other than set
+    private CompletableFuture<Boolean> enqueueAsyncAwaiter(boolean noWait) {
+        NodeLinkedList.Node<CompletableFuture<Boolean>> node;
+        NodeLinkedList<CompletableFuture<Boolean>> observedAwaiters;
+        monitor.lock();
+        try {
+            // fast-path
+            if (state) {
+                return CompletableFuture.completedFuture(true);
+            }
+            if (noWait) {
+                return CompletableFuture.completedFuture(false);
+            }
+            // wait-path
+            observedAwaiters = asyncAwaiters;
+            node = observedAwaiters.enqueue(new CompletableFuture<>());
+        } finally {
+            monitor.unlock();
+        }
+        CompletableFuture<Boolean> future = node.value;
+        future.whenComplete((result, error) -> {
+            if (Boolean.TRUE.equals(result)) {
+                return;
+            }
+            // timed out or cancelled
+            monitor.lock();
+            try {
+                // if the list was replaced, then set already removed the node
+                if (observedAwaiters == asyncAwaiters) {
+                    observedAwaiters.remove(node);
+                }
+            } finally {
+                monitor.unlock();
+            }
+        });
+        return future;
+    }
+
     public boolean awaitSet(long timeout) throws InterruptedException {
+        return awaitSet(TimeUnit.MILLISECONDS.toNanos(timeout), CancellationToken.none());
+    }
+
+    /**
+     * Waits until the token's deadline, giving up (as on a timeout) as soon as the token is cancelled.
+     */
+    public boolean awaitSet(CancellationToken token) throws InterruptedException {
+        return awaitSet(token.remainingNanos(), token);
+    }
+
+    private boolean awaitSet(long timeoutNanos, CancellationToken token) throws InterruptedException {
         monitor.lock();
         try {
             // fast-path
             if (state) {
                 return true;
             }
-            if (Timeouts.noWait(timeout)) {
+            if (Timeouts.noWait(timeoutNanos) || token.isCancelled()) {
                 return false;
             }
             // wait-path
-            long deadline = Timeouts.deadlineFor(timeout);
-            long remaining = Timeouts.remainingUntil(deadline);
+            long deadline = Timeouts.deadlineForNanos(timeoutNanos);
+            long remaining = Timeouts.remainingNanosUntil(deadline);
             Request observedRequest = request;
             awaiters += 1;
-            while (true) {
-                try {
-                    condition.await(remaining, TimeUnit.MILLISECONDS);
-                } catch (InterruptedException e) {
-                    if (observedRequest.isDone) {
-                        Thread.currentThread().interrupt();
-                        return true;
-                    }
+            // the callback wakes up the waiters, and this one then observes the cancellation
+            CancellationToken.Registration registration = token.register(this::signalAll);
+            try {
+                // cancelled before the registration, in which case the callback already ran
+                if (token.isCancelled()) {
                     awaiters -= 1;
                     return false;
                 }
-                if (observedRequest.isDone) {
-                    return true;
-                }
-                remaining = Timeouts.remainingUntil(deadline);
-                if (Timeouts.isTimeout(remaining)) {
-                    awaiters -= 1;
-                    return false;
+                while (true) {
+                    try {
+                        condition.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        if (observedRequest.isDone) {
+                            Thread.currentThread().interrupt();
+                            return true;
+                        }
+                        awaiters -= 1;
+                        return false;
+                    }
+                    if (observedRequest.isDone) {
+                        return true;
+                    }
+                    if (token.isCancelled()) {
+                        awaiters -= 1;
+                        return false;
+                    }
+                    remaining = Timeouts.remainingNanosUntil(deadline);
+                    if (Timeouts.isTimeout(remaining)) {
+                        awaiters -= 1;
+                        return false;
+                    }
                 }
+            } finally {
+                registration.close();
             }
 
         } finally {
@@ -95,5 +209,12 @@ public class ManualResetEvent {
         }
     }
 
-
+    private void signalAll() {
+        monitor.lock();
+        try {
+            condition.signalAll();
+        } finally {
+            monitor.unlock();
+        }
+    }
 }
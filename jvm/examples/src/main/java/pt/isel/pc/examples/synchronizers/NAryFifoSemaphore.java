@@ -1,8 +1,11 @@
 package pt.isel.pc.examples.synchronizers;
 
+import pt.isel.pc.utils.CancellationToken;
 import pt.isel.pc.utils.NodeLinkedList;
 import pt.isel.pc.utils.Timeouts;
 
+import java.util.concurrent.TimeUnit;
+
 public class NAryFifoSemaphore implements NArySemaphore{
 
     private final Object monitor = new Object();
@@ -18,6 +21,16 @@ public class NAryFifoSemaphore implements NArySemaphore{
 
     @Override
     public boolean acquire(int unitsToAcquire, long timeout) throws InterruptedException {
+        return acquire(unitsToAcquire, TimeUnit.MILLISECONDS.toNanos(timeout), CancellationToken.none());
+    }
+
+    @Override
+    public boolean acquire(int unitsToAcquire, CancellationToken token) throws InterruptedException {
+        return acquire(unitsToAcquire, token.remainingNanos(), token);
+    }
+
+    private boolean acquire(int unitsToAcquire, long timeoutNanos, CancellationToken token)
+            throws InterruptedException {
         synchronized (monitor) {
             // 1. fast-path
             if (requests.isEmpty() && units >= unitsToAcquire) {
@@ -25,39 +38,57 @@ public class NAryFifoSemaphore implements NArySemaphore{
                 return true;
             }
             // 2. should wait or complete immediately with a failure
-            if (Timeouts.noWait(timeout)) {
+            if (Timeouts.noWait(timeoutNanos) || token.isCancelled()) {
                 return false;
             }
 
             // 3. wait-path
             // - compute wait deadline and current remaining
-            long deadline = Timeouts.deadlineFor(timeout);
-            long remaining = Timeouts.remainingUntil(deadline);
+            long deadline = Timeouts.deadlineForNanos(timeoutNanos);
+            long remaining = Timeouts.remainingNanosUntil(deadline);
             NodeLinkedList.Node<Integer> node = requests.enqueue(unitsToAcquire);
-            while (true) {
-                // 4. wait
-                try {
-                    monitor.wait(remaining);
-                } catch (InterruptedException e) {
-                    requests.remove(node);
-                    notifyAllIfNeeded();
-                    throw e;
-                }
-                // 5. is the condition true?
-                if (requests.isHeadNode(node) && units >= unitsToAcquire) {
-                    units -= unitsToAcquire;
-                    requests.remove(node);
-                    notifyAllIfNeeded();
-                    return true;
-                }
-                // 6. compute new remaining time
-                remaining = Timeouts.remainingUntil(deadline);
-                if (Timeouts.isTimeout(remaining)) {
-                    // 7. if already at or after deadline, complete with a failure
+            // the callback wakes up this thread, which then observes the cancellation
+            CancellationToken.Registration registration = token.register(this::notifyAllWaiters);
+            try {
+                // cancelled before the registration, in which case the callback already ran
+                if (token.isCancelled()) {
                     requests.remove(node);
                     notifyAllIfNeeded();
                     return false;
                 }
+                while (true) {
+                    // 4. wait
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+                    } catch (InterruptedException e) {
+                        requests.remove(node);
+                        notifyAllIfNeeded();
+                        throw e;
+                    }
+                    // 5. is the condition true?
+                    if (requests.isHeadNode(node) && units >= unitsToAcquire) {
+                        units -= unitsToAcquire;
+                        requests.remove(node);
+                        notifyAllIfNeeded();
+                        return true;
+                    }
+                    // cancelled, give-up as on a timeout
+                    if (token.isCancelled()) {
+                        requests.remove(node);
+                        notifyAllIfNeeded();
+                        return false;
+                    }
+                    // 6. compute new remaining time
+                    remaining = Timeouts.remainingNanosUntil(deadline);
+                    if (Timeouts.isTimeout(remaining)) {
+                        // 7. if already at or after deadline, complete with a failure
+                        requests.remove(node);
+                        notifyAllIfNeeded();
+                        return false;
+                    }
+                }
+            } finally {
+                registration.close();
             }
         }
     }
@@ -70,6 +101,12 @@ public class NAryFifoSemaphore implements NArySemaphore{
         }
     }
 
+    private void notifyAllWaiters() {
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+    }
+
     private void notifyAllIfNeeded() {
         if(requests.isNotEmpty() && units >= requests.getHeadValue()) {
             monitor.notifyAll();
@@ -1,5 +1,6 @@
 package pt.isel.pc.examples.synchronizers;
 
+import pt.isel.pc.utils.CancellationToken;
 import pt.isel.pc.utils.NodeLinkedList;
 import pt.isel.pc.utils.Timeouts;
 
@@ -33,6 +34,16 @@ public class NAryFifoSemaphoreWithKernelStyleAndSpecificNotification implements
 
     @Override
     public boolean acquire(int unitsToAcquire, long timeout) throws InterruptedException {
+        return acquire(unitsToAcquire, TimeUnit.MILLISECONDS.toNanos(timeout), CancellationToken.none());
+    }
+
+    @Override
+    public boolean acquire(int unitsToAcquire, CancellationToken token) throws InterruptedException {
+        return acquire(unitsToAcquire, token.remainingNanos(), token);
+    }
+
+    private boolean acquire(int unitsToAcquire, long timeoutNanos, CancellationToken token)
+            throws InterruptedException {
         monitor.lock();
         try {
             // 1. fast-path
@@ -41,49 +52,67 @@ public class NAryFifoSemaphoreWithKernelStyleAndSpecificNotification implements
                 return true;
             }
             // 2. should wait or complete immediately with a failure
-            if (Timeouts.noWait(timeout)) {
+            if (Timeouts.noWait(timeoutNanos) || token.isCancelled()) {
                 return false;
             }
 
             // 3. wait-path
             // - compute wait deadline and current remaining
-            long deadline = Timeouts.deadlineFor(timeout);
-            long remaining = Timeouts.remainingUntil(deadline);
+            long deadline = Timeouts.deadlineForNanos(timeoutNanos);
+            long remaining = Timeouts.remainingNanosUntil(deadline);
             Condition myCondition = monitor.newCondition();
             NodeLinkedList.Node<Request> myRequest = requests.enqueue(new Request(
                     unitsToAcquire,
                     myCondition));
-            while (true) {
-                // 4. wait
-                try {
-                    myCondition.await(remaining, TimeUnit.MILLISECONDS);
-                } catch (InterruptedException e) {
-                    // Is the request done?
-                    if (myRequest.value.isDone) {
-                        // If so, it needs to return with success
-                        Thread.currentThread().interrupt();
-                        return true;
-                    }
-                    // Otherwise, give-up by removing the node
-                    requests.remove(myRequest);
-                    // Which changes the state, allowing for other threads to complete.
-                    completeAllPossible();
-                    throw e;
-                }
-                // 5. is the request done?
-                if (myRequest.value.isDone) {
-                    return true;
-                }
-                // 6. compute new remaining time
-                remaining = Timeouts.remainingUntil(deadline);
-                if (Timeouts.isTimeout(remaining)) {
-                    // 7. if already at or after deadline, complete with a failure
-                    // give-up by removing the node
+            // the callback wakes up this thread, which then observes the cancellation
+            CancellationToken.Registration registration = token.register(() -> signal(myCondition));
+            try {
+                // cancelled before the registration, in which case the callback already ran
+                if (token.isCancelled()) {
                     requests.remove(myRequest);
-                    // Which changes the state, allowing for other threads to complete.
                     completeAllPossible();
                     return false;
                 }
+                while (true) {
+                    // 4. wait
+                    try {
+                        myCondition.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        // Is the request done?
+                        if (myRequest.value.isDone) {
+                            // If so, it needs to return with success
+                            Thread.currentThread().interrupt();
+                            return true;
+                        }
+                        // Otherwise, give-up by removing the node
+                        requests.remove(myRequest);
+                        // Which changes the state, allowing for other threads to complete.
+                        completeAllPossible();
+                        throw e;
+                    }
+                    // 5. is the request done?
+                    if (myRequest.value.isDone) {
+                        return true;
+                    }
+                    // cancelled, give-up as on a timeout
+                    if (token.isCancelled()) {
+                        requests.remove(myRequest);
+                        completeAllPossible();
+                        return false;
+                    }
+                    // 6. compute new remaining time
+                    remaining = Timeouts.remainingNanosUntil(deadline);
+                    if (Timeouts.isTimeout(remaining)) {
+                        // 7. if already at or after deadline, complete with a failure
+                        // give-up by removing the node
+                        requests.remove(myRequest);
+                        // Which changes the state, allowing for other threads to complete.
+                        completeAllPossible();
+                        return false;
+                    }
+                }
+            } finally {
+                registration.close();
             }
         } finally {
             monitor.unlock();
@@ -101,6 +130,15 @@ public class NAryFifoSemaphoreWithKernelStyleAndSpecificNotification implements
         }
     }
 
+    private void signal(Condition condition) {
+        monitor.lock();
+        try {
+            condition.signal();
+        } finally {
+            monitor.unlock();
+        }
+    }
+
     private void completeAllPossible() {
         while (requests.isNotEmpty() && units >= requests.getHeadValue().requestedUnits) {
             NodeLinkedList.Node<Request> headNode = requests.pull();
@@ -1,8 +1,15 @@
 package pt.isel.pc.examples.synchronizers;
 
+import pt.isel.pc.utils.CancellationToken;
+
 public interface NArySemaphore {
 
     boolean acquire(int requestedUnits, long timeout) throws InterruptedException;
 
+    /**
+     * Waits until the token's deadline, giving up (as on a timeout) as soon as the token is cancelled.
+     */
+    boolean acquire(int requestedUnits, CancellationToken token) throws InterruptedException;
+
     void release(int releasedUnits);
 }
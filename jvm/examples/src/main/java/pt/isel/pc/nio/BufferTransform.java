@@ -0,0 +1,36 @@
+package pt.isel.pc.nio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A streaming transformation of bytes, applied between a read and a write (e.g. compression).
+ * <p>
+ * The output buffer has a bounded size, so a single input buffer may produce more output than fits on it.
+ * In that case the caller must drain the output buffer and call the same method again, with the same input buffer,
+ * until it returns {@code true}.
+ * Implementations may keep a reference to the input buffer until it is completely consumed, so its content
+ * must not change until then.
+ */
+public interface BufferTransform extends AutoCloseable {
+
+    /**
+     * Transforms bytes between {@code input}'s position and limit, putting the result into {@code output}.
+     *
+     * @return {@code true} if {@code input} was completely consumed, {@code false} if {@code output}
+     * became full before that.
+     */
+    boolean transform(ByteBuffer input, ByteBuffer output);
+
+    /**
+     * Signals the end of the input, putting any remaining output into {@code output}.
+     *
+     * @return {@code true} if all the output was produced, {@code false} if {@code output} became full before that.
+     */
+    boolean finish(ByteBuffer output);
+
+    /**
+     * Releases any resources held by the transformation.
+     */
+    @Override
+    void close();
+}
@@ -2,6 +2,7 @@ package pt.isel.pc.nio;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import pt.isel.pc.utils.LogSampler;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
@@ -10,6 +11,7 @@ import java.nio.channels.CompletionHandler;
 public class BufferWrite implements CompletionHandler<Integer, Void> {
 
     private static final Logger log = LoggerFactory.getLogger(BufferWrite.class);
+    private static final LogSampler sampler = new LogSampler(log, 1024);
 
     private final ByteBuffer sourceBuffer;
     private final AsynchronousSocketChannel targetChannel;
@@ -28,7 +30,6 @@ public class BufferWrite implements CompletionHandler<Integer, Void> {
                            CompletionHandler<Integer, Void> continuation) {
         BufferWrite bufferWrite = new BufferWrite(sourceBuffer, targetChannel, continuation);
         try {
-            log.info("Writing...");
             targetChannel.write(sourceBuffer, null, bufferWrite);
         } catch (Throwable e) {
             continuation.failed(e, null);
@@ -37,14 +38,15 @@ public class BufferWrite implements CompletionHandler<Integer, Void> {
 
     @Override
     public void completed(Integer result, Void attachment) {
-        log.info("Completed write of {} bytes", result);
+        if (sampler.sample()) {
+            log.debug("Completed write of {} bytes", result);
+        }
         if (sourceBuffer.position() == sourceBuffer.limit()) {
-            log.info("Full write completed, exiting");
+            log.debug("Full write completed, exiting");
             ch.completed(size, null);
         } else {
             size += result;
             try {
-                log.info("Writing...");
                 targetChannel.write(sourceBuffer, null, this);
             } catch (Throwable th) {
                 ch.failed(th, null);
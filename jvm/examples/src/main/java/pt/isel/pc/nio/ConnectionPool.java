@@ -0,0 +1,449 @@
+package pt.isel.pc.nio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.isel.pc.utils.CancellationToken;
+import pt.isel.pc.utils.Closeables;
+import pt.isel.pc.utils.NodeLinkedList;
+import pt.isel.pc.utils.TimerWheel;
+import pt.isel.pc.utils.Timeouts;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of keep-alive {@link AsynchronousSocketChannel} connections, organized per remote address.
+ * <p>
+ * {@link #acquire(InetSocketAddress, CompletionHandler)} never blocks: it completes immediately with an idle
+ * connection, starts the connect of a new one, or, if the maximum number of connections for that address
+ * was reached, enqueues the request until a connection is released, or until its
+ * {@link CancellationToken} is cancelled.
+ * Idle connections are closed when idle for more than the configured idle timeout, which should be lower
+ * than the servers' keep-alive timeout. The eviction runs on the {@link TimerWheel#shared()} timer, while
+ * there are idle connections, and the addresses without connections are removed from the pool.
+ * <p>
+ * A reused connection may still have been closed by the server in the meantime, which can only be detected
+ * when using it. That is why {@link Connection#isReused()} is provided, so that users can retry the request
+ * on a new connection, as {@link FetchAndSave3} does.
+ */
+public class ConnectionPool implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ConnectionPool.class);
+
+    public static class Connection {
+        private final InetSocketAddress address;
+        private final AsynchronousSocketChannel channel;
+        private boolean reused = false;
+        // a Timeouts.nowNanos value
+        private long idleSince;
+
+        Connection(InetSocketAddress address, AsynchronousSocketChannel channel) {
+            this.address = address;
+            this.channel = channel;
+        }
+
+        public AsynchronousSocketChannel getChannel() {
+            return channel;
+        }
+
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+
+        /**
+         * @return {@code true} if the connection was already used by a previous acquirer.
+         */
+        public boolean isReused() {
+            return reused;
+        }
+    }
+
+    // An acquire waiting for a connection
+    private static class Pending {
+        final CompletionHandler<Connection, Void> handler;
+        // guarded by the monitor
+        NodeLinkedList.Node<Pending> node;
+        boolean dequeued = false;
+        // written under the monitor, null until registered on the token, and closed by whoever dequeues
+        volatile CancellationToken.Registration registration;
+
+        Pending(CompletionHandler<Connection, Void> handler) {
+            this.handler = handler;
+        }
+    }
+
+    private static class Host {
+        // Most recently used connections are on the head
+        final ArrayDeque<Connection> idle = new ArrayDeque<>();
+        final NodeLinkedList<Pending> pending = new NodeLinkedList<>();
+        // idle, in use, and being connected
+        int count = 0;
+    }
+
+    private final int maxPerHost;
+    private final long idleTimeout;
+    private final SocketOptionsProfile profile;
+    private final IoCompletionPool ioPool;
+    private final Object monitor = new Object();
+    private final Map<InetSocketAddress, Host> hosts = new HashMap<>();
+    private boolean closed = false;
+    // non-null while an eviction is scheduled
+    private TimerWheel.Timeout evictionTimer;
+
+    public ConnectionPool(int maxPerHost, long idleTimeout, TimeUnit timeUnit) {
+        this(maxPerHost, idleTimeout, timeUnit, SocketOptionsProfile.DEFAULT);
+    }
+
+    public ConnectionPool(int maxPerHost, long idleTimeout, TimeUnit timeUnit, SocketOptionsProfile profile) {
+        this(maxPerHost, idleTimeout, timeUnit, profile, IoCompletionPool.shared());
+    }
+
+    public ConnectionPool(int maxPerHost, long idleTimeout, TimeUnit timeUnit,
+                          SocketOptionsProfile profile, IoCompletionPool ioPool) {
+        if (maxPerHost <= 0) {
+            throw new IllegalArgumentException("maxPerHost must be positive");
+        }
+        this.maxPerHost = maxPerHost;
+        this.idleTimeout = timeUnit.toNanos(idleTimeout);
+        this.profile = profile;
+        this.ioPool = ioPool;
+    }
+
+    /**
+     * @return the options applied to all the sockets opened by this pool.
+     */
+    public SocketOptionsProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return the pool where the completions of this pool's connections run.
+     */
+    public IoCompletionPool getIoPool() {
+        return ioPool;
+    }
+
+    public void acquire(InetSocketAddress address, CompletionHandler<Connection, Void> handler) {
+        acquire(address, CancellationToken.none(), handler);
+    }
+
+    /**
+     * Same as {@link #acquire(InetSocketAddress, CompletionHandler)}, however a pending acquire is removed
+     * as soon as {@code token} is cancelled, failing {@code handler} with a {@link CancellationException}.
+     */
+    public void acquire(InetSocketAddress address, CancellationToken token,
+                        CompletionHandler<Connection, Void> handler) {
+        if (token.isCancelled()) {
+            handler.failed(new CancellationException("acquire cancelled"), null);
+            return;
+        }
+        Connection connection = null;
+        boolean connect = false;
+        Pending pending = null;
+        boolean isClosed;
+        List<Connection> toClose = new ArrayList<>();
+        synchronized (monitor) {
+            isClosed = closed;
+            if (!isClosed) {
+                Host host = hosts.computeIfAbsent(address, ignore -> new Host());
+                removeExpired(host, toClose);
+                // only discards the connections closed locally, since isOpen doesn't observe a close by the server.
+                // Those are only detected when used, and FetchAndSave3 retries the request on a new connection.
+                while (connection == null && !host.idle.isEmpty()) {
+                    Connection idleConnection = host.idle.pop();
+                    if (idleConnection.channel.isOpen()) {
+                        connection = idleConnection;
+                    } else {
+                        host.count -= 1;
+                    }
+                }
+                if (connection == null) {
+                    if (host.count < maxPerHost) {
+                        host.count += 1;
+                        connect = true;
+                    } else {
+                        pending = new Pending(handler);
+                        pending.node = host.pending.enqueue(pending);
+                    }
+                }
+            }
+        }
+        closeAll(toClose);
+        if (isClosed) {
+            handler.failed(new IllegalStateException("connection pool is closed"), null);
+        } else if (connection != null) {
+            log.debug("reusing connection to {}", address);
+            connection.reused = true;
+            handler.completed(connection, null);
+        } else if (connect) {
+            connect(address, handler);
+        } else if (pending != null) {
+            registerCancellation(address, pending, token);
+        }
+    }
+
+    // Registered outside the monitor, since the callback runs immediately if already cancelled
+    private void registerCancellation(InetSocketAddress address, Pending pending, CancellationToken token) {
+        CancellationToken.Registration registration = token.register(() -> cancel(address, pending));
+        boolean dequeued;
+        synchronized (monitor) {
+            pending.registration = registration;
+            dequeued = pending.dequeued;
+        }
+        if (dequeued) {
+            registration.close();
+        }
+    }
+
+    private void cancel(InetSocketAddress address, Pending pending) {
+        synchronized (monitor) {
+            if (pending.dequeued) {
+                return;
+            }
+            pending.dequeued = true;
+            Host host = hosts.get(address);
+            host.pending.remove(pending.node);
+            removeIfEmpty(address, host);
+        }
+        pending.handler.failed(new CancellationException("acquire cancelled"), null);
+    }
+
+    // Must be called while holding the monitor
+    private static Pending dequeue(Host host) {
+        Pending pending = host.pending.pull().value;
+        pending.dequeued = true;
+        return pending;
+    }
+
+    private static CompletionHandler<Connection, Void> handlerOf(Pending pending) {
+        // the registration is null if not registered yet, in which case the registering thread closes it
+        if (pending.registration != null) {
+            pending.registration.close();
+        }
+        return pending.handler;
+    }
+
+    /**
+     * Returns a connection to the pool.
+     *
+     * @param connection the connection
+     * @param reusable   if the connection can be used for another request,
+     *                   e.g. if the response was completely read and the server didn't ask for the connection close.
+     */
+    public void release(Connection connection, boolean reusable) {
+        Pending next = null;
+        boolean connectNext = false;
+        boolean close = false;
+        synchronized (monitor) {
+            Host host = hosts.get(connection.address);
+            if (reusable && !closed && connection.channel.isOpen()) {
+                if (host.pending.isNotEmpty()) {
+                    next = dequeue(host);
+                } else {
+                    connection.idleSince = Timeouts.nowNanos();
+                    host.idle.push(connection);
+                    scheduleEviction(idleTimeout);
+                }
+            } else {
+                close = true;
+                host.count -= 1;
+                if (host.pending.isNotEmpty()) {
+                    next = dequeue(host);
+                    host.count += 1;
+                    connectNext = true;
+                }
+                removeIfEmpty(connection.address, host);
+            }
+        }
+        if (close) {
+            Closeables.safeClose(null, connection.channel);
+        }
+        if (next != null) {
+            if (connectNext) {
+                connect(connection.address, handlerOf(next));
+            } else {
+                connection.reused = true;
+                handlerOf(next).completed(connection, null);
+            }
+        }
+    }
+
+    /**
+     * Closes all the connections that are idle for more than the idle timeout.
+     * This is done periodically by the timer and on each {@link #acquire(InetSocketAddress, CompletionHandler)},
+     * for the acquired address.
+     */
+    public void evictExpired() {
+        List<Connection> toClose = new ArrayList<>();
+        synchronized (monitor) {
+            long nextExpiration = Long.MAX_VALUE;
+            Iterator<Map.Entry<InetSocketAddress, Host>> it = hosts.entrySet().iterator();
+            while (it.hasNext()) {
+                Host host = it.next().getValue();
+                removeExpired(host, toClose);
+                if (host.count == 0 && host.pending.isEmpty()) {
+                    it.remove();
+                } else if (!host.idle.isEmpty()) {
+                    // the oldest idle connection is the next one to expire
+                    long remaining = Timeouts.remainingNanosUntil(host.idle.peekLast().idleSince + idleTimeout);
+                    nextExpiration = Math.min(nextExpiration, remaining);
+                }
+            }
+            if (nextExpiration != Long.MAX_VALUE) {
+                scheduleEviction(nextExpiration);
+            }
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * @return the number of addresses with connections (idle, in use, or being connected) or pending acquires.
+     */
+    public int getHostCount() {
+        synchronized (monitor) {
+            return hosts.size();
+        }
+    }
+
+    public int getIdleCount(InetSocketAddress address) {
+        synchronized (monitor) {
+            Host host = hosts.get(address);
+            return host != null ? host.idle.size() : 0;
+        }
+    }
+
+    public int getOpenCount(InetSocketAddress address) {
+        synchronized (monitor) {
+            Host host = hosts.get(address);
+            return host != null ? host.count : 0;
+        }
+    }
+
+    /**
+     * Closes all idle connections and fails all pending acquires.
+     * Connections in use are closed when released.
+     */
+    @Override
+    public void close() {
+        List<Connection> toClose = new ArrayList<>();
+        List<Pending> toFail = new ArrayList<>();
+        synchronized (monitor) {
+            closed = true;
+            if (evictionTimer != null) {
+                evictionTimer.cancel();
+                evictionTimer = null;
+            }
+            for (Host host : hosts.values()) {
+                host.count -= host.idle.size();
+                toClose.addAll(host.idle);
+                host.idle.clear();
+                while (host.pending.isNotEmpty()) {
+                    toFail.add(dequeue(host));
+                }
+            }
+        }
+        closeAll(toClose);
+        for (Pending pending : toFail) {
+            handlerOf(pending).failed(new IllegalStateException("connection pool is closed"), null);
+        }
+    }
+
+    private void connect(InetSocketAddress address, CompletionHandler<Connection, Void> handler) {
+        AsynchronousSocketChannel channel = null;
+        try {
+            log.debug("opening connection to {}", address);
+            channel = ioPool.openSocket();
+            profile.applyTo(channel);
+            Connection connection = new Connection(address, channel);
+            channel.connect(address, null, new CompletionHandler<Void, Void>() {
+                @Override
+                public void completed(Void result, Void attachment) {
+                    handler.completed(connection, null);
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    release(connection, false);
+                    handler.failed(exc, null);
+                }
+            });
+        } catch (Throwable exc) {
+            if (channel != null) {
+                release(new Connection(address, channel), false);
+            } else {
+                onOpenFailed(address);
+            }
+            handler.failed(exc, null);
+        }
+    }
+
+    private void onOpenFailed(InetSocketAddress address) {
+        Pending next = null;
+        synchronized (monitor) {
+            Host host = hosts.get(address);
+            host.count -= 1;
+            if (host.pending.isNotEmpty()) {
+                next = dequeue(host);
+                host.count += 1;
+            }
+            removeIfEmpty(address, host);
+        }
+        if (next != null) {
+            connect(address, handlerOf(next));
+        }
+    }
+
+    // Must be called while holding the monitor
+    private void scheduleEviction(long delayNanos) {
+        if (evictionTimer == null && !closed) {
+            evictionTimer = TimerWheel.shared().schedule(this::onEvictionTimer, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Runs on the timer thread, and reschedules itself while there are idle connections
+    private void onEvictionTimer() {
+        synchronized (monitor) {
+            evictionTimer = null;
+        }
+        evictExpired();
+    }
+
+    // Must be called while holding the monitor
+    private void removeIfEmpty(InetSocketAddress address, Host host) {
+        if (host.count == 0 && host.pending.isEmpty()) {
+            hosts.remove(address);
+        }
+    }
+
+    // Must be called while holding the monitor
+    private void removeExpired(Host host, List<Connection> toClose) {
+        long now = Timeouts.nowNanos();
+        // The oldest idle connections are on the tail
+        Iterator<Connection> it = host.idle.descendingIterator();
+        while (it.hasNext()) {
+            Connection connection = it.next();
+            if (now - connection.idleSince < idleTimeout) {
+                return;
+            }
+            it.remove();
+            host.count -= 1;
+            toClose.add(connection);
+        }
+    }
+
+    private static void closeAll(List<Connection> connections) {
+        for (Connection connection : connections) {
+            Closeables.safeClose(null, connection.channel);
+        }
+    }
+}
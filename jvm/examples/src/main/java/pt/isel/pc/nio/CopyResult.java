@@ -0,0 +1,37 @@
+package pt.isel.pc.nio;
+
+/**
+ * The outcome of a copy with a digest computed over the copied bytes.
+ */
+public class CopyResult {
+
+    private final long size;
+    private final byte[] digest;
+
+    public CopyResult(long size, byte[] digest) {
+        this.size = size;
+        this.digest = digest;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public byte[] getDigest() {
+        return digest.clone();
+    }
+
+    public String getDigestHex() {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "CopyResult{size=" + size + ", digest=" + getDigestHex() + "}";
+    }
+}
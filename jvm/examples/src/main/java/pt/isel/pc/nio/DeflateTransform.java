@@ -0,0 +1,134 @@
+package pt.isel.pc.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A {@link BufferTransform} that compresses using a {@link Deflater}, producing either the zlib format
+ * ({@code Content-Encoding: deflate}) or the gzip format.
+ * The {@link ByteBuffer} based {@link Deflater} methods are used, so no copies into byte arrays are done
+ * when the buffers are direct.
+ * <p>
+ * Not thread-safe: a sequence of calls must be ordered by happens-before, as the calls from a
+ * completion handler chain are.
+ */
+public class DeflateTransform implements BufferTransform {
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int GZIP_HEADER_SIZE = 10;
+    private static final int GZIP_TRAILER_SIZE = 8;
+    private static final byte[] NO_INPUT = new byte[0];
+
+    private final Deflater deflater;
+    private final boolean gzip;
+    private final CRC32 crc = new CRC32();
+    // header or trailer bytes still to be put into the output
+    private final ByteBuffer pending;
+    private boolean finishing = false;
+    private boolean trailerAdded = false;
+    private long inputSize = 0;
+    private long outputSize = 0;
+
+    private DeflateTransform(int level, boolean gzip) {
+        this.gzip = gzip;
+        // the gzip format uses the raw deflate format, without the zlib wrapper
+        this.deflater = new Deflater(level, gzip);
+        this.pending = ByteBuffer.allocate(Math.max(GZIP_HEADER_SIZE, GZIP_TRAILER_SIZE))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        if (gzip) {
+            pending.putShort((short) GZIP_MAGIC)
+                    .put((byte) Deflater.DEFLATED)
+                    // flags, modification time, extra flags
+                    .put((byte) 0).putInt(0).put((byte) 0)
+                    // operating system unknown
+                    .put((byte) 0xff);
+        }
+        pending.flip();
+    }
+
+    public static DeflateTransform deflate(int level) {
+        return new DeflateTransform(level, false);
+    }
+
+    public static DeflateTransform gzip(int level) {
+        return new DeflateTransform(level, true);
+    }
+
+    @Override
+    public boolean transform(ByteBuffer input, ByteBuffer output) {
+        if (finishing) {
+            throw new IllegalStateException("transform cannot be called after finish");
+        }
+        if (!drainPending(output)) {
+            return false;
+        }
+        if (deflater.needsInput()) {
+            if (!input.hasRemaining()) {
+                return true;
+            }
+            if (gzip) {
+                crc.update(input.duplicate());
+            }
+            inputSize += input.remaining();
+            deflater.setInput(input);
+        }
+        while (output.hasRemaining()) {
+            outputSize += deflater.deflate(output);
+            if (deflater.needsInput()) {
+                // The deflater keeps observing the given buffer, so it must be released before the caller
+                // refills it. Otherwise, needsInput would return false and the new bytes would be consumed
+                // without being accounted for.
+                deflater.setInput(NO_INPUT);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean finish(ByteBuffer output) {
+        if (!finishing) {
+            finishing = true;
+            deflater.finish();
+        }
+        if (!drainPending(output)) {
+            return false;
+        }
+        while (!deflater.finished()) {
+            if (!output.hasRemaining()) {
+                return false;
+            }
+            outputSize += deflater.deflate(output);
+        }
+        if (gzip && !trailerAdded) {
+            trailerAdded = true;
+            pending.clear();
+            pending.putInt((int) crc.getValue()).putInt((int) inputSize);
+            pending.flip();
+            return drainPending(output);
+        }
+        return true;
+    }
+
+    public long getInputSize() {
+        return inputSize;
+    }
+
+    public long getOutputSize() {
+        return outputSize + (gzip ? GZIP_HEADER_SIZE + (trailerAdded ? GZIP_TRAILER_SIZE : 0) : 0);
+    }
+
+    @Override
+    public void close() {
+        deflater.end();
+    }
+
+    private boolean drainPending(ByteBuffer output) {
+        while (pending.hasRemaining() && output.hasRemaining()) {
+            output.put(pending.get());
+        }
+        return !pending.hasRemaining();
+    }
+}
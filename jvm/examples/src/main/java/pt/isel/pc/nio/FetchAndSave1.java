@@ -2,16 +2,20 @@ package pt.isel.pc.nio;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import pt.isel.pc.utils.CancellationToken;
+import pt.isel.pc.utils.Closeables;
+import pt.isel.pc.utils.LogSampler;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.StandardSocketOptions;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 
 import static java.nio.file.StandardOpenOption.CREATE;
@@ -21,51 +25,108 @@ import static java.nio.file.StandardOpenOption.WRITE;
 public class FetchAndSave1 {
 
     private static final Logger log = LoggerFactory.getLogger(FetchAndSave1.class);
+    private static final LogSampler sampler = new LogSampler(log, 1024);
 
     public static int run(URL url, String fileName) throws IOException, ExecutionException, InterruptedException {
+        return run(url, fileName, SocketOptionsProfile.DEFAULT);
+    }
+
+    public static int run(URL url, String fileName, SocketOptionsProfile profile)
+            throws IOException, ExecutionException, InterruptedException {
+        return run(url, fileName, profile, IoCompletionPool.shared());
+    }
+
+    public static int run(URL url, String fileName, SocketOptionsProfile profile, IoCompletionPool ioPool)
+            throws IOException, ExecutionException, InterruptedException {
+        return run(url, fileName, profile, ioPool, CancellationToken.none());
+    }
+
+    public static int run(URL url, String fileName, CancellationToken token)
+            throws IOException, ExecutionException, InterruptedException {
+        return run(url, fileName, SocketOptionsProfile.DEFAULT, IoCompletionPool.shared(), token);
+    }
+
+    /**
+     * Cancelling the token closes the socket, so that the blocking operation in progress fails
+     * and a {@link CancellationException} is thrown, with that failure as the cause.
+     */
+    public static int run(URL url, String fileName, SocketOptionsProfile profile, IoCompletionPool ioPool,
+                          CancellationToken token)
+            throws IOException, ExecutionException, InterruptedException {
+        token.throwIfCancelled();
         try (
-                AsynchronousSocketChannel socket = AsynchronousSocketChannel.open();
-                AsynchronousFileChannel file = AsynchronousFileChannel.open(Paths.get(fileName),
+                AsynchronousSocketChannel socket = ioPool.openSocket();
+                AsynchronousFileChannel file = ioPool.openFile(Paths.get(fileName),
                         WRITE, CREATE)) {
-            socket.setOption(StandardSocketOptions.SO_SNDBUF, 16);
+            // if already cancelled, the socket is closed and the connect fails
+            CancellationToken.Registration registration = token.register(() -> Closeables.safeClose(null, socket));
+            try {
+                profile.applyTo(socket);
 
-            socket.connect(new InetSocketAddress(url.getHost(), url.getPort()))
-                    .get(); // Blocking
-            //--------------------------------------------------------
-
-            String requestString = "GET " + url.getPath() + " HTTP/1.1\r\n"
-                    + "User-Agent: Me\r\nHost: httpbin.org\r\nConnection: close\r\n"
-                    + "\r\n";
-            byte[] requestBytes = requestString.getBytes(StandardCharsets.US_ASCII);
-            ByteBuffer requestBuffer = ByteBuffer.wrap(requestBytes);
-            // request write cycle
-            do {
-                int sendCount = socket.write(requestBuffer)
-                        .get(); // blocking
-                //--------------------------------------------------------
-                log.info("Sent {} bytes", sendCount);
-            } while (requestBuffer.position() != requestBuffer.limit());
-            int filePosition = 0;
-            ByteBuffer copyBuffer = ByteBuffer.allocate(8);
-            // read-socket-write-file cycle
-            while (true) {
-                int readCount = socket.read(copyBuffer)
-                        .get(); // blocking
+                socket.connect(addressOf(url))
+                        .get(); // Blocking
                 //--------------------------------------------------------
 
-                log.info("Read {} bytes from socket", readCount);
-                if (readCount == -1) {
-                    break;
+                String requestString = "GET " + url.getPath() + " HTTP/1.1\r\n"
+                        + "User-Agent: Me\r\nHost: " + url.getHost() + "\r\n"
+                        + "Connection: close\r\n"
+                        + "\r\n";
+                byte[] requestBytes = requestString.getBytes(StandardCharsets.US_ASCII);
+                ByteBuffer requestBuffer = ByteBuffer.wrap(requestBytes);
+                // request write cycle
+                do {
+                    int sendCount = socket.write(requestBuffer)
+                            .get(); // blocking
+                    //--------------------------------------------------------
+                    log.debug("Sent {} bytes", sendCount);
+                } while (requestBuffer.position() != requestBuffer.limit());
+                int filePosition = 0;
+                ByteBuffer copyBuffer = ByteBuffer.allocate(profile.getCopyBufferSize());
+                HttpResponseParser parser = new HttpResponseParser();
+                // read-socket-write-file cycle, only for the response body
+                while (!parser.isDone()) {
+                    int readCount = socket.read(copyBuffer)
+                            .get(); // blocking
+                    //--------------------------------------------------------
+
+                    if (sampler.sample()) {
+                        log.debug("Read {} bytes from socket", readCount);
+                    }
+                    if (readCount == -1) {
+                        if (!parser.endOfStream()) {
+                            throw new EOFException("connection closed before the end of the response");
+                        }
+                        break;
+                    }
+                    copyBuffer.flip();
+                    parser.decode(copyBuffer);
+                    while (copyBuffer.hasRemaining()) {
+                        int writeCount = file.write(copyBuffer, filePosition)
+                                .get(); // blocking
+                        //--------------------------------------------------------
+                        if (sampler.sample()) {
+                            log.debug("Wrote {} bytes into file", writeCount);
+                        }
+                        filePosition += writeCount;
+                    }
+                    copyBuffer.clear();
                 }
-                copyBuffer.flip();
-                int writeCount = file.write(copyBuffer, filePosition)
-                        .get(); // blocking
-                //--------------------------------------------------------
-                log.info("Wrote {} bytes into file", writeCount);
-                filePosition += writeCount;
-                copyBuffer.clear();
+                return filePosition;
+            } finally {
+                registration.close();
             }
-            return filePosition;
+        } catch (IOException | ExecutionException e) {
+            if (token.isCancelled()) {
+                CancellationException cancellation = new CancellationException("fetch cancelled");
+                cancellation.initCause(e);
+                throw cancellation;
+            }
+            throw e;
         }
     }
+
+    private static InetSocketAddress addressOf(URL url) {
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return new InetSocketAddress(url.getHost(), port);
+    }
 }
@@ -2,11 +2,13 @@ package pt.isel.pc.nio;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import pt.isel.pc.utils.CancellationToken;
 import pt.isel.pc.utils.Closeables;
+import pt.isel.pc.utils.LogSampler;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.StandardSocketOptions;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
@@ -14,6 +16,7 @@ import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.util.concurrent.CancellationException;
 import java.util.function.Consumer;
 
 import static java.nio.file.StandardOpenOption.CREATE;
@@ -23,44 +26,71 @@ import static java.nio.file.StandardOpenOption.WRITE;
 public class FetchAndSave2 {
 
     private static final Logger log = LoggerFactory.getLogger(FetchAndSave2.class);
+    private static final LogSampler sampler = new LogSampler(log, 1024);
 
     // The parameters
     private final URL url;
     private final String fileName;
+    private final SocketOptionsProfile profile;
+    private final IoCompletionPool ioPool;
+    private final CancellationToken token;
     private final CompletionHandler<Integer, Void> continuation;
 
     // The local state
-    AsynchronousSocketChannel socket;
+    // volatile because abort reads it on the thread cancelling the token
+    volatile AsynchronousSocketChannel socket;
     AsynchronousFileChannel file;
+    CancellationToken.Registration registration;
 
     ByteBuffer requestBuffer;
     int filePosition;
     ByteBuffer copyBuffer;
+    HttpResponseParser parser;
 
     private void handleError(Throwable exc) {
         log.error("Handling error");
+        if (token.isCancelled()) {
+            CancellationException cancellation = new CancellationException("fetch cancelled");
+            cancellation.initCause(exc);
+            exc = cancellation;
+        }
         Throwable exception = Closeables.safeClose(exc, socket, file);
+        if (registration != null) {
+            registration.close();
+        }
         continuation.failed(exception, null);
     }
 
-    private FetchAndSave2(URL url, String fileName, CompletionHandler<Integer, Void> continuation) {
+    private FetchAndSave2(URL url, String fileName, SocketOptionsProfile profile, IoCompletionPool ioPool,
+                          CancellationToken token, CompletionHandler<Integer, Void> continuation) {
         this.url = url;
         this.fileName = fileName;
+        this.profile = profile;
+        this.ioPool = ioPool;
+        this.token = token;
         this.continuation = continuation;
     }
 
+    // Runs on the thread cancelling the token
+    private void abort() {
+        Closeables.safeClose(null, socket);
+    }
+
     private void connect_0() throws IOException {
-        socket = AsynchronousSocketChannel.open();
-        file = AsynchronousFileChannel.open(Paths.get(fileName),
+        socket = ioPool.openSocket();
+        file = ioPool.openFile(Paths.get(fileName),
                 WRITE, CREATE);
-        socket.setOption(StandardSocketOptions.SO_SNDBUF, 16);
-        socket.connect(new InetSocketAddress(url.getHost(), url.getPort()), null,
+        // if already cancelled, the socket is closed and the connect fails
+        registration = token.register(this::abort);
+        profile.applyTo(socket);
+        socket.connect(addressOf(url), null,
                 continueOn(ignore -> startWriteRequest_1()));
     }
 
     private void startWriteRequest_1() {
         String requestString = "GET " + url.getPath() + " HTTP/1.1\r\n"
-                + "User-Agent: Me\r\nHost: httpbin.org\r\nConnection: close\r\n"
+                + "User-Agent: Me\r\nHost: " + url.getHost() + "\r\n"
+                + "Connection: close\r\n"
                 + "\r\n";
 
         byte[] requestBytes = requestString.getBytes(StandardCharsets.US_ASCII);
@@ -71,42 +101,101 @@ public class FetchAndSave2 {
     }
 
     private void continueWriteRequest_2(Integer sendCount) {
-        log.info("Sent {} bytes", sendCount);
+        log.debug("Sent {} bytes", sendCount);
         if (requestBuffer.position() != requestBuffer.limit()) {
             socket.write(requestBuffer, null, continueOn(this::continueWriteRequest_2));
         } else {
             filePosition = 0;
-            copyBuffer = ByteBuffer.allocate(8);
+            copyBuffer = ByteBuffer.allocate(profile.getCopyBufferSize());
+            parser = new HttpResponseParser();
             socket.read(copyBuffer, null, continueOn(this::writeFile_3));
         }
     }
 
     private void writeFile_3(Integer readCount) {
-        log.info("Read {} bytes from socket", readCount);
+        if (sampler.sample()) {
+            log.debug("Read {} bytes from socket", readCount);
+        }
         if (readCount == -1) {
-            // return filePosition
-            Throwable maybeThrowable = Closeables.safeClose(null, socket, file);
-            if (maybeThrowable != null) {
-                continuation.failed(maybeThrowable, null);
-            } else {
-                continuation.completed(filePosition, null);
+            if (!parser.endOfStream()) {
+                handleError(new EOFException("connection closed before the end of the response"));
+                return;
             }
+            completed_5();
         } else {
             copyBuffer.flip();
-            file.write(copyBuffer, filePosition, null, continueOn(this::readSocket_4));
+            parser.decode(copyBuffer);
+            if (copyBuffer.hasRemaining()) {
+                file.write(copyBuffer, filePosition, null, continueOn(this::readSocket_4));
+            } else {
+                readSocketOrComplete_4();
+            }
         }
     }
 
     private void readSocket_4(Integer writeCount) {
-        log.info("Wrote {} bytes into file", writeCount);
+        if (sampler.sample()) {
+            log.debug("Wrote {} bytes into file", writeCount);
+        }
         filePosition += writeCount;
-        copyBuffer.clear();
-        socket.read(copyBuffer, null, continueOn(this::writeFile_3));
+        if (copyBuffer.hasRemaining()) {
+            file.write(copyBuffer, filePosition, null, continueOn(this::readSocket_4));
+        } else {
+            readSocketOrComplete_4();
+        }
+    }
+
+    private void readSocketOrComplete_4() {
+        if (parser.isDone()) {
+            completed_5();
+        } else {
+            copyBuffer.clear();
+            socket.read(copyBuffer, null, continueOn(this::writeFile_3));
+        }
+    }
+
+    private void completed_5() {
+        // return filePosition
+        Throwable maybeThrowable = Closeables.safeClose(null, socket, file);
+        registration.close();
+        if (maybeThrowable != null) {
+            continuation.failed(maybeThrowable, null);
+        } else {
+            continuation.completed(filePosition, null);
+        }
     }
 
 
     public static void run(URL url, String fileName, CompletionHandler<Integer, Void> continuation) {
-        FetchAndSave2 fetchAndSave2 = new FetchAndSave2(url, fileName, continuation);
+        run(url, fileName, SocketOptionsProfile.DEFAULT, continuation);
+    }
+
+    public static void run(URL url, String fileName, SocketOptionsProfile profile,
+                           CompletionHandler<Integer, Void> continuation) {
+        run(url, fileName, profile, IoCompletionPool.shared(), continuation);
+    }
+
+    public static void run(URL url, String fileName, SocketOptionsProfile profile, IoCompletionPool ioPool,
+                           CompletionHandler<Integer, Void> continuation) {
+        run(url, fileName, profile, ioPool, CancellationToken.none(), continuation);
+    }
+
+    public static void run(URL url, String fileName, CancellationToken token,
+                           CompletionHandler<Integer, Void> continuation) {
+        run(url, fileName, SocketOptionsProfile.DEFAULT, IoCompletionPool.shared(), token, continuation);
+    }
+
+    /**
+     * Cancelling the token, or reaching its deadline, closes the socket, so that the operation in progress fails
+     * and the continuation fails with a {@link CancellationException}, having that failure as the cause.
+     */
+    public static void run(URL url, String fileName, SocketOptionsProfile profile, IoCompletionPool ioPool,
+                           CancellationToken token, CompletionHandler<Integer, Void> continuation) {
+        if (token.isCancelled()) {
+            continuation.failed(new CancellationException("fetch cancelled"), null);
+            return;
+        }
+        FetchAndSave2 fetchAndSave2 = new FetchAndSave2(url, fileName, profile, ioPool, token, continuation);
         try {
             fetchAndSave2.connect_0();
         } catch (Throwable exc) {
@@ -120,7 +209,7 @@ public class FetchAndSave2 {
             @Override
             public void completed(T result, Void attachment) {
                 try {
-                    log.info("CompletionHandler#completed called");
+                    log.trace("CompletionHandler#completed called");
                     onSuccess.accept(result);
                 } catch (Throwable exc) {
                     handleError(exc);
@@ -134,5 +223,9 @@ public class FetchAndSave2 {
             }
         };
     }
-}
 
+    private static InetSocketAddress addressOf(URL url) {
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return new InetSocketAddress(url.getHost(), port);
+    }
+}
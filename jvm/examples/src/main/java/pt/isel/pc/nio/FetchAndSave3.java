@@ -1,60 +1,215 @@
 package pt.isel.pc.nio;
 
+import pt.isel.pc.utils.CancellationToken;
 import pt.isel.pc.utils.Closeables;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.StandardSocketOptions;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.util.concurrent.CancellationException;
 import java.util.function.Consumer;
 
 import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.WRITE;
 
 public class FetchAndSave3 {
 
     private final URL url;
+    private final SocketOptionsProfile profile;
     private final CompletionHandler<Integer, Void> continuation;
-    private final AsynchronousSocketChannel socket;
+    private final CancellationToken token;
+    private CancellationToken.Registration registration;
+
+    // Only one of the file channels is used, depending on the file being mapped or not
     private final AsynchronousFileChannel file;
+    private final FileChannel mappedFile;
 
-    FetchAndSave3(AsynchronousSocketChannel socket,
-                  AsynchronousFileChannel file,
-                  URL url,
-                  CompletionHandler<Integer, Void> continuation) {
-        this.socket = socket;
-        this.file = file;
+    // Only used when the socket is obtained from a connection pool
+    private final ConnectionPool pool;
+    private ConnectionPool.Connection connection;
+    private boolean retried = false;
+
+    // volatile because abort reads it on the thread cancelling the token
+    private volatile AsynchronousSocketChannel socket;
+    private HttpResponseParser parser;
+
+    private FetchAndSave3(URL url,
+                          SocketOptionsProfile profile,
+                          AsynchronousFileChannel file,
+                          FileChannel mappedFile,
+                          ConnectionPool pool,
+                          CancellationToken token,
+                          CompletionHandler<Integer, Void> continuation) {
         this.url = url;
+        this.profile = profile;
+        this.file = file;
+        this.mappedFile = mappedFile;
+        this.pool = pool;
+        this.token = token;
         this.continuation = continuation;
     }
 
     public static void run(URL url, String fileName, CompletionHandler<Integer, Void> completionHandler) {
-        AsynchronousSocketChannel socket = null;
+        run(url, fileName, SocketOptionsProfile.DEFAULT, completionHandler);
+    }
+
+    public static void run(URL url, String fileName, SocketOptionsProfile profile,
+                           CompletionHandler<Integer, Void> completionHandler) {
+        run(url, fileName, profile, IoCompletionPool.shared(), completionHandler);
+    }
+
+    public static void run(URL url, String fileName, SocketOptionsProfile profile, IoCompletionPool ioPool,
+                           CompletionHandler<Integer, Void> completionHandler) {
+        run(url, fileName, profile, ioPool, CancellationToken.none(), completionHandler);
+    }
+
+    public static void run(URL url, String fileName, CancellationToken token,
+                           CompletionHandler<Integer, Void> completionHandler) {
+        run(url, fileName, SocketOptionsProfile.DEFAULT, IoCompletionPool.shared(), token, completionHandler);
+    }
+
+    /**
+     * Cancelling the token, or reaching its deadline, closes the socket, so that the operation in progress fails
+     * and the handler fails with a {@link CancellationException}, having that failure as the cause.
+     */
+    public static void run(URL url, String fileName, SocketOptionsProfile profile, IoCompletionPool ioPool,
+                           CancellationToken token, CompletionHandler<Integer, Void> completionHandler) {
+        start(url, fileName, profile, ioPool, null, false, token, completionHandler);
+    }
+
+    /**
+     * Same as {@link #run(URL, String, CompletionHandler)}, however the connection is obtained from
+     * {@code pool} and returned to it after the response is read, if it can be reused.
+     * If a reused connection fails before the response headers are received, which happens when the server
+     * closed it while idle, the request is retried once on a new connection.
+     * The socket options and the completion pool are the ones defined for the pool.
+     */
+    public static void run(URL url, String fileName, ConnectionPool pool,
+                           CompletionHandler<Integer, Void> completionHandler) {
+        run(url, fileName, pool, CancellationToken.none(), completionHandler);
+    }
+
+    /**
+     * Same as {@link #run(URL, String, ConnectionPool, CompletionHandler)}, cancelled as defined in
+     * {@link #run(URL, String, SocketOptionsProfile, IoCompletionPool, CancellationToken, CompletionHandler)}.
+     * A cancellation while waiting for a pool connection fails the fetch immediately.
+     */
+    public static void run(URL url, String fileName, ConnectionPool pool, CancellationToken token,
+                           CompletionHandler<Integer, Void> completionHandler) {
+        start(url, fileName, pool.getProfile(), pool.getIoPool(), pool, false, token, completionHandler);
+    }
+
+    /**
+     * Same as {@link #run(URL, String, CompletionHandler)}, however the response body is written using
+     * a memory-mapped file when its length is known (see {@link MappedReadWrite}).
+     */
+    public static void runMapped(URL url, String fileName, CompletionHandler<Integer, Void> completionHandler) {
+        runMapped(url, fileName, SocketOptionsProfile.DEFAULT, completionHandler);
+    }
+
+    public static void runMapped(URL url, String fileName, SocketOptionsProfile profile,
+                                 CompletionHandler<Integer, Void> completionHandler) {
+        runMapped(url, fileName, profile, IoCompletionPool.shared(), completionHandler);
+    }
+
+    public static void runMapped(URL url, String fileName, SocketOptionsProfile profile, IoCompletionPool ioPool,
+                                 CompletionHandler<Integer, Void> completionHandler) {
+        start(url, fileName, profile, ioPool, null, true, CancellationToken.none(), completionHandler);
+    }
+
+    public static void runMapped(URL url, String fileName, ConnectionPool pool,
+                                 CompletionHandler<Integer, Void> completionHandler) {
+        start(url, fileName, pool.getProfile(), pool.getIoPool(), pool, true, CancellationToken.none(),
+                completionHandler);
+    }
+
+    private static void start(URL url, String fileName, SocketOptionsProfile profile,
+                              IoCompletionPool ioPool, ConnectionPool pool, boolean mapped,
+                              CancellationToken token, CompletionHandler<Integer, Void> completionHandler) {
+        if (token.isCancelled()) {
+            completionHandler.failed(new CancellationException("fetch cancelled"), null);
+            return;
+        }
         AsynchronousFileChannel file = null;
+        FileChannel mappedFile = null;
+        AsynchronousSocketChannel socket = null;
         try {
-            socket = AsynchronousSocketChannel.open();
-            file = AsynchronousFileChannel.open(Paths.get(fileName), WRITE, CREATE);
-            FetchAndSave3 fas = new FetchAndSave3(socket, file, url, completionHandler);
-            fas.connect(url);
+            if (mapped) {
+                mappedFile = FileChannel.open(Paths.get(fileName), READ, WRITE, CREATE);
+            } else {
+                file = ioPool.openFile(Paths.get(fileName), WRITE, CREATE);
+            }
+            FetchAndSave3 fas = new FetchAndSave3(url, profile, file, mappedFile, pool, token, completionHandler);
+            if (pool != null) {
+                // there is no socket to close yet, so a cancellation while waiting for a connection
+                // fails the acquire, and one after it completes is observed there
+                fas.registration = token.register(fas::abort);
+                fas.acquireConnection();
+            } else {
+                socket = ioPool.openSocket();
+                fas.socket = socket;
+                // if already cancelled, the socket is closed and the connect fails
+                fas.registration = token.register(fas::abort);
+                fas.connect(url);
+            }
         } catch (IOException ioException) {
-            Throwable th = Closeables.safeClose(ioException, socket, file);
+            Throwable th = Closeables.safeClose(token.isCancelled() ? cancellationOf(ioException) : ioException,
+                    socket, file, mappedFile);
             completionHandler.failed(th, null);
         }
     }
 
+    private static CancellationException cancellationOf(Throwable cause) {
+        CancellationException cancellation = new CancellationException("fetch cancelled");
+        cancellation.initCause(cause);
+        return cancellation;
+    }
+
+    // Runs on the thread cancelling the token
+    private void abort() {
+        Closeables.safeClose(null, socket);
+    }
+
     private void handleError(Throwable th) {
-        th = Closeables.safeClose(th, socket, file);
+        boolean cancelled = token.isCancelled();
+        if (cancelled) {
+            th = cancellationOf(th);
+        }
+        if (pool != null) {
+            pool.release(connection, false);
+            if (connection.isReused() && (parser == null || !parser.isHeaderComplete()) && !retried
+                    && !cancelled) {
+                retried = true;
+                acquireConnection();
+                return;
+            }
+            th = Closeables.safeClose(th, file, mappedFile);
+        } else {
+            th = Closeables.safeClose(th, socket, file, mappedFile);
+        }
+        registration.close();
         continuation.failed(th, null);
     }
 
     private void completed(Integer size) {
-        Throwable th = Closeables.safeClose(null, socket, file);
+        Throwable th;
+        // before releasing, since afterwards the socket may already be used by another fetch
+        registration.close();
+        if (pool != null) {
+            // closing the registration doesn't wait for an abort already running, which may be closing the socket
+            pool.release(connection, parser.isConnectionReusable() && !token.isCancelled());
+            th = Closeables.safeClose(null, file, mappedFile);
+        } else {
+            th = Closeables.safeClose(null, socket, file, mappedFile);
+        }
         if (th != null) {
             continuation.failed(th, null);
         } else {
@@ -62,15 +217,51 @@ public class FetchAndSave3 {
         }
     }
 
+    private void acquireConnection() {
+        pool.acquire(addressOf(url), token, new CompletionHandler<>() {
+            @Override
+            public void completed(ConnectionPool.Connection result, Void attachment) {
+                connection = result;
+                socket = result.getChannel();
+                // after assigning the socket, so that a cancellation is either observed here
+                // or closes the socket on abort
+                if (token.isCancelled()) {
+                    registration.close();
+                    // not reusable, because abort may be closing it
+                    pool.release(connection, false);
+                    Throwable th = Closeables.safeClose(
+                            cancellationOf(new IOException("cancelled while acquiring the connection")),
+                            file, mappedFile);
+                    continuation.failed(th, null);
+                    return;
+                }
+                try {
+                    sendRequest(null);
+                } catch (Throwable exc) {
+                    handleError(exc);
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                Throwable th = Closeables.safeClose(exc, file, mappedFile);
+                registration.close();
+                continuation.failed(th, null);
+            }
+        });
+    }
+
     private void connect(URL url) throws IOException {
-        socket.setOption(StandardSocketOptions.SO_SNDBUF, 16);
-        socket.connect(new InetSocketAddress(url.getHost(), url.getPort()), null,
+        profile.applyTo(socket);
+        socket.connect(addressOf(url), null,
                 continueOn(this::sendRequest));
     }
 
     private void sendRequest(Void result) {
+        parser = new HttpResponseParser();
         String requestString = "GET " + url.getPath() + " HTTP/1.1\r\n"
-                + "User-Agent: Me\r\nHost: httpbin.org\r\nConnection: close\r\n"
+                + "User-Agent: Me\r\nHost: " + url.getHost() + "\r\n"
+                + (pool != null ? "" : "Connection: close\r\n")
                 + "\r\n";
         byte[] requestBytes = requestString.getBytes(StandardCharsets.US_ASCII);
         ByteBuffer requestBuffer = ByteBuffer.wrap(requestBytes);
@@ -79,8 +270,18 @@ public class FetchAndSave3 {
     }
 
     private void copyResponse(Integer ignore) {
-        ReadWrite.run(socket, file,
-                continueOn(this::completed));
+        if (mappedFile != null) {
+            MappedReadWrite.run(socket, mappedFile, parser, profile.getCopyBufferSize(),
+                    continueOn(this::completed));
+        } else {
+            ReadWrite.run(socket, file, parser, profile.getCopyBufferSize(),
+                    continueOn(this::completed));
+        }
+    }
+
+    private static InetSocketAddress addressOf(URL url) {
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return new InetSocketAddress(url.getHost(), port);
     }
 
     private <R> CompletionHandler<R, Void> continueOn(Consumer<R> completed) {
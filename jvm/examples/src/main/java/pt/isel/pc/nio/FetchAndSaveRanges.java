@@ -0,0 +1,342 @@
+package pt.isel.pc.nio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.isel.pc.utils.Closeables;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Fetches a resource using multiple connections concurrently, each one for a segment of the resource,
+ * and saves it into a file.
+ * <p>
+ * First, a {@code HEAD} request obtains the resource length and checks if the server supports byte ranges.
+ * Then, the resource is split into segments that are requested with {@code Range} headers, each on its own
+ * connection, and written on its position of an {@link AsynchronousFileChannel}.
+ * If the server doesn't support ranges, or doesn't answer the {@code HEAD} request with a 200 (e.g. a 405),
+ * the resource is fetched with a single request.
+ * <p>
+ * A failed segment is retried, resuming from the bytes already written, up to a maximum number of retries.
+ * The resume position is the file position after the last completed write, so no byte is requested twice.
+ */
+public class FetchAndSaveRanges {
+
+    private static final Logger log = LoggerFactory.getLogger(FetchAndSaveRanges.class);
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    private final URL url;
+    private final AsynchronousFileChannel file;
+    private final int nOfSegments;
+    private final int maxRetries;
+    private final SocketOptionsProfile profile;
+    private final IoCompletionPool ioPool;
+    private final CompletionHandler<Long, Void> continuation;
+
+    private final AtomicInteger pendingSegments = new AtomicInteger();
+    private final AtomicLong totalSize = new AtomicLong();
+    private final AtomicReference<Throwable> firstError = new AtomicReference<>();
+
+    private FetchAndSaveRanges(URL url, AsynchronousFileChannel file, int nOfSegments, int maxRetries,
+                               SocketOptionsProfile profile, IoCompletionPool ioPool,
+                               CompletionHandler<Long, Void> continuation) {
+        this.url = url;
+        this.file = file;
+        this.nOfSegments = nOfSegments;
+        this.maxRetries = maxRetries;
+        this.profile = profile;
+        this.ioPool = ioPool;
+        this.continuation = continuation;
+    }
+
+    public static void run(URL url, String fileName, int nOfSegments, CompletionHandler<Long, Void> continuation) {
+        run(url, fileName, nOfSegments, DEFAULT_MAX_RETRIES,
+                SocketOptionsProfile.DEFAULT, IoCompletionPool.shared(), continuation);
+    }
+
+    /**
+     * @param continuation completed with the resource length.
+     */
+    public static void run(URL url, String fileName, int nOfSegments, int maxRetries,
+                           SocketOptionsProfile profile, IoCompletionPool ioPool,
+                           CompletionHandler<Long, Void> continuation) {
+        if (nOfSegments <= 0) {
+            throw new IllegalArgumentException("nOfSegments must be positive");
+        }
+        AsynchronousFileChannel file;
+        try {
+            file = ioPool.openFile(Paths.get(fileName), WRITE, CREATE);
+        } catch (IOException e) {
+            continuation.failed(e, null);
+            return;
+        }
+        FetchAndSaveRanges fetch = new FetchAndSaveRanges(
+                url, file, nOfSegments, maxRetries, profile, ioPool, continuation);
+        fetch.start();
+    }
+
+    private void start() {
+        new Exchange("HEAD", null, HttpResponseParser.forHead(), new CompletionHandler<>() {
+            @Override
+            public void completed(Exchange exchange, Void attachment) {
+                exchange.close();
+                try {
+                    onHead(exchange.parser);
+                } catch (Throwable exc) {
+                    failed(exc, null);
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                continuation.failed(Closeables.safeClose(exc, file), null);
+            }
+        }).start();
+    }
+
+    private void onHead(HttpResponseParser head) throws IOException {
+        long length = head.getContentLength();
+        if (head.getStatusCode() != 200 || !head.acceptsRanges() || length <= 0 || nOfSegments == 1) {
+            log.debug("fetching with a single request, HEAD status {}, length {}, accepts ranges {}",
+                    head.getStatusCode(), length, head.acceptsRanges());
+            file.truncate(0);
+            pendingSegments.set(1);
+            new Segment(0, -1).fetch();
+            return;
+        }
+        // removes any previous content after the resource length
+        file.truncate(length);
+        int segments = (int) Math.min(nOfSegments, length);
+        long segmentSize = (length + segments - 1) / segments;
+        log.debug("fetching {} bytes with {} segments of {} bytes", length, segments, segmentSize);
+        pendingSegments.set(segments);
+        for (int i = 0; i < segments; ++i) {
+            long start = i * segmentSize;
+            new Segment(start, Math.min(length, start + segmentSize) - 1).fetch();
+        }
+    }
+
+    private void onSegmentEnd(long size, Throwable error) {
+        if (error != null) {
+            firstError.compareAndSet(null, error);
+        } else {
+            totalSize.addAndGet(size);
+        }
+        if (pendingSegments.decrementAndGet() != 0) {
+            return;
+        }
+        Throwable th = Closeables.safeClose(firstError.get(), file);
+        if (th != null) {
+            continuation.failed(th, null);
+        } else {
+            continuation.completed(totalSize.get(), null);
+        }
+    }
+
+    private class Segment {
+        // first and last (inclusive) byte positions, with last == -1 if the whole resource is fetched without range
+        private final long first;
+        private final long last;
+        // where the next request starts, advanced by the completed writes of a range
+        private long position;
+        private int retries = 0;
+        private Exchange exchange;
+
+        Segment(long first, long last) {
+            this.first = first;
+            this.last = last;
+            this.position = first;
+        }
+
+        private boolean isRange() {
+            return last != -1;
+        }
+
+        void fetch() {
+            String range = isRange() ? "Range: bytes=" + position + "-" + last + "\r\n" : null;
+            exchange = new Exchange("GET", range, new HttpResponseParser(), new CompletionHandler<>() {
+                @Override
+                public void completed(Exchange result, Void attachment) {
+                    try {
+                        onHead();
+                    } catch (Throwable exc) {
+                        onFailure(exc, false);
+                    }
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    onFailure(exc, true);
+                }
+            });
+            exchange.start();
+        }
+
+        private void onHead() throws IOException {
+            HttpResponseParser parser = exchange.parser;
+            if (isRange()) {
+                if (parser.getStatusCode() != 206
+                        || parser.getContentRangeStart() != position
+                        || parser.getContentRangeEnd() != last) {
+                    throw new IOException(String.format("unexpected response for range %d-%d: status %d, range %d-%d",
+                            position, last, parser.getStatusCode(),
+                            parser.getContentRangeStart(), parser.getContentRangeEnd()));
+                }
+            } else if (parser.getStatusCode() != 200) {
+                throw new IOException("GET request failed with status " + parser.getStatusCode());
+            }
+            // the body bytes received together with the head
+            writeLeftover(exchange.buf, position);
+        }
+
+        private void writeLeftover(ByteBuffer buf, long filePosition) {
+            if (buf.hasRemaining()) {
+                file.write(buf, filePosition, null, exchange.continueOn(written -> {
+                    onWritten(filePosition + written);
+                    writeLeftover(buf, filePosition + written);
+                }));
+                return;
+            }
+            if (exchange.parser.isDone()) {
+                onCompleted();
+                return;
+            }
+            ReadWrite.run(exchange.socket, file, exchange.parser, profile.getCopyBufferSize(), filePosition,
+                    this::onWritten, exchange.continueOn(ignore -> onCompleted()));
+        }
+
+        private void onWritten(long filePosition) {
+            // without a range, a retry fetches the whole resource again, so it starts on the same position
+            if (isRange()) {
+                position = filePosition;
+            }
+        }
+
+        private void onCompleted() {
+            exchange.close();
+            onSegmentEnd(isRange() ? last - first + 1 : exchange.parser.getBodySize(), null);
+        }
+
+        private void onFailure(Throwable exc, boolean retriable) {
+            exchange.close();
+            if (!retriable || retries == maxRetries) {
+                log.warn("segment {}-{} failed: {}", first, last, exc.toString());
+                onSegmentEnd(0, exc);
+                return;
+            }
+            retries += 1;
+            log.info("retrying segment {}-{} from {}, after {}", first, last, position, exc.toString());
+            if (isRange() && position > last) {
+                onCompleted();
+                return;
+            }
+            fetch();
+        }
+    }
+
+    // A request on a new connection, completed when the response head is received
+    private class Exchange {
+        private final String method;
+        private final String extraHeaders;
+        private final HttpResponseParser parser;
+        private final CompletionHandler<Exchange, Void> onHead;
+        private final ByteBuffer buf = ByteBuffer.allocate(profile.getCopyBufferSize());
+        private AsynchronousSocketChannel socket;
+
+        Exchange(String method, String extraHeaders, HttpResponseParser parser,
+                 CompletionHandler<Exchange, Void> onHead) {
+            this.method = method;
+            this.extraHeaders = extraHeaders;
+            this.parser = parser;
+            this.onHead = onHead;
+        }
+
+        void start() {
+            try {
+                socket = ioPool.openSocket();
+                profile.applyTo(socket);
+                socket.connect(addressOf(url), null, continueOn(ignore -> sendRequest()));
+            } catch (Throwable exc) {
+                onHead.failed(exc, null);
+            }
+        }
+
+        private void sendRequest() {
+            String path = url.getFile().isEmpty() ? "/" : url.getFile();
+            String requestString = method + " " + path + " HTTP/1.1\r\n"
+                    + "User-Agent: Me\r\nHost: " + url.getHost() + "\r\n"
+                    + (extraHeaders != null ? extraHeaders : "")
+                    + "Connection: close\r\n"
+                    + "\r\n";
+            ByteBuffer requestBuffer = ByteBuffer.wrap(requestString.getBytes(StandardCharsets.US_ASCII));
+            BufferWrite.run(requestBuffer, socket, continueOn(ignore -> readHead()));
+        }
+
+        private void readHead() {
+            buf.clear();
+            socket.read(buf, null, continueOn(result -> {
+                if (result == -1) {
+                    parser.endOfStream();
+                    if (!parser.isHeaderComplete()) {
+                        throw new EOFException("connection closed before the end of the response head");
+                    }
+                } else {
+                    buf.flip();
+                    parser.decode(buf);
+                    if (!parser.isHeaderComplete()) {
+                        readHead();
+                        return;
+                    }
+                }
+                onHead.completed(this, null);
+            }));
+        }
+
+        void close() {
+            Closeables.safeClose(null, socket);
+        }
+
+        private <T> CompletionHandler<T, Void> continueOn(Step<T> onSuccess) {
+            return new CompletionHandler<>() {
+                @Override
+                public void completed(T result, Void attachment) {
+                    try {
+                        onSuccess.accept(result);
+                    } catch (Throwable exc) {
+                        onHead.failed(exc, null);
+                    }
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    onHead.failed(exc, null);
+                }
+            };
+        }
+    }
+
+    @FunctionalInterface
+    private interface Step<T> {
+        void accept(T value) throws Exception;
+    }
+
+    private static InetSocketAddress addressOf(URL url) {
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return new InetSocketAddress(url.getHost(), port);
+    }
+}
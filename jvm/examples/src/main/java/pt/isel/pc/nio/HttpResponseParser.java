@@ -0,0 +1,484 @@
+package pt.isel.pc.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incremental HTTP/1.1 response parser, to be used as a stage of the socket-to-file copy loops.
+ * <p>
+ * Each call to {@link #decode(ByteBuffer)} consumes the bytes between the buffer's position and limit
+ * and leaves in that same buffer only the response body bytes.
+ * The status line, the headers and the chunked encoding framing are removed in-place, i.e., without
+ * allocating any additional buffer.
+ * <p>
+ * The parser knows when the response ends (see {@link #isDone()}), either because the {@code Content-Length}
+ * bytes were received or because the last chunk was received, which allows the connection to be reused.
+ * Bytes received after the end of the response are ignored.
+ * <p>
+ * Instances are not thread-safe, which is fine since the copy loops never have more than one
+ * read completion being processed at a time.
+ * <p>
+ * The response to a {@code HEAD} request never has a body, even if it has a {@code Content-Length} header,
+ * so the parser must be created with {@link #forHead()} for those responses.
+ */
+public class HttpResponseParser {
+
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    private static final byte[] HTTP_VERSION_PREFIX = ascii("HTTP/");
+    private static final byte[] CONTENT_LENGTH = ascii("content-length");
+    private static final byte[] TRANSFER_ENCODING = ascii("transfer-encoding");
+    private static final byte[] CHUNKED = ascii("chunked");
+    private static final byte[] CONNECTION = ascii("connection");
+    private static final byte[] CLOSE = ascii("close");
+    private static final byte[] KEEP_ALIVE = ascii("keep-alive");
+    private static final byte[] HTTP_1_0 = ascii("HTTP/1.0");
+    private static final byte[] ACCEPT_RANGES = ascii("accept-ranges");
+    private static final byte[] CONTENT_RANGE = ascii("content-range");
+    private static final byte[] BYTES = ascii("bytes");
+
+    public static class ParseException extends RuntimeException {
+        public ParseException(String message) {
+            super(message);
+        }
+    }
+
+    private enum State {
+        STATUS_LINE,
+        HEADER_LINE,
+        BODY_WITH_LENGTH,
+        BODY_UNTIL_CLOSE,
+        CHUNK_SIZE_LINE,
+        CHUNK_DATA,
+        CHUNK_DATA_END,
+        TRAILER_LINE,
+        DONE
+    }
+
+    // The line being accumulated, for the states that are line oriented
+    private final byte[] line = new byte[MAX_LINE_LENGTH];
+    private int lineLength = 0;
+
+    private State state = State.STATUS_LINE;
+    private boolean headerComplete = false;
+    private int statusCode = -1;
+    private long contentLength = -1;
+    private boolean chunked = false;
+    private boolean keepAlive = true;
+    private final boolean headResponse;
+    private boolean acceptsRanges = false;
+    private long contentRangeStart = -1;
+    private long contentRangeEnd = -1;
+    private long contentRangeTotal = -1;
+
+    // Remaining bytes of the body (BODY_WITH_LENGTH) or of the current chunk (CHUNK_DATA)
+    private long remaining = 0;
+    private long bodySize = 0;
+
+    public HttpResponseParser() {
+        this(false);
+    }
+
+    private HttpResponseParser(boolean headResponse) {
+        this.headResponse = headResponse;
+    }
+
+    /**
+     * @return a parser for the response to a {@code HEAD} request, which is done when the headers end.
+     */
+    public static HttpResponseParser forHead() {
+        return new HttpResponseParser(true);
+    }
+
+    /**
+     * Decodes the bytes between the buffer's position and limit.
+     * On return, the buffer's position is unchanged and the limit is set so that
+     * only the decoded body bytes remain.
+     *
+     * @param buf the buffer with the received bytes, ready to be read (i.e. flipped).
+     * @throws ParseException if the received bytes are not a valid HTTP/1.1 response.
+     */
+    public void decode(ByteBuffer buf) {
+        int in = buf.position();
+        int out = in;
+        final int limit = buf.limit();
+        while (in < limit && state != State.DONE) {
+            switch (state) {
+                case BODY_WITH_LENGTH:
+                case CHUNK_DATA: {
+                    int n = (int) Math.min(remaining, limit - in);
+                    move(buf, in, out, n);
+                    in += n;
+                    out += n;
+                    remaining -= n;
+                    bodySize += n;
+                    if (remaining == 0) {
+                        state = state == State.BODY_WITH_LENGTH ? State.DONE : State.CHUNK_DATA_END;
+                    }
+                    break;
+                }
+                case BODY_UNTIL_CLOSE: {
+                    int n = limit - in;
+                    move(buf, in, out, n);
+                    in += n;
+                    out += n;
+                    bodySize += n;
+                    break;
+                }
+                default: {
+                    byte b = buf.get(in++);
+                    if (b == LF) {
+                        if (lineLength > 0 && line[lineLength - 1] == CR) {
+                            lineLength -= 1;
+                        }
+                        onLine();
+                        lineLength = 0;
+                    } else {
+                        if (lineLength == MAX_LINE_LENGTH) {
+                            throw new ParseException("line exceeds the maximum length of " + MAX_LINE_LENGTH);
+                        }
+                        line[lineLength++] = b;
+                    }
+                }
+            }
+        }
+        buf.limit(out);
+    }
+
+    /**
+     * Signals that the connection reached end-of-stream.
+     *
+     * @return {@code true} if the response was complete, {@code false} if the connection ended prematurely.
+     */
+    public boolean endOfStream() {
+        if (state == State.BODY_UNTIL_CLOSE) {
+            state = State.DONE;
+        }
+        return state == State.DONE;
+    }
+
+    /**
+     * @return {@code true} if the response was completely received.
+     */
+    public boolean isDone() {
+        return state == State.DONE;
+    }
+
+    /**
+     * @return {@code true} if the status line and all headers were received.
+     */
+    public boolean isHeaderComplete() {
+        return headerComplete;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the {@code Content-Length} header value, or -1 if the response didn't have one.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    /**
+     * @return {@code true} if the response had an {@code Accept-Ranges} header with the {@code bytes} unit.
+     */
+    public boolean acceptsRanges() {
+        return acceptsRanges;
+    }
+
+    /**
+     * @return the first byte position of the {@code Content-Range} header, or -1 if the response didn't have one.
+     */
+    public long getContentRangeStart() {
+        return contentRangeStart;
+    }
+
+    /**
+     * @return the last byte position, inclusive, of the {@code Content-Range} header,
+     * or -1 if the response didn't have one.
+     */
+    public long getContentRangeEnd() {
+        return contentRangeEnd;
+    }
+
+    /**
+     * @return the complete length of the {@code Content-Range} header, or -1 if it is unknown
+     * or the response didn't have one.
+     */
+    public long getContentRangeTotal() {
+        return contentRangeTotal;
+    }
+
+    /**
+     * @return {@code true} if the response was completely received and both the response framing
+     * and the {@code Connection} header allow the connection to be used for another request.
+     */
+    public boolean isConnectionReusable() {
+        return state == State.DONE && keepAlive;
+    }
+
+    /**
+     * Accounts for body bytes that were read directly from the connection, without going through
+     * {@link #decode(ByteBuffer)}. Only valid while receiving a body with a known length.
+     *
+     * @param n the number of body bytes, which must not exceed the remaining body length.
+     */
+    public void skipBody(long n) {
+        if (state != State.BODY_WITH_LENGTH || n > remaining) {
+            throw new IllegalStateException("cannot skip " + n + " bytes on state " + state);
+        }
+        remaining -= n;
+        bodySize += n;
+        if (remaining == 0) {
+            state = State.DONE;
+        }
+    }
+
+    /**
+     * @return the number of body bytes decoded so far.
+     */
+    public long getBodySize() {
+        return bodySize;
+    }
+
+    private void onLine() {
+        switch (state) {
+            case STATUS_LINE:
+                // tolerate empty lines before the status line
+                if (lineLength != 0) {
+                    statusCode = parseStatusCode();
+                    // HTTP/1.0 connections are only persistent if explicitly requested
+                    keepAlive = !equalsIgnoreCase(0, Math.min(lineLength, HTTP_1_0.length), HTTP_1_0);
+                    state = State.HEADER_LINE;
+                }
+                break;
+            case HEADER_LINE:
+                if (lineLength == 0) {
+                    onHeaderEnd();
+                } else {
+                    onHeader();
+                }
+                break;
+            case CHUNK_SIZE_LINE:
+                remaining = parseChunkSize();
+                state = remaining == 0 ? State.TRAILER_LINE : State.CHUNK_DATA;
+                break;
+            case CHUNK_DATA_END:
+                if (lineLength != 0) {
+                    throw new ParseException("chunk data not followed by CRLF");
+                }
+                state = State.CHUNK_SIZE_LINE;
+                break;
+            case TRAILER_LINE:
+                if (lineLength == 0) {
+                    state = State.DONE;
+                }
+                break;
+            default:
+                throw new IllegalStateException("unexpected state " + state);
+        }
+    }
+
+    private void onHeader() {
+        int colon = indexOf((byte) ':');
+        if (colon <= 0) {
+            throw new ParseException("malformed header line");
+        }
+        int valueStart = colon + 1;
+        int valueEnd = lineLength;
+        while (valueStart < valueEnd && isWhitespace(line[valueStart])) {
+            valueStart += 1;
+        }
+        while (valueEnd > valueStart && isWhitespace(line[valueEnd - 1])) {
+            valueEnd -= 1;
+        }
+        if (equalsIgnoreCase(0, colon, CONTENT_LENGTH)) {
+            contentLength = parseDecimal(valueStart, valueEnd);
+        } else if (equalsIgnoreCase(0, colon, TRANSFER_ENCODING)) {
+            // chunked must be the last transfer coding applied
+            chunked = valueEnd - valueStart >= CHUNKED.length
+                    && equalsIgnoreCase(valueEnd - CHUNKED.length, valueEnd, CHUNKED);
+        } else if (equalsIgnoreCase(0, colon, CONNECTION)) {
+            if (hasToken(valueStart, valueEnd, CLOSE)) {
+                keepAlive = false;
+            } else if (hasToken(valueStart, valueEnd, KEEP_ALIVE)) {
+                keepAlive = true;
+            }
+        } else if (equalsIgnoreCase(0, colon, ACCEPT_RANGES)) {
+            acceptsRanges = hasToken(valueStart, valueEnd, BYTES);
+        } else if (equalsIgnoreCase(0, colon, CONTENT_RANGE)) {
+            onContentRange(valueStart, valueEnd);
+        }
+    }
+
+    // Content-Range: bytes <first>-<last>/<complete length or *>
+    private void onContentRange(int start, int end) {
+        int unitEnd = start + BYTES.length;
+        if (unitEnd >= end || !equalsIgnoreCase(start, unitEnd, BYTES) || !isWhitespace(line[unitEnd])) {
+            throw new ParseException("malformed content range");
+        }
+        int rangeStart = unitEnd + 1;
+        int dash = indexOf((byte) '-', rangeStart, end);
+        int slash = indexOf((byte) '/', rangeStart, end);
+        if (dash == -1 || slash == -1 || dash > slash) {
+            throw new ParseException("malformed content range");
+        }
+        contentRangeStart = parseDecimal(rangeStart, dash);
+        contentRangeEnd = parseDecimal(dash + 1, slash);
+        contentRangeTotal = slash + 2 == end && line[slash + 1] == '*' ? -1 : parseDecimal(slash + 1, end);
+    }
+
+    private void onHeaderEnd() {
+        if (statusCode >= 100 && statusCode < 200) {
+            // interim response, the final response follows
+            contentLength = -1;
+            chunked = false;
+            state = State.STATUS_LINE;
+            return;
+        }
+        headerComplete = true;
+        if (headResponse || statusCode == 204 || statusCode == 304) {
+            state = State.DONE;
+        } else if (chunked) {
+            // Transfer-Encoding overrides Content-Length
+            state = State.CHUNK_SIZE_LINE;
+        } else if (contentLength >= 0) {
+            remaining = contentLength;
+            state = remaining == 0 ? State.DONE : State.BODY_WITH_LENGTH;
+        } else {
+            // the end of the body is signaled by closing the connection
+            keepAlive = false;
+            state = State.BODY_UNTIL_CLOSE;
+        }
+    }
+
+    private int parseStatusCode() {
+        if (lineLength < HTTP_VERSION_PREFIX.length
+                || !equalsIgnoreCase(0, HTTP_VERSION_PREFIX.length, HTTP_VERSION_PREFIX)) {
+            throw new ParseException("malformed status line");
+        }
+        int start = indexOf((byte) ' ') + 1;
+        if (start == 0 || start + 3 > lineLength) {
+            throw new ParseException("malformed status line");
+        }
+        return (int) parseDecimal(start, start + 3);
+    }
+
+    private long parseChunkSize() {
+        long size = 0;
+        int i = 0;
+        for (; i < lineLength; ++i) {
+            int digit = Character.digit(line[i], 16);
+            if (digit == -1) {
+                break;
+            }
+            if (i == 15) {
+                throw new ParseException("chunk size too large");
+            }
+            size = size * 16 + digit;
+        }
+        // anything after the digits must be a chunk extension
+        if (i == 0 || (i < lineLength && line[i] != ';' && !isWhitespace(line[i]))) {
+            throw new ParseException("malformed chunk size");
+        }
+        return size;
+    }
+
+    private long parseDecimal(int start, int end) {
+        if (start == end || end - start > 18) {
+            throw new ParseException("malformed decimal number");
+        }
+        long value = 0;
+        for (int i = start; i < end; ++i) {
+            byte b = line[i];
+            if (b < '0' || b > '9') {
+                throw new ParseException("malformed decimal number");
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    // Checks if the comma separated list between 'start' and 'end' contains 'token'
+    private boolean hasToken(int start, int end, byte[] token) {
+        int tokenStart = start;
+        for (int i = start; i <= end; ++i) {
+            if (i == end || line[i] == ',') {
+                int tokenEnd = i;
+                while (tokenStart < tokenEnd && isWhitespace(line[tokenStart])) {
+                    tokenStart += 1;
+                }
+                while (tokenEnd > tokenStart && isWhitespace(line[tokenEnd - 1])) {
+                    tokenEnd -= 1;
+                }
+                if (equalsIgnoreCase(tokenStart, tokenEnd, token)) {
+                    return true;
+                }
+                tokenStart = i + 1;
+            }
+        }
+        return false;
+    }
+
+    private int indexOf(byte b) {
+        return indexOf(b, 0, lineLength);
+    }
+
+    private int indexOf(byte b, int start, int end) {
+        for (int i = start; i < end; ++i) {
+            if (line[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean equalsIgnoreCase(int start, int end, byte[] other) {
+        if (end - start != other.length) {
+            return false;
+        }
+        for (int i = 0; i < other.length; ++i) {
+            if (toLowerCase(line[start + i]) != toLowerCase(other[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    // Moves body bytes towards the start of the buffer, if framing bytes were removed before them
+    private static void move(ByteBuffer buf, int from, int to, int length) {
+        if (from == to) {
+            return;
+        }
+        if (buf.hasArray()) {
+            byte[] array = buf.array();
+            int offset = buf.arrayOffset();
+            System.arraycopy(array, offset + from, array, offset + to, length);
+        } else {
+            for (int i = 0; i < length; ++i) {
+                buf.put(to + i, buf.get(from + i));
+            }
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,201 @@
+package pt.isel.pc.nio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pool where the completion handlers of the NIO pipelines run, both for socket and for file channels.
+ * <p>
+ * Channels opened with {@link AsynchronousSocketChannel#open()} and {@link AsynchronousFileChannel#open}
+ * without an executor use the JDK default group, whose threads are unnamed and unbounded, and compete with
+ * the application threads. This class uses an {@link AsynchronousChannelGroup} over an explicit
+ * {@link ThreadPoolExecutor} with named threads, so that its size can be tuned and observed independently.
+ * <p>
+ * An operation initiated on one of these threads may complete immediately, in which case its handler runs
+ * inside the initiating call. The JDK bounds that nesting: after {@code sun.nio.ch.maxCompletionHandlersOnStack}
+ * (16 by default) nested handlers, it hands the next completion to the pool. So, the stack of a continuation
+ * chain stays bounded without any help from the handlers, at the cost of a thread hop every 16 immediate
+ * completions, which the handlers cannot avoid: the JDK counts the handlers it invokes directly, and unwinding
+ * the stack doesn't reset that count. The property can be raised, on the command line, to hop less often.
+ * <p>
+ * The {@link #shared()} instance is used by the pipelines when no pool is given.
+ * Its number of threads is defined by the {@code pt.isel.pc.nio.ioThreads} system property,
+ * defaulting to the number of processors, where zero or less means a cached pool.
+ */
+public final class IoCompletionPool implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(IoCompletionPool.class);
+
+    private static final int CACHED_KEEP_ALIVE_SECONDS = 60;
+
+    private final ThreadPoolExecutor executor;
+    private final AsynchronousChannelGroup group;
+    private boolean shared = false;
+
+    private IoCompletionPool(ThreadPoolExecutor executor) throws IOException {
+        this.executor = executor;
+        try {
+            this.group = AsynchronousChannelGroup.withThreadPool(executor);
+        } catch (IOException | RuntimeException e) {
+            executor.shutdownNow();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a pool with a fixed number of threads and an unbounded queue.
+     */
+    public static IoCompletionPool fixed(String name, int nThreads) throws IOException {
+        if (nThreads <= 0) {
+            throw new IllegalArgumentException("nThreads must be positive");
+        }
+        return new IoCompletionPool(new ThreadPoolExecutor(
+                nThreads, nThreads,
+                0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                threadFactory(name)));
+    }
+
+    /**
+     * Creates a pool where threads are created on demand, up to {@code maxThreads},
+     * and terminated after being idle for some time.
+     * <p>
+     * {@link AsynchronousChannelGroup#withThreadPool} requires that completions are never rejected nor run by
+     * the submitter, which may be an internal poller thread. So, with a bound, the completions wait on an
+     * unbounded queue when all threads are busy; without one ({@link Integer#MAX_VALUE}), they are handed off
+     * directly to a new thread.
+     */
+    public static IoCompletionPool cached(String name, int maxThreads) throws IOException {
+        if (maxThreads <= 0) {
+            throw new IllegalArgumentException("maxThreads must be positive");
+        }
+        if (maxThreads == Integer.MAX_VALUE) {
+            return new IoCompletionPool(new ThreadPoolExecutor(
+                    0, Integer.MAX_VALUE,
+                    CACHED_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(),
+                    threadFactory(name)));
+        }
+        // with an unbounded queue, the pool only grows up to the core size, which therefore is the bound
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                maxThreads, maxThreads,
+                CACHED_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                threadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return new IoCompletionPool(executor);
+    }
+
+    private static class SharedHolder {
+        static final IoCompletionPool INSTANCE = createShared();
+
+        private static IoCompletionPool createShared() {
+            int nThreads = Integer.getInteger("pt.isel.pc.nio.ioThreads", Runtime.getRuntime().availableProcessors());
+            try {
+                IoCompletionPool pool = nThreads > 0
+                        ? fixed("nio-io", nThreads)
+                        : cached("nio-io", Integer.MAX_VALUE);
+                pool.shared = true;
+                log.info("created shared pool with {}", nThreads > 0 ? nThreads + " threads" : "cached threads");
+                return pool;
+            } catch (IOException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+    }
+
+    public static IoCompletionPool shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    public AsynchronousChannelGroup getGroup() {
+        return group;
+    }
+
+    public ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    public AsynchronousSocketChannel openSocket() throws IOException {
+        return AsynchronousSocketChannel.open(group);
+    }
+
+    public AsynchronousServerSocketChannel openServerSocket() throws IOException {
+        return AsynchronousServerSocketChannel.open(group);
+    }
+
+    public AsynchronousFileChannel openFile(Path path, OpenOption... options) throws IOException {
+        return AsynchronousFileChannel.open(path, Set.of(options), executor);
+    }
+
+    /**
+     * @return the number of completions waiting for a thread.
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of threads running completions.
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getPoolSize() {
+        return executor.getPoolSize();
+    }
+
+    public int getLargestPoolSize() {
+        return executor.getLargestPoolSize();
+    }
+
+    public long getCompletedTaskCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    /**
+     * Closes all the socket channels in the group and terminates the threads.
+     * File channels are not closed, and should be closed before.
+     * The {@link #shared()} instance cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (shared) {
+            throw new IllegalStateException("the shared pool cannot be closed");
+        }
+        group.shutdownNow();
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("IoCompletionPool{poolSize=%d, active=%d, queued=%d, completed=%d}",
+                getPoolSize(), getActiveCount(), getQueueSize(), getCompletedTaskCount());
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread th = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            th.setDaemon(true);
+            return th;
+        };
+    }
+}
@@ -0,0 +1,190 @@
+package pt.isel.pc.nio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.isel.pc.utils.LogSampler;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+
+/**
+ * Alternative to {@link ReadWrite} that, when the response body length is known up front
+ * (i.e. there is a {@code Content-Length} and no chunked encoding), preallocates the file, maps it
+ * into memory and reads the socket data directly into the mapped buffer.
+ * This avoids the copy from the read buffer into the file and the file write completions.
+ * <p>
+ * Only the response head is read through an intermediate buffer and decoded by the parser.
+ * If the body length is not known, the body is written with positional {@link FileChannel} writes,
+ * which go to the page cache and so don't block for significant periods.
+ */
+public class MappedReadWrite {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedReadWrite.class);
+    private static final LogSampler sampler = new LogSampler(log, 1024);
+
+    private final AsynchronousSocketChannel sourceChannel;
+    private final FileChannel targetChannel;
+    private final HttpResponseParser parser;
+    private final CompletionHandler<Integer, Void> continuation;
+
+    private final ByteBuffer buf;
+    private MappedByteBuffer mapped;
+    private int size = 0;
+    private long filePosition = 0;
+
+    private MappedReadWrite(
+            AsynchronousSocketChannel sourceChannel,
+            FileChannel targetChannel,
+            HttpResponseParser parser,
+            int bufferSize,
+            CompletionHandler<Integer, Void> continuation
+    ) {
+        this.sourceChannel = sourceChannel;
+        this.targetChannel = targetChannel;
+        this.parser = parser;
+        this.buf = ByteBuffer.allocate(bufferSize);
+        this.continuation = continuation;
+    }
+
+    /**
+     * Copies the body of the HTTP response read from {@code sourceChannel} into {@code targetChannel},
+     * which must be opened for reading and writing, as required by the mapping.
+     */
+    public static void run(
+            AsynchronousSocketChannel sourceChannel,
+            FileChannel targetChannel,
+            HttpResponseParser parser,
+            CompletionHandler<Integer, Void> continuation) {
+        run(sourceChannel, targetChannel, parser, SocketOptionsProfile.DEFAULT_COPY_BUFFER_SIZE, continuation);
+    }
+
+    /**
+     * @param bufferSize the size of the buffer used to read the response head, and the body if its
+     *                   length is unknown.
+     */
+    public static void run(
+            AsynchronousSocketChannel sourceChannel,
+            FileChannel targetChannel,
+            HttpResponseParser parser,
+            int bufferSize,
+            CompletionHandler<Integer, Void> continuation) {
+        MappedReadWrite readWrite = new MappedReadWrite(sourceChannel, targetChannel, parser, bufferSize, continuation);
+        readWrite.tryRun(readWrite::read);
+    }
+
+    private void read() {
+        buf.clear();
+        sourceChannel.read(buf, null, readContinuation);
+    }
+
+    private final CompletionHandler<Integer, Void> readContinuation = new CompletionHandler<>() {
+
+        @Override
+        public void completed(Integer result, Void attachment) {
+            if (sampler.sample()) {
+                log.debug("Completed read of {} bytes", result);
+            }
+            tryRun(() -> {
+                if (result == -1) {
+                    if (!parser.endOfStream()) {
+                        continuation.failed(new EOFException("connection closed before the end of the response"), null);
+                        return;
+                    }
+                    continuation.completed(size, null);
+                    return;
+                }
+                buf.flip();
+                parser.decode(buf);
+                if (mapped == null && parser.isHeaderComplete() && canMap()) {
+                    startMapped();
+                    return;
+                }
+                // either the head is still incomplete or the body length is unknown
+                size += buf.remaining();
+                while (buf.hasRemaining()) {
+                    filePosition += targetChannel.write(buf, filePosition);
+                }
+                if (parser.isDone()) {
+                    continuation.completed(size, null);
+                } else {
+                    read();
+                }
+            });
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            continuation.failed(exc, null);
+        }
+    };
+
+    private boolean canMap() {
+        return !parser.isChunked()
+                && parser.getContentLength() >= 0
+                && parser.getContentLength() <= Integer.MAX_VALUE;
+    }
+
+    private void startMapped() throws IOException {
+        int length = (int) parser.getContentLength();
+        log.debug("Mapping {} bytes", length);
+        // truncate any previous content and let the mapping extend the file
+        targetChannel.truncate(length);
+        mapped = targetChannel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        // the body bytes already decoded together with the head
+        size += buf.remaining();
+        mapped.put(buf);
+        continueMapped();
+    }
+
+    private void continueMapped() {
+        if (!mapped.hasRemaining()) {
+            log.debug("Completed mapped copy, exiting");
+            continuation.completed(size, null);
+            return;
+        }
+        // reading at most the remaining body bytes, so that the socket can be reused
+        sourceChannel.read(mapped, null, mappedReadContinuation);
+    }
+
+    private final CompletionHandler<Integer, Void> mappedReadContinuation = new CompletionHandler<>() {
+
+        @Override
+        public void completed(Integer result, Void attachment) {
+            if (sampler.sample()) {
+                log.debug("Completed mapped read of {} bytes", result);
+            }
+            tryRun(() -> {
+                if (result == -1) {
+                    continuation.failed(new EOFException("connection closed before the end of the response"), null);
+                    return;
+                }
+                size += result;
+                parser.skipBody(result);
+                continueMapped();
+            });
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            continuation.failed(exc, null);
+        }
+    };
+
+    @FunctionalInterface
+    private interface Step {
+        void run() throws Exception;
+    }
+
+    private void tryRun(Step step) {
+        try {
+            step.run();
+        } catch (Throwable th) {
+            continuation.failed(th, null);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package pt.isel.pc.nio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.isel.pc.utils.Closeables;
+import pt.isel.pc.utils.TimerWheel;
+import pt.isel.pc.utils.Timeouts;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TCP server that splices each accepted connection with a new connection to an upstream address,
+ * using a {@link SocketSplice} for each direction.
+ * If no upstream address is given, the server echoes back everything it receives.
+ * <p>
+ * The number of concurrent connections is bounded: when the maximum is reached, no accept is initiated
+ * until a connection ends. Connections where no bytes were received, in either direction,
+ * for more than the idle timeout are closed.
+ */
+public class ProxyServer implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ProxyServer.class);
+
+    private final AsynchronousServerSocketChannel serverChannel;
+    private final InetSocketAddress upstreamAddress;
+    private final int maxConnections;
+    private final long idleTimeout;
+    private final SocketOptionsProfile profile;
+    private final IoCompletionPool ioPool;
+    // null if there is no idle timeout
+    private final TimerWheel idleTimer;
+
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    // true if an accept was not initiated because the maximum number of connections was reached
+    private final AtomicBoolean acceptParked = new AtomicBoolean();
+    private volatile boolean closed = false;
+
+    private ProxyServer(
+            AsynchronousServerSocketChannel serverChannel,
+            InetSocketAddress upstreamAddress,
+            int maxConnections,
+            long idleTimeout,
+            SocketOptionsProfile profile,
+            IoCompletionPool ioPool) {
+        this.serverChannel = serverChannel;
+        this.upstreamAddress = upstreamAddress;
+        this.maxConnections = maxConnections;
+        this.idleTimeout = idleTimeout;
+        this.profile = profile;
+        this.ioPool = ioPool;
+        // the idle checks of all sessions share the same timer, where cancelling a check on session end is O(1)
+        this.idleTimer = idleTimeout > 0 ? TimerWheel.shared() : null;
+    }
+
+    public static ProxyServer start(
+            InetSocketAddress bindAddress,
+            InetSocketAddress upstreamAddress,
+            int maxConnections,
+            long idleTimeout,
+            TimeUnit timeUnit) throws IOException {
+        return start(bindAddress, upstreamAddress, maxConnections, idleTimeout, timeUnit,
+                SocketOptionsProfile.DEFAULT, IoCompletionPool.shared());
+    }
+
+    /**
+     * Binds the server and starts accepting connections.
+     *
+     * @param upstreamAddress the address to forward the connections to, or {@code null} to echo.
+     * @param idleTimeout     zero or less for no idle timeout.
+     * @param profile         the options for both the accepted and the upstream sockets.
+     * @param ioPool          the pool where the accept and splice completions run.
+     */
+    public static ProxyServer start(
+            InetSocketAddress bindAddress,
+            InetSocketAddress upstreamAddress,
+            int maxConnections,
+            long idleTimeout,
+            TimeUnit timeUnit,
+            SocketOptionsProfile profile,
+            IoCompletionPool ioPool) throws IOException {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("maxConnections must be positive");
+        }
+        AsynchronousServerSocketChannel serverChannel = ioPool.openServerSocket();
+        try {
+            serverChannel.bind(bindAddress);
+        } catch (IOException | RuntimeException e) {
+            Closeables.safeClose(e, serverChannel);
+            throw e;
+        }
+        ProxyServer server = new ProxyServer(
+                serverChannel, upstreamAddress, maxConnections, timeUnit.toMillis(idleTimeout), profile, ioPool);
+        log.info("listening on {}", serverChannel.getLocalAddress());
+        server.accept();
+        return server;
+    }
+
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    /**
+     * Stops accepting and closes all the active connections.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Closeables.safeClose(null, serverChannel);
+        for (Session session : sessions) {
+            session.end(null);
+        }
+    }
+
+    private void accept() {
+        if (closed) {
+            return;
+        }
+        try {
+            serverChannel.accept(null, acceptContinuation);
+        } catch (Throwable th) {
+            log.error("unable to accept", th);
+        }
+    }
+
+    private final CompletionHandler<AsynchronousSocketChannel, Void> acceptContinuation = new CompletionHandler<>() {
+
+        @Override
+        public void completed(AsynchronousSocketChannel channel, Void attachment) {
+            int active = activeConnections.incrementAndGet();
+            log.debug("accepted connection, {} active", active);
+            new Session(channel).start();
+            acceptNextOrPark(active);
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            if (closed || !serverChannel.isOpen()) {
+                log.debug("server channel closed");
+                return;
+            }
+            log.warn("accept failed", exc);
+            accept();
+        }
+    };
+
+    private void acceptNextOrPark(int active) {
+        if (active < maxConnections) {
+            accept();
+            return;
+        }
+        log.debug("maximum number of connections reached, parking accept");
+        acceptParked.set(true);
+        // a connection may have ended after the increment and before the park,
+        // so the park must be undone if there is room for another connection
+        if (activeConnections.get() < maxConnections && acceptParked.compareAndSet(true, false)) {
+            accept();
+        }
+    }
+
+    private void onSessionEnd() {
+        if (activeConnections.decrementAndGet() < maxConnections && acceptParked.compareAndSet(true, false)) {
+            log.debug("unparking accept");
+            accept();
+        }
+    }
+
+    private class Session {
+
+        private final AsynchronousSocketChannel client;
+        private volatile AsynchronousSocketChannel upstream;
+        private volatile long lastActivity = Timeouts.nowNanos();
+        private volatile TimerWheel.Timeout idleCheck;
+        private final AtomicInteger pendingDirections = new AtomicInteger();
+        private final AtomicBoolean ended = new AtomicBoolean();
+
+        Session(AsynchronousSocketChannel client) {
+            this.client = client;
+        }
+
+        void start() {
+            sessions.add(this);
+            if (closed) {
+                // the server may have been closed before the session was added
+                end(null);
+                return;
+            }
+            scheduleIdleCheck(TimeUnit.MILLISECONDS.toNanos(idleTimeout));
+            try {
+                profile.applyTo(client);
+                if (upstreamAddress == null) {
+                    pendingDirections.set(1);
+                    splice(client, client);
+                    return;
+                }
+                AsynchronousSocketChannel channel = ioPool.openSocket();
+                upstream = channel;
+                profile.applyTo(channel);
+                channel.connect(upstreamAddress, null, new CompletionHandler<Void, Void>() {
+                    @Override
+                    public void completed(Void result, Void attachment) {
+                        log.debug("connected to upstream {}", upstreamAddress);
+                        pendingDirections.set(2);
+                        splice(client, channel);
+                        splice(channel, client);
+                    }
+
+                    @Override
+                    public void failed(Throwable exc, Void attachment) {
+                        end(exc);
+                    }
+                });
+            } catch (Throwable th) {
+                end(th);
+            }
+        }
+
+        private void splice(AsynchronousSocketChannel source, AsynchronousSocketChannel target) {
+            SocketSplice.run(source, target, profile.getCopyBufferSize(), this::onActivity,
+                    new CompletionHandler<>() {
+                        @Override
+                        public void completed(Long result, Void attachment) {
+                            log.debug("direction completed after {} bytes", result);
+                            if (pendingDirections.decrementAndGet() == 0) {
+                                end(null);
+                            }
+                        }
+
+                        @Override
+                        public void failed(Throwable exc, Void attachment) {
+                            end(exc);
+                        }
+                    });
+        }
+
+        private void onActivity() {
+            lastActivity = Timeouts.nowNanos();
+        }
+
+        private void scheduleIdleCheck(long delayNanos) {
+            if (idleTimer == null || ended.get()) {
+                return;
+            }
+            idleCheck = idleTimer.schedule(this::checkIdle, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void checkIdle() {
+            if (ended.get()) {
+                return;
+            }
+            // activity is only recorded on reads, so the timer doesn't need to be reset on each one
+            long remaining = Timeouts.remainingNanosUntil(lastActivity + TimeUnit.MILLISECONDS.toNanos(idleTimeout));
+            if (Timeouts.isTimeout(remaining)) {
+                log.debug("closing idle connection");
+                end(new InterruptedByTimeoutException());
+            } else {
+                scheduleIdleCheck(remaining);
+            }
+        }
+
+        void end(Throwable exc) {
+            if (!ended.compareAndSet(false, true)) {
+                return;
+            }
+            if (exc != null) {
+                log.debug("connection ended with {}", exc.toString());
+            }
+            TimerWheel.Timeout check = idleCheck;
+            if (check != null) {
+                check.cancel();
+            }
+            Closeables.safeClose(null, client, upstream);
+            sessions.remove(this);
+            onSessionEnd();
+        }
+    }
+}
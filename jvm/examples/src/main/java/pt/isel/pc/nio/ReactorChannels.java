@@ -0,0 +1,192 @@
+package pt.isel.pc.nio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.isel.pc.utils.LogSampler;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Adapters between NIO2 asynchronous channels and Reactor publishers.
+ * <p>
+ * The read {@link Flux} instances are demand driven: a read is only initiated when the downstream
+ * requested more elements and there isn't a read already in progress, so the channel is read at the
+ * rate the data is consumed. Each emitted buffer is a new buffer, flipped and ready to be read.
+ * <p>
+ * The write {@link Mono} instances only initiate the write when subscribed, and complete with the
+ * number of written bytes, after the whole buffer is written.
+ * <p>
+ * The channels are not closed by the adapters, not even on cancellation.
+ */
+public class ReactorChannels {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactorChannels.class);
+    private static final LogSampler sampler = new LogSampler(log, 1024);
+
+    private ReactorChannels() {
+        // static class
+    }
+
+    @FunctionalInterface
+    private interface ReadOperation {
+        void read(ByteBuffer dst, long position, CompletionHandler<Integer, Void> handler);
+    }
+
+    @FunctionalInterface
+    private interface WriteOperation {
+        void write(ByteBuffer src, long position, CompletionHandler<Integer, Void> handler);
+    }
+
+    /**
+     * @return a {@link Flux} with the bytes read from {@code channel} until the end-of-stream.
+     */
+    public static Flux<ByteBuffer> read(AsynchronousSocketChannel channel, int bufferSize) {
+        return Flux.create(sink -> new ChannelReader(
+                (dst, ignore, handler) -> channel.read(dst, null, handler), 0, bufferSize, sink).start());
+    }
+
+    /**
+     * @return a {@link Flux} with the bytes read from {@code channel}, starting at {@code position},
+     * until the end of the file.
+     */
+    public static Flux<ByteBuffer> read(AsynchronousFileChannel channel, long position, int bufferSize) {
+        return Flux.create(sink -> new ChannelReader(
+                (dst, pos, handler) -> channel.read(dst, pos, null, handler), position, bufferSize, sink).start());
+    }
+
+    public static Mono<Integer> write(AsynchronousSocketChannel channel, ByteBuffer buffer) {
+        return Mono.create(sink -> new ChannelWriter(
+                (src, ignore, handler) -> channel.write(src, null, handler), 0, buffer, sink).start());
+    }
+
+    public static Mono<Integer> write(AsynchronousFileChannel channel, ByteBuffer buffer, long position) {
+        return Mono.create(sink -> new ChannelWriter(
+                (src, pos, handler) -> channel.write(src, pos, null, handler), position, buffer, sink).start());
+    }
+
+    /**
+     * Returns a function that writes each buffer after the previous ones, starting at the beginning of the file,
+     * to be used with {@link Flux#concatMap(Function)}.
+     * The file position for each buffer is assigned when the returned {@link Mono} is subscribed.
+     */
+    public static Function<ByteBuffer, Mono<Integer>> fileSink(AsynchronousFileChannel channel) {
+        return fileSink(channel, 0);
+    }
+
+    public static Function<ByteBuffer, Mono<Integer>> fileSink(AsynchronousFileChannel channel, long startPosition) {
+        AtomicLong position = new AtomicLong(startPosition);
+        return buffer -> Mono.defer(() -> write(channel, buffer, position.getAndAdd(buffer.remaining())));
+    }
+
+    private static class ChannelReader implements CompletionHandler<Integer, Void> {
+
+        private final ReadOperation operation;
+        private final int bufferSize;
+        private final FluxSink<ByteBuffer> sink;
+        // true while a read is in progress, so that there is at most one at each moment
+        private final AtomicBoolean reading = new AtomicBoolean();
+        private long position;
+        private ByteBuffer buffer;
+
+        ChannelReader(ReadOperation operation, long position, int bufferSize, FluxSink<ByteBuffer> sink) {
+            this.operation = operation;
+            this.position = position;
+            this.bufferSize = bufferSize;
+            this.sink = sink;
+        }
+
+        void start() {
+            // called immediately with the already requested amount, and on each later request
+            sink.onRequest(ignore -> readIfRequested());
+        }
+
+        private void readIfRequested() {
+            // A request observed while a read is in progress is handled by the read completion,
+            // which checks the demand again after clearing the flag
+            if (!sink.isCancelled() && sink.requestedFromDownstream() > 0 && reading.compareAndSet(false, true)) {
+                buffer = ByteBuffer.allocate(bufferSize);
+                try {
+                    operation.read(buffer, position, this);
+                } catch (Throwable th) {
+                    sink.error(th);
+                }
+            }
+        }
+
+        @Override
+        public void completed(Integer result, Void attachment) {
+            if (sampler.sample()) {
+                log.debug("Completed read of {} bytes", result);
+            }
+            if (result == -1) {
+                sink.complete();
+                return;
+            }
+            position += result;
+            buffer.flip();
+            ByteBuffer emitted = buffer;
+            buffer = null;
+            sink.next(emitted);
+            reading.set(false);
+            readIfRequested();
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            sink.error(exc);
+        }
+    }
+
+    private static class ChannelWriter implements CompletionHandler<Integer, Void> {
+
+        private final WriteOperation operation;
+        private final ByteBuffer buffer;
+        private final MonoSink<Integer> sink;
+        private long position;
+        private int size = 0;
+
+        ChannelWriter(WriteOperation operation, long position, ByteBuffer buffer, MonoSink<Integer> sink) {
+            this.operation = operation;
+            this.position = position;
+            this.buffer = buffer;
+            this.sink = sink;
+        }
+
+        void start() {
+            try {
+                operation.write(buffer, position, this);
+            } catch (Throwable th) {
+                sink.error(th);
+            }
+        }
+
+        @Override
+        public void completed(Integer result, Void attachment) {
+            if (sampler.sample()) {
+                log.debug("Completed write of {} bytes", result);
+            }
+            size += result;
+            position += result;
+            if (buffer.hasRemaining()) {
+                start();
+            } else {
+                sink.success(size);
+            }
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            sink.error(exc);
+        }
+    }
+}
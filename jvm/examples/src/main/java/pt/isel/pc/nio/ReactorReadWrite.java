@@ -0,0 +1,62 @@
+package pt.isel.pc.nio;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+
+/**
+ * Same as {@link ReadWrite}, composed from the {@link ReactorChannels} adapters.
+ * <p>
+ * The file writes are done in sequence, via {@code concatMap}, with a prefetch of one, so that the
+ * read of the next buffer overlaps the write of the current one, as in {@link ReadWriteParallel},
+ * and at most two buffers exist at each moment.
+ * Other stages, e.g. hashing or compression, can be inserted between the source and the sink.
+ */
+public class ReactorReadWrite {
+
+    private ReactorReadWrite() {
+        // static class
+    }
+
+    /**
+     * Copies all the bytes read from {@code sourceChannel} until the end-of-stream.
+     *
+     * @return a {@link Mono} completed with the number of copied bytes.
+     */
+    public static Mono<Long> run(
+            AsynchronousSocketChannel sourceChannel,
+            AsynchronousFileChannel targetChannel,
+            int bufferSize) {
+        return copy(ReactorChannels.read(sourceChannel, bufferSize), targetChannel);
+    }
+
+    /**
+     * Copies only the body of the HTTP response read from {@code sourceChannel},
+     * completing as soon as the parser observes the end of the response.
+     */
+    public static Mono<Long> run(
+            AsynchronousSocketChannel sourceChannel,
+            AsynchronousFileChannel targetChannel,
+            HttpResponseParser parser,
+            int bufferSize) {
+        Flux<ByteBuffer> body = ReactorChannels.read(sourceChannel, bufferSize)
+                .doOnNext(parser::decode)
+                .takeUntil(ignore -> parser.isDone())
+                .concatWith(Mono.defer(() -> parser.isDone() || parser.endOfStream()
+                        ? Mono.<ByteBuffer>empty()
+                        : Mono.<ByteBuffer>error(
+                                new EOFException("connection closed before the end of the response"))));
+        return copy(body, targetChannel);
+    }
+
+    private static Mono<Long> copy(Flux<ByteBuffer> source, AsynchronousFileChannel targetChannel) {
+        return source
+                .filter(ByteBuffer::hasRemaining)
+                .concatMap(ReactorChannels.fileSink(targetChannel), 1)
+                .reduce(0L, (size, written) -> size + written);
+    }
+}
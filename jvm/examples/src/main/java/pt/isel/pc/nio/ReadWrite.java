@@ -2,32 +2,62 @@ package pt.isel.pc.nio;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import pt.isel.pc.utils.LogSampler;
 
+import java.io.EOFException;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
+import java.security.MessageDigest;
+import java.util.function.LongConsumer;
 
 public class ReadWrite {
 
     private static final Logger log = LoggerFactory.getLogger(ReadWrite.class);
+    private static final LogSampler sampler = new LogSampler(log, 1024);
 
     private final AsynchronousSocketChannel sourceChannel;
     private final AsynchronousFileChannel targetChannel;
+    private final HttpResponseParser parser;
+    private final MessageDigest digest;
+    private final BufferTransform transform;
     private final CompletionHandler<Integer, Void> continuation;
+    // called with the file position after each write, null if not needed
+    private final LongConsumer onWritten;
 
-    private final ByteBuffer buf = ByteBuffer.allocate(8);
+    private final ByteBuffer buf;
+    // the transform output, null if there is no transform
+    private final ByteBuffer transformBuf;
+    // true if buf was completely consumed by the transform
+    private boolean transformConsumed = true;
+    private boolean finishing = false;
     private int size = 0;
-    private int filePosition = 0;
+    private long filePosition;
 
     private ReadWrite(
             AsynchronousSocketChannel sourceChannel,
             AsynchronousFileChannel targetChannel,
+            HttpResponseParser parser,
+            int bufferSize,
+            long filePosition,
+            MessageDigest digest,
+            BufferTransform transform,
+            LongConsumer onWritten,
             CompletionHandler<Integer, Void> continuation
     ) {
 
         this.sourceChannel = sourceChannel;
         this.targetChannel = targetChannel;
+        this.parser = parser;
+        this.digest = digest;
+        this.transform = transform;
+        // direct buffers avoid the copies into native memory, both on the channel operations
+        // and on the transform
+        this.buf = transform != null ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        this.transformBuf = transform != null ? ByteBuffer.allocateDirect(bufferSize) : null;
+        this.filePosition = filePosition;
+        this.onWritten = onWritten;
         this.continuation = continuation;
     }
 
@@ -35,12 +65,114 @@ public class ReadWrite {
             AsynchronousSocketChannel sourceChannel,
             AsynchronousFileChannel targetChannel,
             CompletionHandler<Integer, Void> continuation) {
-        ReadWrite readWrite = new ReadWrite(sourceChannel, targetChannel, continuation);
+        run(sourceChannel, targetChannel, null, continuation);
+    }
+
+    /**
+     * Copies into {@code targetChannel} only the body of the HTTP response read from {@code sourceChannel}.
+     * The copy completes as soon as the parser observes the end of the response, without waiting for
+     * the end-of-stream, so that the socket can be reused for another request.
+     * If {@code parser} is null, all the bytes are copied until the end-of-stream.
+     */
+    public static void run(
+            AsynchronousSocketChannel sourceChannel,
+            AsynchronousFileChannel targetChannel,
+            HttpResponseParser parser,
+            CompletionHandler<Integer, Void> continuation) {
+        run(sourceChannel, targetChannel, parser, SocketOptionsProfile.DEFAULT_COPY_BUFFER_SIZE, continuation);
+    }
+
+    public static void run(
+            AsynchronousSocketChannel sourceChannel,
+            AsynchronousFileChannel targetChannel,
+            HttpResponseParser parser,
+            int bufferSize,
+            CompletionHandler<Integer, Void> continuation) {
+        run(sourceChannel, targetChannel, parser, bufferSize, 0, continuation);
+    }
+
+    /**
+     * @param filePosition the file position where the first byte is written.
+     */
+    public static void run(
+            AsynchronousSocketChannel sourceChannel,
+            AsynchronousFileChannel targetChannel,
+            HttpResponseParser parser,
+            int bufferSize,
+            long filePosition,
+            CompletionHandler<Integer, Void> continuation) {
+        run(sourceChannel, targetChannel, parser, bufferSize, filePosition, null, continuation);
+    }
+
+    /**
+     * @param filePosition the file position where the first byte is written.
+     * @param onWritten    called with the file position after each completed write, so that a failed copy
+     *                     can be resumed from the bytes that are known to be written.
+     */
+    public static void run(
+            AsynchronousSocketChannel sourceChannel,
+            AsynchronousFileChannel targetChannel,
+            HttpResponseParser parser,
+            int bufferSize,
+            long filePosition,
+            LongConsumer onWritten,
+            CompletionHandler<Integer, Void> continuation) {
+        ReadWrite readWrite = new ReadWrite(
+                sourceChannel, targetChannel, parser, bufferSize, filePosition, null, null, onWritten, continuation);
+        readWrite.read();
+    }
+
+    /**
+     * Same as {@link #run(AsynchronousSocketChannel, AsynchronousFileChannel, HttpResponseParser, int, CompletionHandler)},
+     * writing into {@code targetChannel} the output of {@code transform} instead of the copied bytes.
+     * On the end of the copied bytes, the transform is finished and its remaining output written,
+     * before completing. The transform is not closed.
+     *
+     * @param continuation completed with the number of bytes given to the transform.
+     */
+    public static void run(
+            AsynchronousSocketChannel sourceChannel,
+            AsynchronousFileChannel targetChannel,
+            HttpResponseParser parser,
+            int bufferSize,
+            BufferTransform transform,
+            CompletionHandler<Integer, Void> continuation) {
+        ReadWrite readWrite = new ReadWrite(
+                sourceChannel, targetChannel, parser, bufferSize, 0, null, transform, null, continuation);
+        readWrite.read();
+    }
+
+    /**
+     * Same as {@link #run(AsynchronousSocketChannel, AsynchronousFileChannel, HttpResponseParser, int, CompletionHandler)},
+     * also feeding {@code digest} with the copied bytes, as they are read, so that the file doesn't need to be
+     * read again to compute it.
+     *
+     * @param continuation completed with the copy size and the digest value. The digest is reset.
+     */
+    public static void runDigesting(
+            AsynchronousSocketChannel sourceChannel,
+            AsynchronousFileChannel targetChannel,
+            HttpResponseParser parser,
+            int bufferSize,
+            MessageDigest digest,
+            CompletionHandler<CopyResult, Void> continuation) {
+        ReadWrite readWrite = new ReadWrite(
+                sourceChannel, targetChannel, parser, bufferSize, 0, digest, null, null, new CompletionHandler<>() {
+            @Override
+            public void completed(Integer result, Void attachment) {
+                continuation.completed(new CopyResult(result, digest.digest()), null);
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                continuation.failed(exc, null);
+            }
+        });
         readWrite.read();
     }
 
     private void read() {
-        log.info("Start read");
+        log.debug("Start read");
         tryRun(() -> sourceChannel.read(buf, null, readContinuation));
     }
 
@@ -48,15 +180,38 @@ public class ReadWrite {
 
         @Override
         public void completed(Integer result, Void attachment) {
-            log.info("Completed read of {} bytes", result);
+            if (sampler.sample()) {
+                log.debug("Completed read of {} bytes", result);
+            }
             tryRun(() -> {
                 if (result == -1) {
-                    log.info("Completed copy, exiting");
-                    continuation.completed(size, null);
+                    if (parser != null && !parser.endOfStream()) {
+                        continuation.failed(new EOFException("connection closed before the end of the response"), null);
+                        return;
+                    }
+                    log.debug("Completed copy, exiting");
+                    complete();
                 } else {
-                    size += result;
                     buf.flip();
-                    log.info("Start write of {} bytes at position {}", result, filePosition);
+                    if (parser != null) {
+                        parser.decode(buf);
+                    }
+                    if (!buf.hasRemaining()) {
+                        // nothing to write, e.g. only headers were read
+                        readNextOrComplete();
+                        return;
+                    }
+                    size += buf.remaining();
+                    if (digest != null) {
+                        // update consumes the buffer, so its position is restored for the write
+                        int position = buf.position();
+                        digest.update(buf);
+                        buf.position(position);
+                    }
+                    if (transform != null) {
+                        transformAndWrite();
+                        return;
+                    }
                     targetChannel.write(buf, filePosition, null, writeContinuation);
                 }
             });
@@ -72,13 +227,31 @@ public class ReadWrite {
 
         @Override
         public void completed(Integer result, Void attachment) {
-            log.info("Completed write of {} bytes", result);
+            if (sampler.sample()) {
+                log.debug("Completed write of {} bytes", result);
+            }
             tryRun(() -> {
                 filePosition += result;
-                log.info("File position updated to {}", filePosition);
-                buf.clear();
-                log.info("Start read");
-                sourceChannel.read(buf, null, readContinuation);
+                if (onWritten != null) {
+                    onWritten.accept(filePosition);
+                }
+                ByteBuffer written = transform != null ? transformBuf : buf;
+                if (written.hasRemaining()) {
+                    targetChannel.write(written, filePosition, null, writeContinuation);
+                    return;
+                }
+                if (transform == null) {
+                    readNextOrComplete();
+                    return;
+                }
+                transformBuf.clear();
+                if (finishing) {
+                    finishAndWrite();
+                } else if (transformConsumed) {
+                    readNextOrComplete();
+                } else {
+                    transformAndWrite();
+                }
             });
         }
 
@@ -88,6 +261,50 @@ public class ReadWrite {
         }
     };
 
+    private void readNextOrComplete() {
+        if (parser != null && parser.isDone()) {
+            log.debug("Completed response, exiting");
+            complete();
+            return;
+        }
+        buf.clear();
+        sourceChannel.read(buf, null, readContinuation);
+    }
+
+    private void complete() {
+        if (transform != null && !finishing) {
+            finishing = true;
+            finishAndWrite();
+            return;
+        }
+        continuation.completed(size, null);
+    }
+
+    // Writes the transform output for buf, which may take multiple writes if the output doesn't fit
+    // in transformBuf
+    private void transformAndWrite() {
+        transformConsumed = transform.transform(buf, transformBuf);
+        transformBuf.flip();
+        if (!transformBuf.hasRemaining()) {
+            // the transform is buffering internally
+            transformBuf.clear();
+            readNextOrComplete();
+            return;
+        }
+        targetChannel.write(transformBuf, filePosition, null, writeContinuation);
+    }
+
+    private void finishAndWrite() {
+        boolean finished = transform.finish(transformBuf);
+        transformBuf.flip();
+        if (finished && !transformBuf.hasRemaining()) {
+            log.debug("Completed transform, exiting");
+            continuation.completed(size, null);
+            return;
+        }
+        targetChannel.write(transformBuf, filePosition, null, writeContinuation);
+    }
+
     private void tryRun(Runnable runnable) {
         try {
             runnable.run();
@@ -3,25 +3,26 @@ package pt.isel.pc.nio;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import pt.isel.pc.utils.CompositeThrowable;
+import pt.isel.pc.utils.LogSampler;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
+import java.security.MessageDigest;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class ReadWriteParallel {
 
     private static final Logger log = LoggerFactory.getLogger(ReadWriteParallel.class);
+    private static final LogSampler sampler = new LogSampler(log, 1024);
 
     private final AsynchronousSocketChannel sourceChannel;
     private final AsynchronousFileChannel targetChannel;
+    private final MessageDigest digest;
     private final CompletionHandler<Integer, Void> continuation;
 
-    private final ByteBuffer[] buffers = new ByteBuffer[]{
-            ByteBuffer.allocate(8),
-            ByteBuffer.allocate(8),
-    };
+    private final ByteBuffer[] buffers;
     private int readBufferIx = 0;
 
     private int getReadBufferIx() {
@@ -48,23 +49,63 @@ public class ReadWriteParallel {
     private ReadWriteParallel(
             AsynchronousSocketChannel sourceChannel,
             AsynchronousFileChannel targetChannel,
+            int bufferSize,
+            MessageDigest digest,
             CompletionHandler<Integer, Void> continuation
     ) {
 
         this.sourceChannel = sourceChannel;
         this.targetChannel = targetChannel;
+        this.digest = digest;
+        this.buffers = new ByteBuffer[]{
+                ByteBuffer.allocate(bufferSize),
+                ByteBuffer.allocate(bufferSize),
+        };
         this.continuation = continuation;
     }
 
     public static void run(AsynchronousSocketChannel sourceChannel,
                            AsynchronousFileChannel targetChannel,
                            CompletionHandler<Integer, Void> ch) {
-        ReadWriteParallel readWrite = new ReadWriteParallel(sourceChannel, targetChannel, ch);
+        run(sourceChannel, targetChannel, SocketOptionsProfile.DEFAULT_COPY_BUFFER_SIZE, ch);
+    }
+
+    public static void run(AsynchronousSocketChannel sourceChannel,
+                           AsynchronousFileChannel targetChannel,
+                           int bufferSize,
+                           CompletionHandler<Integer, Void> ch) {
+        ReadWriteParallel readWrite = new ReadWriteParallel(sourceChannel, targetChannel, bufferSize, null, ch);
+        readWrite.read();
+    }
+
+    /**
+     * Same as {@link #run(AsynchronousSocketChannel, AsynchronousFileChannel, int, CompletionHandler)},
+     * also feeding {@code digest} with the copied bytes.
+     *
+     * @param ch completed with the copy size and the digest value. The digest is reset.
+     */
+    public static void runDigesting(AsynchronousSocketChannel sourceChannel,
+                                    AsynchronousFileChannel targetChannel,
+                                    int bufferSize,
+                                    MessageDigest digest,
+                                    CompletionHandler<CopyResult, Void> ch) {
+        ReadWriteParallel readWrite = new ReadWriteParallel(sourceChannel, targetChannel, bufferSize, digest,
+                new CompletionHandler<>() {
+                    @Override
+                    public void completed(Integer result, Void attachment) {
+                        ch.completed(new CopyResult(result, digest.digest()), null);
+                    }
+
+                    @Override
+                    public void failed(Throwable exc, Void attachment) {
+                        ch.failed(exc, null);
+                    }
+                });
         readWrite.read();
     }
 
     private void read() {
-        log.info("Start read");
+        log.debug("Start read");
         pendingOperations.set(1);
         tryRun(() -> sourceChannel.read(buffers[getReadBufferIx()], null, readHandler));
     }
@@ -73,9 +114,11 @@ public class ReadWriteParallel {
 
         @Override
         public void completed(Integer result, Void attachment) {
-            log.info("Completed read of {} bytes", result);
+            if (sampler.sample()) {
+                log.debug("Completed read of {} bytes", result);
+            }
             if (result == -1) {
-                log.info("Reached end of read");
+                log.debug("Reached end of read");
                 readCompleted = true;
             } else {
                 size += result;
@@ -94,9 +137,10 @@ public class ReadWriteParallel {
 
         @Override
         public void completed(Integer result, Void attachment) {
-            log.info("Completed write of {} bytes", result);
+            if (sampler.sample()) {
+                log.debug("Completed write of {} bytes", result);
+            }
             filePosition += result;
-            log.info("File position updated to {}", filePosition);
             nextStep();
         }
 
@@ -112,24 +156,29 @@ public class ReadWriteParallel {
             return;
         }
         // No pending operation, can proceed
-        log.info("starting new cycle");
         if (readException != null || writeException != null) {
-            log.info("At least one exception pending, ending");
+            log.debug("At least one exception pending, ending");
             CompositeThrowable exc = CompositeThrowable.make(readException, writeException);
             continuation.failed(exc, null);
             return;
         }
 
         if (readCompleted) {
-            log.info("Ended copy, exiting");
+            log.debug("Ended copy, exiting");
             continuation.completed(size, null);
             return;
         }
         flipBuffers();
         buffers[getReadBufferIx()].clear();
         buffers[getWriteBufferIx()].flip();
+        if (digest != null) {
+            // Only one thread runs here, after both operations completed, so the digest is updated
+            // in the read order even though each write overlaps the next read
+            ByteBuffer writeBuffer = buffers[getWriteBufferIx()];
+            digest.update(writeBuffer);
+            writeBuffer.rewind();
+        }
         pendingOperations.set(2);
-        log.info("Starting next read");
         try {
             startRead();
         } catch (Throwable e) {
@@ -0,0 +1,215 @@
+package pt.isel.pc.nio;
+
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.core.SingleEmitter;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.isel.pc.utils.LogSampler;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adapters between NIO2 asynchronous channels and RxJava types, with the same behavior as {@link ReactorChannels}.
+ * <p>
+ * {@code Flowable.create} only allows observing the outstanding demand, not being notified when it changes,
+ * so the read sources are {@link Flowable} subclasses with their own {@link Subscription},
+ * where each {@link Subscription#request(long)} may initiate a read.
+ * The channels are not closed by the adapters, not even on cancellation.
+ */
+public class RxChannels {
+
+    private static final Logger log = LoggerFactory.getLogger(RxChannels.class);
+    private static final LogSampler sampler = new LogSampler(log, 1024);
+
+    private RxChannels() {
+        // static class
+    }
+
+    @FunctionalInterface
+    private interface ReadOperation {
+        void read(ByteBuffer dst, long position, CompletionHandler<Integer, Void> handler);
+    }
+
+    @FunctionalInterface
+    private interface WriteOperation {
+        void write(ByteBuffer src, long position, CompletionHandler<Integer, Void> handler);
+    }
+
+    public static Flowable<ByteBuffer> read(AsynchronousSocketChannel channel, int bufferSize) {
+        return new ReadFlowable((dst, ignore, handler) -> channel.read(dst, null, handler), 0, bufferSize);
+    }
+
+    public static Flowable<ByteBuffer> read(AsynchronousFileChannel channel, long position, int bufferSize) {
+        return new ReadFlowable((dst, pos, handler) -> channel.read(dst, pos, null, handler), position, bufferSize);
+    }
+
+    public static Single<Integer> write(AsynchronousSocketChannel channel, ByteBuffer buffer) {
+        return Single.create(emitter -> new ChannelWriter(
+                (src, ignore, handler) -> channel.write(src, null, handler), 0, buffer, emitter).start());
+    }
+
+    public static Single<Integer> write(AsynchronousFileChannel channel, ByteBuffer buffer, long position) {
+        return Single.create(emitter -> new ChannelWriter(
+                (src, pos, handler) -> channel.write(src, pos, null, handler), position, buffer, emitter).start());
+    }
+
+    private static class ReadFlowable extends Flowable<ByteBuffer> {
+
+        private final ReadOperation operation;
+        private final long position;
+        private final int bufferSize;
+
+        ReadFlowable(ReadOperation operation, long position, int bufferSize) {
+            this.operation = operation;
+            this.position = position;
+            this.bufferSize = bufferSize;
+        }
+
+        @Override
+        protected void subscribeActual(Subscriber<? super ByteBuffer> subscriber) {
+            ChannelReader reader = new ChannelReader(operation, position, bufferSize, subscriber);
+            subscriber.onSubscribe(reader);
+        }
+    }
+
+    private static class ChannelReader implements Subscription, CompletionHandler<Integer, Void> {
+
+        private final ReadOperation operation;
+        private final int bufferSize;
+        private final Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        // true while a read is in progress, so that there is at most one at each moment
+        private final AtomicBoolean reading = new AtomicBoolean();
+        private volatile boolean done = false;
+        private long position;
+        private ByteBuffer buffer;
+
+        ChannelReader(ReadOperation operation, long position, int bufferSize,
+                      Subscriber<? super ByteBuffer> subscriber) {
+            this.operation = operation;
+            this.position = position;
+            this.bufferSize = bufferSize;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("request must be positive (rule 3.9)"));
+                return;
+            }
+            // adds with saturation, Long.MAX_VALUE meaning unbounded demand
+            requested.getAndUpdate(current -> {
+                long next = current + n;
+                return next < 0 ? Long.MAX_VALUE : next;
+            });
+            readIfRequested();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+        }
+
+        private void readIfRequested() {
+            // A request observed while a read is in progress is handled by the read completion,
+            // which checks the demand again after clearing the flag
+            if (!done && requested.get() > 0 && reading.compareAndSet(false, true)) {
+                buffer = ByteBuffer.allocate(bufferSize);
+                try {
+                    operation.read(buffer, position, this);
+                } catch (Throwable th) {
+                    terminate(th);
+                }
+            }
+        }
+
+        @Override
+        public void completed(Integer result, Void attachment) {
+            if (sampler.sample()) {
+                log.debug("Completed read of {} bytes", result);
+            }
+            if (done) {
+                return;
+            }
+            if (result == -1) {
+                done = true;
+                subscriber.onComplete();
+                return;
+            }
+            position += result;
+            buffer.flip();
+            ByteBuffer emitted = buffer;
+            buffer = null;
+            requested.getAndUpdate(current -> current == Long.MAX_VALUE ? current : current - 1);
+            subscriber.onNext(emitted);
+            reading.set(false);
+            readIfRequested();
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            terminate(exc);
+        }
+
+        private void terminate(Throwable exc) {
+            if (done) {
+                return;
+            }
+            done = true;
+            subscriber.onError(exc);
+        }
+    }
+
+    private static class ChannelWriter implements CompletionHandler<Integer, Void> {
+
+        private final WriteOperation operation;
+        private final ByteBuffer buffer;
+        private final SingleEmitter<Integer> emitter;
+        private long position;
+        private int size = 0;
+
+        ChannelWriter(WriteOperation operation, long position, ByteBuffer buffer, SingleEmitter<Integer> emitter) {
+            this.operation = operation;
+            this.position = position;
+            this.buffer = buffer;
+            this.emitter = emitter;
+        }
+
+        void start() {
+            try {
+                operation.write(buffer, position, this);
+            } catch (Throwable th) {
+                emitter.tryOnError(th);
+            }
+        }
+
+        @Override
+        public void completed(Integer result, Void attachment) {
+            if (sampler.sample()) {
+                log.debug("Completed write of {} bytes", result);
+            }
+            size += result;
+            position += result;
+            if (buffer.hasRemaining()) {
+                start();
+            } else {
+                emitter.onSuccess(size);
+            }
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            emitter.tryOnError(exc);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package pt.isel.pc.nio;
+
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Single;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+
+/**
+ * Equivalents of {@link ReadWrite} and {@link ReadWriteParallel}, composed from the {@link RxChannels} adapters.
+ */
+public class RxReadWrite {
+
+    private RxReadWrite() {
+        // static class
+    }
+
+    /**
+     * Copies all the bytes read from {@code sourceChannel} until the end-of-stream, with one file write
+     * at a time. With a prefetch of one, the read of the next buffer overlaps the write of the current one,
+     * as in {@link ReadWriteParallel}.
+     *
+     * @return a {@link Single} completed with the number of copied bytes.
+     */
+    public static Single<Long> run(
+            AsynchronousSocketChannel sourceChannel,
+            AsynchronousFileChannel targetChannel,
+            int bufferSize) {
+        return Flowable.defer(() -> {
+            long[] position = {0};
+            return RxChannels.read(sourceChannel, bufferSize)
+                    .concatMapSingle(buffer -> RxChannels.write(targetChannel, buffer, next(position, buffer)), 1);
+        }).reduce(0L, (size, written) -> size + written);
+    }
+
+    /**
+     * Copies all the bytes read from {@code sourceChannel} until the end-of-stream, with up to
+     * {@code maxConcurrency} positioned file writes in progress. Each socket read is initiated as soon as
+     * there are less than {@code maxConcurrency} pending writes, so this also bounds the number of buffers.
+     */
+    public static Single<Long> runParallel(
+            AsynchronousSocketChannel sourceChannel,
+            AsynchronousFileChannel targetChannel,
+            int bufferSize,
+            int maxConcurrency) {
+        return Flowable.defer(() -> {
+            // the positions are assigned in the order of the reads, so the writes can complete in any order
+            long[] position = {0};
+            return RxChannels.read(sourceChannel, bufferSize)
+                    .flatMapSingle(
+                            buffer -> RxChannels.write(targetChannel, buffer, next(position, buffer)),
+                            false,
+                            maxConcurrency);
+        }).reduce(0L, (size, written) -> size + written);
+    }
+
+    // only called from onNext, which is never concurrent
+    private static long next(long[] position, ByteBuffer buffer) {
+        long current = position[0];
+        position[0] += buffer.remaining();
+        return current;
+    }
+}
@@ -0,0 +1,113 @@
+package pt.isel.pc.nio;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+
+/**
+ * Immutable set of socket options and buffer sizes used by the NIO pipelines.
+ * <p>
+ * A buffer size of zero, or a {@code false} flag, means that the option is not set, i.e., the operating
+ * system default is kept and no system call is done to set it.
+ * Derived profiles are created with the {@code with*} methods, e.g.
+ * {@code SocketOptionsProfile.DEFAULT.withReceiveBufferSize(256 * 1024).withTcpNoDelay(true)}.
+ */
+public final class SocketOptionsProfile {
+
+    public static final int DEFAULT_COPY_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Keeps the operating system defaults for all options.
+     */
+    public static final SocketOptionsProfile DEFAULT =
+            new SocketOptionsProfile(0, 0, false, false, DEFAULT_COPY_BUFFER_SIZE);
+
+    private final int sendBufferSize;
+    private final int receiveBufferSize;
+    private final boolean tcpNoDelay;
+    private final boolean keepAlive;
+    private final int copyBufferSize;
+
+    private SocketOptionsProfile(int sendBufferSize, int receiveBufferSize,
+                                 boolean tcpNoDelay, boolean keepAlive, int copyBufferSize) {
+        if (sendBufferSize < 0 || receiveBufferSize < 0) {
+            throw new IllegalArgumentException("socket buffer sizes must not be negative");
+        }
+        if (copyBufferSize <= 0) {
+            throw new IllegalArgumentException("copy buffer size must be positive");
+        }
+        this.sendBufferSize = sendBufferSize;
+        this.receiveBufferSize = receiveBufferSize;
+        this.tcpNoDelay = tcpNoDelay;
+        this.keepAlive = keepAlive;
+        this.copyBufferSize = copyBufferSize;
+    }
+
+    public SocketOptionsProfile withSendBufferSize(int sendBufferSize) {
+        return new SocketOptionsProfile(sendBufferSize, receiveBufferSize, tcpNoDelay, keepAlive, copyBufferSize);
+    }
+
+    public SocketOptionsProfile withReceiveBufferSize(int receiveBufferSize) {
+        return new SocketOptionsProfile(sendBufferSize, receiveBufferSize, tcpNoDelay, keepAlive, copyBufferSize);
+    }
+
+    public SocketOptionsProfile withTcpNoDelay(boolean tcpNoDelay) {
+        return new SocketOptionsProfile(sendBufferSize, receiveBufferSize, tcpNoDelay, keepAlive, copyBufferSize);
+    }
+
+    public SocketOptionsProfile withKeepAlive(boolean keepAlive) {
+        return new SocketOptionsProfile(sendBufferSize, receiveBufferSize, tcpNoDelay, keepAlive, copyBufferSize);
+    }
+
+    /**
+     * @param copyBufferSize the size of the buffers used to copy data between channels.
+     */
+    public SocketOptionsProfile withCopyBufferSize(int copyBufferSize) {
+        return new SocketOptionsProfile(sendBufferSize, receiveBufferSize, tcpNoDelay, keepAlive, copyBufferSize);
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public int getCopyBufferSize() {
+        return copyBufferSize;
+    }
+
+    /**
+     * Sets the options on a channel, which should be done before connecting it,
+     * so that the receive buffer size can influence the TCP window scale negotiation.
+     */
+    public void applyTo(NetworkChannel channel) throws IOException {
+        if (sendBufferSize != 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+        }
+        if (receiveBufferSize != 0) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+        }
+        if (tcpNoDelay) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        if (keepAlive) {
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SocketOptionsProfile{sndbuf=%d, rcvbuf=%d, nodelay=%s, keepalive=%s, copybuf=%d}",
+                sendBufferSize, receiveBufferSize, tcpNoDelay, keepAlive, copyBufferSize);
+    }
+}
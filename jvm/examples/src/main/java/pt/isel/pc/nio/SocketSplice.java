@@ -0,0 +1,126 @@
+package pt.isel.pc.nio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pt.isel.pc.utils.LogSampler;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+
+/**
+ * Copies all the bytes read from a socket into another socket, until the end-of-stream.
+ * When the end-of-stream is reached, the output of the target socket is shutdown, so that the
+ * peer on the other side also observes it, while the opposite direction can still be in progress.
+ * <p>
+ * Same structure as {@link ReadWrite}, with a socket as the target.
+ * The source and the target can be the same socket, which results in an echo.
+ */
+public class SocketSplice {
+
+    private static final Logger log = LoggerFactory.getLogger(SocketSplice.class);
+    private static final LogSampler sampler = new LogSampler(log, 1024);
+
+    private final AsynchronousSocketChannel sourceChannel;
+    private final AsynchronousSocketChannel targetChannel;
+    private final Runnable onActivity;
+    private final CompletionHandler<Long, Void> continuation;
+
+    private final ByteBuffer buf;
+    private long size = 0;
+
+    private SocketSplice(
+            AsynchronousSocketChannel sourceChannel,
+            AsynchronousSocketChannel targetChannel,
+            int bufferSize,
+            Runnable onActivity,
+            CompletionHandler<Long, Void> continuation
+    ) {
+        this.sourceChannel = sourceChannel;
+        this.targetChannel = targetChannel;
+        this.buf = ByteBuffer.allocate(bufferSize);
+        this.onActivity = onActivity;
+        this.continuation = continuation;
+    }
+
+    /**
+     * @param onActivity called each time bytes are read, e.g. to track idle connections.
+     * @param continuation completed with the number of copied bytes.
+     */
+    public static void run(
+            AsynchronousSocketChannel sourceChannel,
+            AsynchronousSocketChannel targetChannel,
+            int bufferSize,
+            Runnable onActivity,
+            CompletionHandler<Long, Void> continuation) {
+        SocketSplice splice = new SocketSplice(sourceChannel, targetChannel, bufferSize, onActivity, continuation);
+        splice.read();
+    }
+
+    private void read() {
+        tryRun(() -> {
+            buf.clear();
+            sourceChannel.read(buf, null, readContinuation);
+        });
+    }
+
+    private final CompletionHandler<Integer, Void> readContinuation = new CompletionHandler<>() {
+
+        @Override
+        public void completed(Integer result, Void attachment) {
+            if (sampler.sample()) {
+                log.debug("Completed read of {} bytes", result);
+            }
+            tryRun(() -> {
+                if (result == -1) {
+                    log.debug("End of stream, shutting down output");
+                    targetChannel.shutdownOutput();
+                    continuation.completed(size, null);
+                    return;
+                }
+                onActivity.run();
+                buf.flip();
+                size += buf.remaining();
+                targetChannel.write(buf, null, writeContinuation);
+            });
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            continuation.failed(exc, null);
+        }
+    };
+
+    private final CompletionHandler<Integer, Void> writeContinuation = new CompletionHandler<>() {
+
+        @Override
+        public void completed(Integer result, Void attachment) {
+            if (sampler.sample()) {
+                log.debug("Completed write of {} bytes", result);
+            }
+            if (buf.hasRemaining()) {
+                tryRun(() -> targetChannel.write(buf, null, writeContinuation));
+                return;
+            }
+            read();
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            continuation.failed(exc, null);
+        }
+    };
+
+    @FunctionalInterface
+    private interface Step {
+        void run() throws Exception;
+    }
+
+    private void tryRun(Step step) {
+        try {
+            step.run();
+        } catch (Throwable th) {
+            continuation.failed(th, null);
+        }
+    }
+}
@@ -14,6 +14,8 @@ public class Lazy<T> {
     }
 
     // Double-Check Locking
+    // BROKEN: value isn't volatile, so a thread may observe a non-null reference to an object
+    // whose fields aren't yet visible. See pt.isel.pc.utils.Lazy for a correct version.
     public T get() {
         if(value == null) {
             synchronized (lock) {
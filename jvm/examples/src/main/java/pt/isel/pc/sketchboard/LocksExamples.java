@@ -1,7 +1,11 @@
 package pt.isel.pc.sketchboard;
 
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 
 public class LocksExamples {
 
@@ -82,4 +86,114 @@ public class LocksExamples {
         }
 
     }
+
+    // The following variants are for read-mostly state, where getValue is called much more often
+    // than inc and dec
+
+    public static class UsingAReadWriteLock {
+
+        private final ReadWriteLock theLock = new ReentrantReadWriteLock();
+        private int counter = 0;
+
+        public void inc() {
+            theLock.writeLock().lock();
+            try {
+                counter += 1;
+            } finally {
+                theLock.writeLock().unlock();
+            }
+        }
+
+        public int getValue() {
+            // Multiple readers can hold the read lock at the same time.
+            // However, acquiring it still writes to the shared lock state, so the readers contend on it
+            theLock.readLock().lock();
+            try {
+                return counter;
+            } finally {
+                theLock.readLock().unlock();
+            }
+        }
+
+        public void dec() {
+            theLock.writeLock().lock();
+            try {
+                counter -= 1;
+            } finally {
+                theLock.writeLock().unlock();
+            }
+        }
+    }
+
+    public static class UsingAStampedLock {
+
+        private final StampedLock theLock = new StampedLock();
+        private int counter = 0;
+
+        public void inc() {
+            long stamp = theLock.writeLock();
+            try {
+                counter += 1;
+            } finally {
+                theLock.unlockWrite(stamp);
+            }
+        }
+
+        public int getValue() {
+            // The optimistic read doesn't write to the lock state, so readers don't contend with each other.
+            // The read value is only used if no write happened in the meantime, i.e., if the stamp is still valid
+            long stamp = theLock.tryOptimisticRead();
+            int observed = counter;
+            if (theLock.validate(stamp)) {
+                return observed;
+            }
+            // A write happened, so fall back to the read lock
+            stamp = theLock.readLock();
+            try {
+                return counter;
+            } finally {
+                theLock.unlockRead(stamp);
+            }
+        }
+
+        public void dec() {
+            long stamp = theLock.writeLock();
+            try {
+                counter -= 1;
+            } finally {
+                theLock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    public static class UsingCopyOnWrite {
+
+        // Immutable, so it can be shared with the readers without any lock.
+        // For a single int an AtomicInteger would be enough; this technique is for state
+        // with multiple fields or collections (e.g. a configuration or a routing table),
+        // where each write creates a new copy
+        private static final class State {
+            final int counter;
+
+            State(int counter) {
+                this.counter = counter;
+            }
+        }
+
+        private final AtomicReference<State> state = new AtomicReference<>(new State(0));
+
+        public void inc() {
+            // Retries the copy if another write happened after the read
+            state.updateAndGet(observed -> new State(observed.counter + 1));
+        }
+
+        public int getValue() {
+            // A single volatile read
+            return state.get().counter;
+        }
+
+        public void dec() {
+            state.updateAndGet(observed -> new State(observed.counter - 1));
+        }
+    }
 }
@@ -0,0 +1,152 @@
+package pt.isel.pc.utils;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * The asynchronous counterpart of {@link Lazy}: a value produced by a {@code Supplier<CompletableFuture<T>>},
+ * started on the first {@link #get()}.
+ * <ul>
+ *     <li>Single-flight: concurrent callers share the same in-flight computation, so the supplier is called
+ *     once per attempt, no matter the number of callers.</li>
+ *     <li>Failed computations are retried up to {@code maxRetries} times, with exponential backoff.
+ *     If all the retries fail, the callers observe the failure and the next {@link #get()} starts over,
+ *     i.e., errors are not cached.</li>
+ *     <li>If {@code refreshAfter} is defined, a {@link #get()} observing a value older than it starts
+ *     a refresh in the background, and keeps returning the current value until the refresh completes
+ *     successfully.</li>
+ * </ul>
+ * Each caller gets its own copy of the shared future, so that completing or cancelling it doesn't affect
+ * the other callers.
+ */
+public final class AsyncLazy<T> {
+
+    // A computation, possibly still in progress
+    private static class Attempt<T> {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        // written before the result is completed, so visible to anyone observing the completion
+        volatile long completedAt;
+        // true while a refresh for this attempt is in progress
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        void complete(T value) {
+            completedAt = System.nanoTime();
+            result.complete(value);
+        }
+    }
+
+    private final Supplier<? extends CompletableFuture<T>> supplier;
+    private final int maxRetries;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    // 0 if the value is never refreshed
+    private final long refreshAfterNanos;
+
+    private final AtomicReference<Attempt<T>> current = new AtomicReference<>();
+
+    public AsyncLazy(Supplier<? extends CompletableFuture<T>> supplier) {
+        this(supplier, 0, Duration.ZERO, Duration.ZERO, Duration.ZERO);
+    }
+
+    /**
+     * @param refreshAfter the value age after which it is refreshed, {@link Duration#ZERO} for never.
+     */
+    public AsyncLazy(Supplier<? extends CompletableFuture<T>> supplier,
+                     int maxRetries, Duration initialBackoff, Duration maxBackoff,
+                     Duration refreshAfter) {
+        if (supplier == null) {
+            throw new NullPointerException("supplier");
+        }
+        if (maxRetries < 0 || initialBackoff.isNegative() || maxBackoff.compareTo(initialBackoff) < 0
+                || refreshAfter.isNegative()) {
+            throw new IllegalArgumentException("invalid retry or refresh configuration");
+        }
+        this.supplier = supplier;
+        this.maxRetries = maxRetries;
+        this.initialBackoffMs = initialBackoff.toMillis();
+        this.maxBackoffMs = maxBackoff.toMillis();
+        this.refreshAfterNanos = refreshAfter.toNanos();
+    }
+
+    public CompletableFuture<T> get() {
+        while (true) {
+            Attempt<T> observed = current.get();
+            if (observed == null) {
+                Attempt<T> attempt = new Attempt<>();
+                if (!current.compareAndSet(null, attempt)) {
+                    // another caller started it
+                    continue;
+                }
+                compute(attempt, 0);
+                return attempt.result.copy();
+            }
+            if (isStale(observed) && observed.refreshing.compareAndSet(false, true)) {
+                refresh(observed);
+            }
+            return observed.result.copy();
+        }
+    }
+
+    /**
+     * Discards the current value, or in-flight computation, so that the next {@link #get()} starts a new one.
+     * The callers of a discarded in-flight computation still get its result.
+     */
+    public void invalidate() {
+        current.set(null);
+    }
+
+    private boolean isStale(Attempt<T> attempt) {
+        return refreshAfterNanos > 0
+                && attempt.result.isDone()
+                && !attempt.result.isCompletedExceptionally()
+                && System.nanoTime() - attempt.completedAt >= refreshAfterNanos;
+    }
+
+    private void refresh(Attempt<T> stale) {
+        Attempt<T> attempt = new Attempt<>();
+        attempt.result.whenComplete((value, error) -> {
+            if (error == null) {
+                current.compareAndSet(stale, attempt);
+            } else {
+                // keeps the stale value, allowing another refresh on a later get
+                stale.refreshing.set(false);
+            }
+        });
+        compute(attempt, 0);
+    }
+
+    private void compute(Attempt<T> attempt, int retry) {
+        CompletableFuture<T> future;
+        try {
+            future = supplier.get();
+            if (future == null) {
+                throw new NullPointerException("supplier returned a null future");
+            }
+        } catch (Throwable th) {
+            future = CompletableFuture.failedFuture(th);
+        }
+        future.whenComplete((value, error) -> {
+            if (error == null) {
+                attempt.complete(value);
+            } else if (retry < maxRetries) {
+                CompletableFuture.delayedExecutor(backoffMs(retry), TimeUnit.MILLISECONDS)
+                        .execute(() -> compute(attempt, retry + 1));
+            } else {
+                // before completing, so that a get by a caller observing the failure already starts over.
+                // A no-op for refreshes, which are only made current on success.
+                current.compareAndSet(attempt, null);
+                attempt.result.completeExceptionally(error);
+            }
+        });
+    }
+
+    private long backoffMs(int retry) {
+        // initialBackoff * 2^retry, without overflowing
+        long backoff = initialBackoffMs << Math.min(retry, 30);
+        return backoff < 0 ? maxBackoffMs : Math.min(backoff, maxBackoffMs);
+    }
+}
@@ -0,0 +1,241 @@
+package pt.isel.pc.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Propagates the cancellation and the deadline of an operation to everything done on its behalf,
+ * so that nested operations share the same time budget, instead of each one starting its own timeout,
+ * and all of them are abandoned as soon as the caller gives up.
+ * <p>
+ * A token is cancelled explicitly, with {@link #cancel()}, when its deadline is reached, or when its parent is
+ * cancelled. On cancellation, the registered callbacks run once, on the thread calling {@link #cancel()},
+ * or, for deadlines, on a {@link ForkJoinPool#commonPool()} thread. The {@link TimerWheel} task only hands
+ * the cancellation to that pool, so that callbacks never delay the other timers of the process.
+ * Callbacks must be short: they may briefly acquire a lock, e.g. to signal the waiters of a synchronizer,
+ * but must not wait for anything else. Operations blocked waiting use them to wake up, and asynchronous
+ * operations to close their channels.
+ */
+public final class CancellationToken {
+
+    private static final Logger log = LoggerFactory.getLogger(CancellationToken.class);
+
+    private static final CancellationToken NONE = new CancellationToken(false, 0, false);
+
+    /**
+     * A registered callback, which should be closed when the operation completes,
+     * so that the token doesn't retain it.
+     */
+    public interface Registration extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final Registration EMPTY_REGISTRATION = () -> {
+    };
+
+    private final boolean hasDeadline;
+    // a Timeouts deadline, only meaningful if hasDeadline
+    private final long deadline;
+    private final boolean cancellable;
+
+    private final Object lock = new Object();
+    private volatile boolean cancelled = false;
+    // guarded by lock
+    private NodeLinkedList<Runnable> callbacks = new NodeLinkedList<>();
+    private TimerWheel.Timeout deadlineTimer;
+    private Registration parentRegistration;
+
+    private CancellationToken(boolean hasDeadline, long deadline, boolean cancellable) {
+        this.hasDeadline = hasDeadline;
+        this.deadline = deadline;
+        this.cancellable = cancellable;
+    }
+
+    /**
+     * A token without deadline, which is only cancelled by {@link #cancel()}.
+     */
+    public CancellationToken() {
+        this(false, 0, true);
+    }
+
+    /**
+     * A token that is never cancelled, for callers that don't need cancellation.
+     */
+    public static CancellationToken none() {
+        return NONE;
+    }
+
+    public static CancellationToken withTimeout(long timeout, TimeUnit unit) {
+        CancellationToken token = new CancellationToken(true, Timeouts.deadlineFor(timeout, unit), true);
+        token.scheduleDeadline();
+        return token;
+    }
+
+    /**
+     * Returns a token that is cancelled when this one is, and that can also be cancelled on its own,
+     * without affecting this one.
+     */
+    public CancellationToken child() {
+        return child(hasDeadline, deadline);
+    }
+
+    /**
+     * Same as {@link #child()}, with a deadline that is the earliest between this token's one and
+     * {@code timeout} from now, i.e., a nested operation can reduce the time budget but never extend it.
+     */
+    public CancellationToken child(long timeout, TimeUnit unit) {
+        long childDeadline = Timeouts.deadlineFor(timeout, unit);
+        if (hasDeadline && deadline - childDeadline < 0) {
+            childDeadline = deadline;
+        }
+        return child(true, childDeadline);
+    }
+
+    private CancellationToken child(boolean childHasDeadline, long childDeadline) {
+        CancellationToken child = new CancellationToken(childHasDeadline, childDeadline, true);
+        child.scheduleDeadline();
+        Registration registration = register(child::cancel);
+        synchronized (child.lock) {
+            if (!child.cancelled) {
+                child.parentRegistration = registration;
+                return child;
+            }
+        }
+        // the child was cancelled meanwhile, so it doesn't need to observe this one anymore
+        registration.close();
+        return child;
+    }
+
+    public void cancel() {
+        if (!cancellable) {
+            return;
+        }
+        NodeLinkedList<Runnable> toRun;
+        TimerWheel.Timeout timer;
+        Registration registration;
+        synchronized (lock) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toRun = callbacks;
+            callbacks = null;
+            timer = deadlineTimer;
+            registration = parentRegistration;
+        }
+        if (timer != null) {
+            timer.cancel();
+        }
+        if (registration != null) {
+            registration.close();
+        }
+        // the callbacks run outside of the lock, because they may acquire other locks
+        while (toRun.isNotEmpty()) {
+            Runnable callback = toRun.pull().value;
+            try {
+                callback.run();
+            } catch (Throwable th) {
+                log.error("cancellation callback failed", th);
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if cancelled or if the deadline was reached, even if the timer didn't run yet.
+     */
+    public boolean isCancelled() {
+        return cancelled || (hasDeadline && Timeouts.isTimeout(Timeouts.remainingNanosUntil(deadline)));
+    }
+
+    public void throwIfCancelled() {
+        if (isCancelled()) {
+            throw new CancellationException("operation cancelled");
+        }
+    }
+
+    /**
+     * @return the milliseconds until the deadline, rounded up, {@link Long#MAX_VALUE} if there isn't one,
+     * or zero if cancelled.
+     */
+    public long remainingMillis() {
+        if (cancelled) {
+            return 0;
+        }
+        return hasDeadline ? Timeouts.remainingUntil(deadline) : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the nanoseconds until the deadline, {@link Long#MAX_VALUE} if there isn't one,
+     * or zero if cancelled or if the deadline was reached.
+     */
+    public long remainingNanos() {
+        if (cancelled) {
+            return 0;
+        }
+        return hasDeadline ? Math.max(0, Timeouts.remainingNanosUntil(deadline)) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Registers {@code callback} to run on cancellation, or runs it immediately, on the calling thread,
+     * if already cancelled.
+     */
+    public Registration register(Runnable callback) {
+        if (!cancellable) {
+            return EMPTY_REGISTRATION;
+        }
+        synchronized (lock) {
+            if (!cancelled) {
+                return new CallbackRegistration(callbacks.enqueue(callback));
+            }
+        }
+        callback.run();
+        return EMPTY_REGISTRATION;
+    }
+
+    private class CallbackRegistration implements Registration {
+        private final NodeLinkedList.Node<Runnable> node;
+        // guarded by lock
+        private boolean closed = false;
+
+        CallbackRegistration(NodeLinkedList.Node<Runnable> node) {
+            this.node = node;
+        }
+
+        @Override
+        public void close() {
+            synchronized (lock) {
+                // after the cancellation the node is no longer on a list
+                if (!closed && callbacks != null) {
+                    callbacks.remove(node);
+                }
+                closed = true;
+            }
+        }
+    }
+
+    private void scheduleDeadline() {
+        if (!hasDeadline) {
+            return;
+        }
+        long remaining = Timeouts.remainingNanosUntil(deadline);
+        if (Timeouts.isTimeout(remaining)) {
+            cancel();
+            return;
+        }
+        // isCancelled already observes the deadline, so running the callbacks a bit later is harmless
+        TimerWheel.Timeout timer = TimerWheel.shared().schedule(
+                () -> ForkJoinPool.commonPool().execute(this::cancel), remaining, TimeUnit.NANOSECONDS);
+        synchronized (lock) {
+            if (!cancelled) {
+                deadlineTimer = timer;
+                return;
+            }
+        }
+        timer.cancel();
+    }
+}
@@ -17,7 +17,7 @@ public class Closeables {
         for (Closeable closeable : closeables) {
             if (closeable != null) {
                 try {
-                    log.info("closing {}", closeable);
+                    log.debug("closing {}", closeable);
                     closeable.close();
                 } catch (Throwable e) {
                     if (maybeOriginalException != null) {
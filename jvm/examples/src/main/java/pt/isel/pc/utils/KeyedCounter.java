@@ -0,0 +1,245 @@
+package pt.isel.pc.utils;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A counter per {@code int} key, for many threads incrementing counters on a changing set of keys
+ * (e.g. requests per endpoint).
+ * <p>
+ * Compared with the {@code SynchronizedMapCounter} in {@code ThreadingHazardsTests}:
+ * <ul>
+ *     <li>The keys are split into stripes, each one with its own lock, so that increments on keys
+ *     of different stripes don't contend. Increments on the same key still serialize on its stripe's
+ *     write lock, so for a few very hot keys a {@link java.util.concurrent.atomic.LongAdder} per key
+ *     scales better, at the cost of an allocation per key.</li>
+ *     <li>Each stripe is an open addressing hash table over primitive arrays, with linear probing,
+ *     so that an increment doesn't allocate, not even on the first one for a key
+ *     (unless the table needs to grow).</li>
+ *     <li>Reads use the optimistic mode of {@link StampedLock}: without a concurrent write they don't block
+ *     writers. Only if a write happened while they were reading do they retry holding the read lock,
+ *     which does block writers for the duration of that read.</li>
+ * </ul>
+ * A {@link #toList()} snapshot is consistent per stripe, i.e., it doesn't include half of a write,
+ * but is not an atomic snapshot of all the stripes.
+ */
+public final class KeyedCounter {
+
+    private static final int DEFAULT_STRIPES = 16;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+    public KeyedCounter() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param nOfStripes rounded up to a power of two.
+     */
+    public KeyedCounter(int nOfStripes) {
+        if (nOfStripes <= 0 || nOfStripes > (1 << 16)) {
+            throw new IllegalArgumentException("nOfStripes must be between 1 and 65536");
+        }
+        int n = 1;
+        while (n < nOfStripes) {
+            n <<= 1;
+        }
+        stripes = new Stripe[n];
+        for (int i = 0; i < n; ++i) {
+            stripes[i] = new Stripe();
+        }
+        mask = n - 1;
+    }
+
+    public void increment(int key) {
+        add(key, 1);
+    }
+
+    public void add(int key, long delta) {
+        int hash = hash(key);
+        stripes[hash & mask].add(key, hash, delta);
+    }
+
+    public long get(int key) {
+        int hash = hash(key);
+        return stripes[hash & mask].get(key, hash);
+    }
+
+    public long total() {
+        long total = 0;
+        for (Stripe stripe : stripes) {
+            total += stripe.total();
+        }
+        return total;
+    }
+
+    public List<Map.Entry<Integer, Long>> toList() {
+        List<Map.Entry<Integer, Long>> list = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            Table table = stripe.snapshot();
+            for (int i = 0; i < table.keys.length; ++i) {
+                if (table.used[i]) {
+                    list.add(new AbstractMap.SimpleImmutableEntry<>(table.keys[i], table.counts[i]));
+                }
+            }
+        }
+        return list;
+    }
+
+    // murmur3 finalizer, since the stripe and the slot are both selected from the hash bits
+    private static int hash(int key) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static final class Table {
+        final int[] keys;
+        final long[] counts;
+        final boolean[] used;
+        int size;
+
+        Table(int capacity) {
+            keys = new int[capacity];
+            counts = new long[capacity];
+            used = new boolean[capacity];
+        }
+
+        Table copy() {
+            Table copy = new Table(keys.length);
+            System.arraycopy(keys, 0, copy.keys, 0, keys.length);
+            System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+            System.arraycopy(used, 0, copy.used, 0, used.length);
+            copy.size = size;
+            return copy;
+        }
+
+        // The slot with the key or, if absent, the free slot where it should be inserted.
+        // The lower bits of the hash select the stripe, so the slot is selected starting on the upper ones.
+        int indexOf(int key, int hash) {
+            int slotMask = keys.length - 1;
+            int i = Integer.rotateRight(hash, 16) & slotMask;
+            // bounded, since an optimistic reader may observe an inconsistent table
+            for (int probes = 0; probes < keys.length; ++probes) {
+                if (!used[i] || keys[i] == key) {
+                    return i;
+                }
+                i = (i + 1) & slotMask;
+            }
+            return -1;
+        }
+    }
+
+    private static final class Stripe {
+        private final StampedLock lock = new StampedLock();
+        // guarded by lock, replaced when growing
+        private Table table = new Table(INITIAL_CAPACITY);
+
+        void add(int key, int hash, long delta) {
+            long stamp = lock.writeLock();
+            try {
+                Table t = table;
+                int i = t.indexOf(key, hash);
+                if (!t.used[i]) {
+                    // keeps the load factor at most 1/2
+                    if ((t.size + 1) * 2 > t.keys.length) {
+                        t = grow(t);
+                        i = t.indexOf(key, hash);
+                    }
+                    t.keys[i] = key;
+                    t.used[i] = true;
+                    t.size += 1;
+                }
+                t.counts[i] += delta;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        long get(int key, int hash) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                long count = countOf(table, key, hash);
+                if (lock.validate(stamp)) {
+                    return count;
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return countOf(table, key, hash);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        long total() {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                long total = sum(table);
+                if (lock.validate(stamp)) {
+                    return total;
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return sum(table);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        Table snapshot() {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                Table copy = table.copy();
+                if (lock.validate(stamp)) {
+                    return copy;
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return table.copy();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private Table grow(Table t) {
+            Table grown = new Table(t.keys.length * 2);
+            for (int i = 0; i < t.keys.length; ++i) {
+                if (t.used[i]) {
+                    int j = grown.indexOf(t.keys[i], hash(t.keys[i]));
+                    grown.keys[j] = t.keys[i];
+                    grown.counts[j] = t.counts[i];
+                    grown.used[j] = true;
+                }
+            }
+            grown.size = t.size;
+            table = grown;
+            return grown;
+        }
+
+        // unused slots have a zero count, so there is no need to check them
+        private static long sum(Table t) {
+            long total = 0;
+            for (int i = 0; i < t.counts.length; ++i) {
+                total += t.counts[i];
+            }
+            return total;
+        }
+
+        private static long countOf(Table t, int key, int hash) {
+            int i = t.indexOf(key, hash);
+            return i >= 0 && t.used[i] ? t.counts[i] : 0;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package pt.isel.pc.utils;
+
+import java.util.function.Supplier;
+
+/**
+ * A value computed on the first {@link #get()}, at most once, using double-checked locking.
+ * <p>
+ * Differently from the {@code sketchboard} version, the value is held by a {@code volatile} field,
+ * so that a thread observing it on the fast path, without acquiring the lock, also observes all the writes
+ * done by the supplier (i.e. the object is safely published). After the initialization, {@link #get()}
+ * is a single volatile read.
+ * <p>
+ * {@code null} is a valid result, since the absence of a value is represented by a sentinel.
+ * The supplier reference is dropped after the initialization, so that everything it captures can be collected.
+ * If the supplier throws, the exception is propagated and the next {@link #get()} calls it again.
+ */
+public final class Lazy<T> implements Supplier<T> {
+
+    private static final Object UNSET = new Object();
+
+    private final Object lock = new Object();
+    private volatile Object value = UNSET;
+    // only accessed while holding the lock, null after the initialization
+    private Supplier<? extends T> supplier;
+
+    public Lazy(Supplier<? extends T> supplier) {
+        if (supplier == null) {
+            throw new NullPointerException("supplier");
+        }
+        this.supplier = supplier;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get() {
+        // a single volatile read when already initialized
+        Object observed = value;
+        if (observed != UNSET) {
+            return (T) observed;
+        }
+        synchronized (lock) {
+            observed = value;
+            if (observed == UNSET) {
+                observed = supplier.get();
+                value = observed;
+                supplier = null;
+            }
+            return (T) observed;
+        }
+    }
+
+    public boolean isInitialized() {
+        return value != UNSET;
+    }
+
+    @Override
+    public String toString() {
+        Object observed = value;
+        return observed != UNSET ? "Lazy[" + observed + "]" : "Lazy[not initialized]";
+    }
+}
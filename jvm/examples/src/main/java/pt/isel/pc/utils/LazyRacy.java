@@ -0,0 +1,64 @@
+package pt.isel.pc.utils;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Supplier;
+
+/**
+ * A lock-free alternative to {@link Lazy}, for suppliers that can be called more than once,
+ * e.g. because they don't have side effects.
+ * <p>
+ * Threads calling {@link #get()} before the initialization may all call the supplier, however only the first
+ * result is published, using a compare-and-set, and returned to all of them.
+ * No thread ever blocks, which avoids the lock convoy when many threads race on a cold instance.
+ */
+public final class LazyRacy<T> implements Supplier<T> {
+
+    private static final Object UNSET = new Object();
+
+    // A field updater instead of an AtomicReference field avoids an extra object and indirection per instance
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<LazyRacy, Object> VALUE =
+            AtomicReferenceFieldUpdater.newUpdater(LazyRacy.class, Object.class, "value");
+
+    private volatile Object value = UNSET;
+    // cleared after the value is published, so a null supplier implies an initialized value
+    private volatile Supplier<? extends T> supplier;
+
+    public LazyRacy(Supplier<? extends T> supplier) {
+        if (supplier == null) {
+            throw new NullPointerException("supplier");
+        }
+        this.supplier = supplier;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get() {
+        Object observed = value;
+        if (observed != UNSET) {
+            return (T) observed;
+        }
+        Supplier<? extends T> observedSupplier = supplier;
+        if (observedSupplier == null) {
+            // cleared only after the value is set
+            return (T) value;
+        }
+        T computed = observedSupplier.get();
+        if (VALUE.compareAndSet(this, UNSET, computed)) {
+            supplier = null;
+            return computed;
+        }
+        // another thread won the race
+        return (T) value;
+    }
+
+    public boolean isInitialized() {
+        return value != UNSET;
+    }
+
+    @Override
+    public String toString() {
+        Object observed = value;
+        return observed != UNSET ? "LazyRacy[" + observed + "]" : "LazyRacy[not initialized]";
+    }
+}
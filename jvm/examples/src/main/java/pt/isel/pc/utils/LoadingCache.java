@@ -0,0 +1,307 @@
+package pt.isel.pc.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A cache where the values are computed by a loader function, on the first {@link #get(Object)} for each key.
+ * <p>
+ * Avoids the check-then-act hazard of doing {@code get} followed by {@code put} on a map:
+ * each key is associated, using {@link ConcurrentHashMap#putIfAbsent}, to an entry holding a
+ * {@link CompletableFuture}, which only the thread that inserted the entry completes, so that concurrent misses
+ * on the same key result in a single load, observed by all of them.
+ * The loading is done outside of any map lock, so that a slow load doesn't block other keys.
+ * Failed loads are not cached: the entry is removed and the same exception is propagated to all the callers
+ * waiting on it, without loading again for each one of them.
+ * <ul>
+ *     <li>The number of entries is bounded by {@code maxSize}, using the CLOCK (second chance) algorithm:
+ *     a hit marks the entry as referenced and the eviction removes the first non-referenced entry,
+ *     clearing the mark on the ones it skips.
+ *     The bound is enforced after each insertion, so it can be briefly exceeded under concurrent misses.</li>
+ *     <li>If {@code expireAfter} is defined, values older than it are not returned and are loaded again.</li>
+ *     <li>If {@code refreshAfter} is defined, a hit on a value older than it schedules a reload on the
+ *     refresh executor and returns the current value, which is replaced when the reload completes.</li>
+ * </ul>
+ */
+public final class LoadingCache<K, V> {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadingCache.class);
+
+    private final Function<? super K, ? extends V> loader;
+    private final int maxSize;
+    // 0 if not defined
+    private final long expireAfterNanos;
+    private final long refreshAfterNanos;
+    private final Executor refreshExecutor;
+
+    private final ConcurrentHashMap<K, Entry<K, V>> map = new ConcurrentHashMap<>();
+
+    // The CLOCK ring: entries are added to the tail and the hand is the head.
+    // Entries removed from the map are only removed from the ring when the hand reaches them.
+    private final ConcurrentLinkedQueue<Entry<K, V>> ring = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger ringSize = new AtomicInteger();
+    private final Object evictionLock = new Object();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private static final class Entry<K, V> {
+        final K key;
+        // completed once, with the value or the load failure, by the thread that inserted the entry
+        final CompletableFuture<V> value = new CompletableFuture<>();
+        // written by the load, before the future is completed
+        volatile long loadedAt;
+        volatile boolean referenced;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(K key) {
+            this.key = key;
+        }
+    }
+
+    public LoadingCache(Function<? super K, ? extends V> loader, int maxSize) {
+        this(loader, maxSize, Duration.ZERO, Duration.ZERO, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param expireAfter  the value age after which it is no longer returned, {@link Duration#ZERO} for never.
+     * @param refreshAfter the value age after which a hit reloads it, {@link Duration#ZERO} for never.
+     */
+    public LoadingCache(Function<? super K, ? extends V> loader, int maxSize,
+                        Duration expireAfter, Duration refreshAfter, Executor refreshExecutor) {
+        if (loader == null || refreshExecutor == null) {
+            throw new NullPointerException("loader and refreshExecutor must not be null");
+        }
+        if (maxSize <= 0 || expireAfter.isNegative() || refreshAfter.isNegative()) {
+            throw new IllegalArgumentException("invalid size, expiration or refresh configuration");
+        }
+        this.loader = loader;
+        this.maxSize = maxSize;
+        this.expireAfterNanos = expireAfter.toNanos();
+        this.refreshAfterNanos = refreshAfter.toNanos();
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * Returns the value for {@code key}, loading it if absent or expired.
+     * Exceptions thrown by the loader are propagated to all the callers waiting for that load.
+     */
+    public V get(K key) {
+        while (true) {
+            Entry<K, V> entry = map.get(key);
+            boolean hit = entry != null && entry.value.isDone();
+            if (entry == null) {
+                Entry<K, V> newEntry = new Entry<>(key);
+                entry = map.putIfAbsent(key, newEntry);
+                if (entry == null) {
+                    entry = newEntry;
+                    ring.add(newEntry);
+                    ringSize.incrementAndGet();
+                    evictIfNeeded();
+                    load(newEntry);
+                }
+            }
+            V value;
+            try {
+                value = await(entry);
+            } catch (RuntimeException | Error e) {
+                misses.increment();
+                throw e;
+            }
+            long age = System.nanoTime() - entry.loadedAt;
+            if (expireAfterNanos > 0 && age >= expireAfterNanos) {
+                map.remove(key, entry);
+                continue;
+            }
+            if (hit) {
+                hits.increment();
+                entry.referenced = true;
+            } else {
+                misses.increment();
+            }
+            if (refreshAfterNanos > 0 && age >= refreshAfterNanos && entry.refreshing.compareAndSet(false, true)) {
+                scheduleRefresh(entry);
+            }
+            return value;
+        }
+    }
+
+    public void invalidate(K key) {
+        map.remove(key);
+    }
+
+    public void invalidateAll() {
+        map.clear();
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public Stats getStats() {
+        return new Stats(hits.sum(), misses.sum(), loads.sum(), loadFailures.sum(), loadNanos.sum(),
+                refreshes.sum(), evictions.sum(), map.size());
+    }
+
+    // Completes the entry's future, so it must only be called once for each entry
+    private void load(Entry<K, V> entry) {
+        long start = System.nanoTime();
+        try {
+            V value = loader.apply(entry.key);
+            entry.loadedAt = System.nanoTime();
+            entry.value.complete(value);
+        } catch (RuntimeException | Error e) {
+            loadFailures.increment();
+            // removed before completing, so that the gets after observing the failure load it again
+            map.remove(entry.key, entry);
+            entry.value.completeExceptionally(e);
+        } finally {
+            loads.increment();
+            loadNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    // Waits for the load, without being interruptible, and throws the loader exception as is
+    private static <V> V await(Entry<?, V> entry) {
+        try {
+            return entry.value.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private void scheduleRefresh(Entry<K, V> stale) {
+        try {
+            refreshExecutor.execute(() -> refresh(stale));
+        } catch (RejectedExecutionException e) {
+            log.warn("refresh for '{}' rejected", stale.key);
+            stale.refreshing.set(false);
+        }
+    }
+
+    private void refresh(Entry<K, V> stale) {
+        Entry<K, V> fresh = new Entry<>(stale.key);
+        load(fresh);
+        try {
+            await(fresh);
+        } catch (RuntimeException | Error e) {
+            log.warn("refresh for '{}' failed, keeping the current value", stale.key, e);
+            stale.refreshing.set(false);
+            return;
+        }
+        refreshes.increment();
+        // only if the stale entry wasn't removed or replaced in the meantime
+        if (map.replace(stale.key, stale, fresh)) {
+            fresh.referenced = stale.referenced;
+            ring.add(fresh);
+            ringSize.incrementAndGet();
+            evictIfNeeded();
+        }
+    }
+
+    private void evictIfNeeded() {
+        // also sweeps the ring when it has too many removed entries
+        if (map.size() <= maxSize && ringSize.get() <= 2 * maxSize) {
+            return;
+        }
+        synchronized (evictionLock) {
+            // bounded number of steps, since entries added concurrently may keep the map above the limit
+            int steps = 2 * ringSize.get();
+            while ((map.size() > maxSize || ringSize.get() > 2 * maxSize) && steps-- > 0) {
+                Entry<K, V> entry = ring.poll();
+                if (entry == null) {
+                    return;
+                }
+                if (map.get(entry.key) != entry) {
+                    // already removed or replaced
+                    ringSize.decrementAndGet();
+                } else if (map.size() <= maxSize) {
+                    // only sweeping
+                    ring.add(entry);
+                } else if (entry.referenced) {
+                    // second chance
+                    entry.referenced = false;
+                    ring.add(entry);
+                } else {
+                    ringSize.decrementAndGet();
+                    if (map.remove(entry.key, entry)) {
+                        evictions.increment();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A snapshot of the cache metrics.
+     */
+    public static class Stats {
+        public final long hits;
+        public final long misses;
+        public final long loads;
+        public final long loadFailures;
+        public final long totalLoadNanos;
+        public final long refreshes;
+        public final long evictions;
+        public final int size;
+
+        private Stats(long hits, long misses, long loads, long loadFailures, long totalLoadNanos,
+                      long refreshes, long evictions, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.loads = loads;
+            this.loadFailures = loadFailures;
+            this.totalLoadNanos = totalLoadNanos;
+            this.refreshes = refreshes;
+            this.evictions = evictions;
+            this.size = size;
+        }
+
+        public double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 1.0 : (double) hits / requests;
+        }
+
+        public double averageLoadNanos() {
+            return loads == 0 ? 0.0 : (double) totalLoadNanos / loads;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits
+                    + ", misses=" + misses
+                    + ", hitRate=" + hitRate()
+                    + ", loads=" + loads
+                    + ", loadFailures=" + loadFailures
+                    + ", averageLoadNanos=" + averageLoadNanos()
+                    + ", refreshes=" + refreshes
+                    + ", evictions=" + evictions
+                    + ", size=" + size;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package pt.isel.pc.utils;
+
+import org.slf4j.Logger;
+
+/**
+ * Selects which occurrences of a high frequency event, such as an I/O completion, should be logged.
+ * <p>
+ * Nothing is selected if the logger's debug level is disabled, so the cost on the hot path is a level check.
+ * With the debug level enabled, one in each {@code period} occurrences is selected, and with the
+ * trace level enabled all occurrences are selected.
+ * <p>
+ * The counter is updated without synchronization, so concurrent occurrences may be lost,
+ * which is acceptable for sampling purposes.
+ */
+public class LogSampler {
+
+    private final Logger log;
+    private final int period;
+    private int count = 0;
+
+    public LogSampler(Logger log, int period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive");
+        }
+        this.log = log;
+        this.period = period;
+    }
+
+    public boolean sample() {
+        if (!log.isDebugEnabled()) {
+            return false;
+        }
+        if (log.isTraceEnabled()) {
+            return true;
+        }
+        count += 1;
+        if (count >= period) {
+            count = 0;
+            return true;
+        }
+        return false;
+    }
+}
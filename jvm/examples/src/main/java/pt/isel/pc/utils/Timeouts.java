@@ -2,8 +2,17 @@ package pt.isel.pc.utils;
 
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Deadline computations based on {@link System#nanoTime()}, which is monotonic,
+ * i.e., not affected by changes to the wall clock (e.g. NTP adjustments).
+ * <p>
+ * Deadlines are opaque values, only meaningful when passed back to this class.
+ * Since {@code nanoTime} values may wrap around, deadlines are only compared by subtraction.
+ */
 public final class Timeouts {
 
+    private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
     private Timeouts() {
         // static class
     }
@@ -20,31 +29,57 @@ public final class Timeouts {
      * @return the deadline for the timeout.
      */
     public static long deadlineFor(long duration, TimeUnit timeUnit) {
-        return deadlineFor(timeUnit.toMillis(duration));
+        return deadlineForNanos(timeUnit.toNanos(duration));
     }
 
+    /**
+     * @param timeout the timeout, in milliseconds.
+     */
     public static long deadlineFor(long timeout) {
-        return System.currentTimeMillis() + timeout;
+        return deadlineForNanos(TimeUnit.MILLISECONDS.toNanos(timeout));
     }
 
+    public static long deadlineForNanos(long timeoutNanos) {
+        // toNanos saturates at Long.MAX_VALUE, so even an "infinite" timeout has a well-defined remaining time,
+        // because the overflow of this sum is undone by the subtraction on remainingNanosUntil
+        return System.nanoTime() + timeoutNanos;
+    }
+
+    /**
+     * A monotonic time, in milliseconds, only meaningful when compared with other values returned by this method.
+     */
     public static long now() {
-        return System.currentTimeMillis();
+        return System.nanoTime() / NANOS_PER_MILLI;
+    }
+
+    public static long nowNanos() {
+        return System.nanoTime();
     }
 
     /**
      * Returns the amount of milliseconds remaining for the timeout deadline.
+     * Rounded up, so that a positive remaining time smaller than one millisecond isn't zero,
+     * which would mean an infinite wait for {@link Object#wait(long)}.
      *
      * @param deadline the timeout deadline
      * @return the amount of milliseconds remaining for the timeout deadline.
      */
     public static long remainingUntil(long deadline) {
-        return deadline - System.currentTimeMillis();
+        long remainingNanos = remainingNanosUntil(deadline);
+        if (remainingNanos <= 0) {
+            return 0;
+        }
+        return remainingNanos / NANOS_PER_MILLI + (remainingNanos % NANOS_PER_MILLI != 0 ? 1 : 0);
+    }
+
+    public static long remainingNanosUntil(long deadline) {
+        return deadline - System.nanoTime();
     }
 
     /**
      * Checks if the timeout deadline was already reached
      *
-     * @param remaining the remaining time for the timeout's deadline
+     * @param remaining the remaining time for the timeout's deadline, in any unit
      * @return {@code true} if the timeout was reached, {@code false} otherwise.
      */
     public static boolean isTimeout(long remaining) {
@@ -0,0 +1,223 @@
+package pt.isel.pc.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel: a fixed number of buckets, each one holding the timeouts whose deadline falls
+ * on a tick with the same index modulo the number of buckets.
+ * A single daemon thread advances one bucket per tick, running the timeouts that expired.
+ * <p>
+ * Compared with a {@link java.util.concurrent.ScheduledThreadPoolExecutor}, scheduling and cancelling
+ * are O(1), instead of O(log n), and they only synchronize on the target bucket, so concurrent operations
+ * on different buckets don't contend.
+ * The price is the precision: a timeout runs on the first tick after its deadline,
+ * so it may run up to one tick late.
+ * <p>
+ * The tasks run on the timer thread, so they must be short and non-blocking
+ * (e.g. completing a future or closing a channel).
+ */
+public final class TimerWheel implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(TimerWheel.class);
+
+    private static final Duration DEFAULT_TICK = Duration.ofMillis(10);
+    private static final int DEFAULT_BUCKETS = 512;
+    // so that the deadline computations don't overflow
+    private static final long MAX_DELAY_NANOS = Long.MAX_VALUE / 4;
+
+    private static final Lazy<TimerWheel> shared =
+            new Lazy<>(() -> new TimerWheel("shared-timer-wheel", DEFAULT_TICK, DEFAULT_BUCKETS, true));
+
+    /**
+     * A scheduled task, which can be cancelled.
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        // non-null while on a bucket, only changed while holding the bucket lock
+        private volatile Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return {@code true} if the task was cancelled before running, {@code false} otherwise.
+         */
+        public boolean cancel() {
+            Bucket observed = bucket;
+            if (observed == null) {
+                return false;
+            }
+            synchronized (observed) {
+                if (bucket != observed) {
+                    return false;
+                }
+                observed.remove(this);
+                return true;
+            }
+        }
+    }
+
+    // A doubly linked list with a sentinel, so that a timeout is removed in O(1)
+    private static final class Bucket {
+        private final Timeout head = new Timeout(null, 0);
+
+        Bucket() {
+            head.next = head;
+            head.prev = head;
+        }
+
+        // Must be called while holding the bucket lock
+        void add(Timeout timeout) {
+            Timeout tail = head.prev;
+            timeout.prev = tail;
+            timeout.next = head;
+            tail.next = timeout;
+            head.prev = timeout;
+            timeout.bucket = this;
+        }
+
+        // Must be called while holding the bucket lock
+        void remove(Timeout timeout) {
+            timeout.prev.next = timeout.next;
+            timeout.next.prev = timeout.prev;
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+
+    private final long tickNanos;
+    private final Bucket[] buckets;
+    private final long startNanos;
+    private final boolean isShared;
+    private final Thread worker;
+    // the last tick processed by the worker, only changed while holding the lock of its bucket
+    private volatile long processedTick = -1;
+    private volatile boolean closed = false;
+
+    public static TimerWheel shared() {
+        return shared.get();
+    }
+
+    /**
+     * @param nOfBuckets the number of buckets, rounded up to a power of two.
+     *                   A timeout with a delay longer than {@code tick * nOfBuckets} stays in its bucket
+     *                   for more than one rotation.
+     */
+    public TimerWheel(String name, Duration tick, int nOfBuckets) {
+        this(name, tick, nOfBuckets, false);
+    }
+
+    private TimerWheel(String name, Duration tick, int nOfBuckets, boolean isShared) {
+        if (tick.isNegative() || tick.isZero() || nOfBuckets <= 0 || nOfBuckets > (1 << 20)) {
+            throw new IllegalArgumentException("tick must be positive and nOfBuckets between 1 and 2^20");
+        }
+        int n = 1;
+        while (n < nOfBuckets) {
+            n <<= 1;
+        }
+        this.tickNanos = tick.toNanos();
+        this.buckets = new Bucket[n];
+        for (int i = 0; i < n; ++i) {
+            buckets[i] = new Bucket();
+        }
+        this.isShared = isShared;
+        this.startNanos = System.nanoTime();
+        worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Schedules {@code task} to run on the timer thread after {@code delay}.
+     *
+     * @throws RejectedExecutionException if the timer is closed.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (closed) {
+            throw new RejectedExecutionException("timer is closed");
+        }
+        long delayNanos = Math.max(0, Math.min(unit.toNanos(delay), MAX_DELAY_NANOS));
+        Timeout timeout = new Timeout(task, System.nanoTime() + delayNanos);
+        long tick = (timeout.deadline - startNanos) / tickNanos;
+        while (true) {
+            Bucket bucket = buckets[(int) (tick & (buckets.length - 1))];
+            synchronized (bucket) {
+                // the worker updates processedTick while holding the bucket lock,
+                // so if the tick wasn't processed yet, the worker will observe the timeout
+                if (tick > processedTick) {
+                    bucket.add(timeout);
+                    return timeout;
+                }
+            }
+            // the tick was already processed, so the timeout goes to the next one
+            tick = processedTick + 1;
+        }
+    }
+
+    /**
+     * Stops the timer thread. The pending timeouts are discarded.
+     *
+     * @throws IllegalStateException on the shared instance.
+     */
+    @Override
+    public void close() {
+        if (isShared) {
+            throw new IllegalStateException("the shared timer cannot be closed");
+        }
+        closed = true;
+        LockSupport.unpark(worker);
+    }
+
+    private void run() {
+        long tick = 0;
+        while (!closed) {
+            long tickEnd = startNanos + (tick + 1) * tickNanos;
+            long sleep = tickEnd - System.nanoTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+                continue;
+            }
+            Bucket bucket = buckets[(int) (tick & (buckets.length - 1))];
+            Timeout expired = null;
+            synchronized (bucket) {
+                processedTick = tick;
+                Timeout timeout = bucket.head.next;
+                while (timeout != bucket.head) {
+                    Timeout next = timeout.next;
+                    // the remaining ones are for a later rotation
+                    if (timeout.deadline - tickEnd < 0) {
+                        bucket.remove(timeout);
+                        // reuses the next field to link the expired ones
+                        timeout.next = expired;
+                        expired = timeout;
+                    }
+                    timeout = next;
+                }
+            }
+            while (expired != null) {
+                Timeout next = expired.next;
+                expired.next = null;
+                try {
+                    expired.task.run();
+                } catch (Throwable th) {
+                    log.error("timer task failed", th);
+                }
+                expired = next;
+            }
+            tick += 1;
+        }
+    }
+}
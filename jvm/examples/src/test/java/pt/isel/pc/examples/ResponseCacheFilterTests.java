@@ -0,0 +1,221 @@
+package pt.isel.pc.examples;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseCacheFilterTests {
+
+    // bodies have 1000 bytes, and each entry takes between 256 and 500 more bytes for the key, the headers
+    // and the overhead, so the cache holds up to 4 of them
+    private static final int BODY_SIZE = 1000;
+    private static final int MAX_ENTRY_EXTRA_BYTES = 500;
+    private static final long CACHE_MAX_BYTES = 4 * (BODY_SIZE + MAX_ENTRY_EXTRA_BYTES);
+    private static final long TIME_TO_LIVE_MS = 2000;
+
+    private final AtomicInteger servletCalls = new AtomicInteger();
+    private final ResponseCacheFilter filter =
+            new ResponseCacheFilter(CACHE_MAX_BYTES, 1, TIME_TO_LIVE_MS, TimeUnit.MILLISECONDS);
+    private final HttpClient client = HttpClient.newHttpClient();
+    private Server server;
+    private ServerConnector connector;
+
+    private class CountingServlet extends HttpServlet {
+        @Override
+        public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            servletCalls.incrementAndGet();
+            if (request.getRequestURI().startsWith("/missing")) {
+                response.setStatus(404);
+                response.getOutputStream().write("not found".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (request.getRequestURI().startsWith("/empty")) {
+                return;
+            }
+            if (request.getRequestURI().startsWith("/redirect")) {
+                response.sendRedirect("/a");
+                return;
+            }
+            if (request.getRequestURI().startsWith("/no-store")) {
+                response.setHeader("Cache-Control", "no-store");
+            }
+            if (request.getRequestURI().startsWith("/reset")) {
+                response.setStatus(500);
+                response.setHeader("X-Discarded", "true");
+                response.getOutputStream().write("discarded".getBytes(StandardCharsets.UTF_8));
+                response.reset();
+            }
+            byte[] body = new byte[BODY_SIZE];
+            byte[] uri = request.getRequestURI().getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(uri, 0, body, 0, uri.length);
+            response.addHeader("Content-Type", "application/octet-stream");
+            response.addHeader("Content-Length", Integer.toString(body.length));
+            response.addHeader("X-Custom", "first");
+            response.addHeader("X-Custom", "second");
+            response.getOutputStream().write(body);
+        }
+    }
+
+    @Before
+    public void start() throws Exception {
+        server = new Server();
+        connector = new ServerConnector(server);
+        connector.setPort(0);
+        server.addConnector(connector);
+        ServletHandler handler = new ServletHandler();
+        handler.addServletWithMapping(new ServletHolder(new CountingServlet()), "/*");
+        handler.addFilterWithMapping(new FilterHolder(filter), "/*", EnumSet.of(DispatcherType.REQUEST));
+        server.setHandler(handler);
+        server.start();
+    }
+
+    @After
+    public void stop() throws Exception {
+        server.stop();
+    }
+
+    private HttpResponse<byte[]> get(String path, String ifNoneMatch) throws Exception {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(
+                URI.create("http://localhost:" + connector.getLocalPort() + path));
+        if (ifNoneMatch != null) {
+            builder.header("If-None-Match", ifNoneMatch);
+        }
+        return client.send(builder.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    @Test
+    public void repeated_gets_are_served_from_the_cache() throws Exception {
+        HttpResponse<byte[]> first = get("/a", null);
+        HttpResponse<byte[]> second = get("/a", null);
+        assertEquals(200, second.statusCode());
+        assertEquals(1, servletCalls.get());
+        assertEquals(BODY_SIZE, second.body().length);
+        assertEquals(new String(first.body(), StandardCharsets.UTF_8),
+                new String(second.body(), StandardCharsets.UTF_8));
+        assertEquals("application/octet-stream", second.headers().firstValue("Content-Type").orElse(null));
+        assertEquals(first.headers().allValues("X-Custom"), second.headers().allValues("X-Custom"));
+        assertEquals(2, second.headers().allValues("X-Custom").size());
+        assertEquals(first.headers().firstValue("ETag"), second.headers().firstValue("ETag"));
+
+        ResponseCacheFilter.Stats stats = filter.getStats();
+        assertEquals(1, stats.hits);
+        assertEquals(1, stats.misses);
+        assertTrue(stats.bytes > BODY_SIZE && stats.bytes <= BODY_SIZE + MAX_ENTRY_EXTRA_BYTES);
+    }
+
+    @Test
+    public void matching_if_none_match_gets_not_modified() throws Exception {
+        String etag = get("/a", null).headers().firstValue("ETag").orElseThrow();
+        HttpResponse<byte[]> response = get("/a", etag);
+        assertEquals(304, response.statusCode());
+        assertEquals(0, response.body().length);
+        assertEquals(200, get("/a", "\"other\"").statusCode());
+        assertEquals(1, filter.getStats().notModified);
+    }
+
+    @Test
+    public void least_recently_used_entries_are_evicted() throws Exception {
+        for (String path : new String[]{"/1", "/2", "/3", "/4"}) {
+            get(path, null);
+        }
+        // makes /1 the most recently used, so /2 is evicted next
+        get("/1", null);
+        get("/5", null);
+        assertEquals(5, servletCalls.get());
+        get("/1", null);
+        assertEquals(5, servletCalls.get());
+        get("/2", null);
+        assertEquals(6, servletCalls.get());
+
+        ResponseCacheFilter.Stats stats = filter.getStats();
+        assertTrue(stats.bytes <= CACHE_MAX_BYTES);
+        assertEquals(2, stats.evictions);
+    }
+
+    @Test
+    public void empty_responses_under_distinct_uris_are_evicted() throws Exception {
+        int requests = 100;
+        for (int i = 0; i < requests; ++i) {
+            assertEquals(200, get("/empty?i=" + i, null).statusCode());
+        }
+        ResponseCacheFilter.Stats stats = filter.getStats();
+        assertTrue(stats.bytes <= CACHE_MAX_BYTES);
+        // each entry takes at least 256 bytes
+        assertTrue("entries " + stats.entries, stats.entries <= CACHE_MAX_BYTES / 256);
+        assertEquals(requests, stats.entries + stats.evictions);
+    }
+
+    @Test
+    public void unsuccessful_responses_are_not_cached() throws Exception {
+        assertEquals(404, get("/missing", null).statusCode());
+        assertEquals(404, get("/missing", null).statusCode());
+        assertEquals(2, servletCalls.get());
+        assertEquals(0, filter.getStats().entries);
+    }
+
+    @Test
+    public void redirects_are_not_cached() throws Exception {
+        HttpResponse<byte[]> response = get("/redirect", null);
+        assertEquals(302, response.statusCode());
+        assertTrue(response.headers().firstValue("Location").orElseThrow().endsWith("/a"));
+        assertEquals(302, get("/redirect", null).statusCode());
+        assertEquals(2, servletCalls.get());
+        assertEquals(0, filter.getStats().entries);
+    }
+
+    @Test
+    public void responses_with_no_store_are_not_cached() throws Exception {
+        HttpResponse<byte[]> response = get("/no-store", null);
+        assertEquals(200, response.statusCode());
+        assertEquals("no-store", response.headers().firstValue("Cache-Control").orElse(null));
+        assertEquals(BODY_SIZE, response.body().length);
+        get("/no-store", null);
+        assertEquals(2, servletCalls.get());
+        assertEquals(0, filter.getStats().entries);
+    }
+
+    @Test
+    public void reset_discards_the_status_headers_and_body() throws Exception {
+        HttpResponse<byte[]> response = get("/reset", null);
+        assertEquals(200, response.statusCode());
+        assertEquals(BODY_SIZE, response.body().length);
+        assertFalse(response.headers().firstValue("X-Discarded").isPresent());
+        assertEquals(BODY_SIZE, response.headers().firstValueAsLong("Content-Length").orElse(-1));
+        get("/reset", null);
+        assertEquals(1, servletCalls.get());
+    }
+
+    @Test
+    public void entries_expire_after_the_time_to_live() throws Exception {
+        get("/a", null);
+        get("/a", null);
+        assertEquals(1, servletCalls.get());
+        Thread.sleep(TIME_TO_LIVE_MS + 100);
+        get("/a", null);
+        assertEquals(2, servletCalls.get());
+        assertEquals(1, filter.getStats().entries);
+    }
+}
@@ -0,0 +1,87 @@
+package pt.isel.pc.examples;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static pt.isel.pc.examples.utils.TestUtils.expect;
+
+public class ServerConfigTests {
+
+    @Test
+    public void defaults_are_used_for_missing_keys() {
+        ServerConfig config = ServerConfig.fromProperties(new Properties());
+        assertEquals(8080, config.getPort());
+        assertEquals(8, config.getMinThreads());
+        assertEquals(200, config.getMaxThreads());
+        assertEquals(-1, config.getAcceptors());
+        assertFalse(config.isVirtualThreads());
+    }
+
+    @Test
+    public void settings_are_loaded_from_a_file() throws Exception {
+        Path path = Files.createTempFile("server", ".properties");
+        try {
+            Files.writeString(path, "server.port=0\n"
+                    + "threads.min=4\nthreads.max=16\nthreads.idleTimeoutMs=1000\n"
+                    + "connector.acceptors=1\nconnector.selectors=2\nconnector.acceptQueueSize=128\n"
+                    + "http.outputBufferSize=8192\n");
+            ServerConfig config = ServerConfig.load(path);
+            assertEquals(4, config.getMinThreads());
+            assertEquals(16, config.getMaxThreads());
+            assertEquals(2, config.getSelectors());
+            assertEquals(8192, config.getOutputBufferSize());
+
+            Server server = config.createServer();
+            QueuedThreadPool threadPool = (QueuedThreadPool) server.getThreadPool();
+            assertEquals(16, threadPool.getMaxThreads());
+            assertEquals(1000, threadPool.getIdleTimeout());
+            ServerConnector connector = (ServerConnector) server.getConnectors()[0];
+            assertEquals(1, connector.getAcceptors());
+            assertEquals(128, connector.getAcceptQueueSize());
+
+            server.start();
+            try {
+                assertTrue(connector.getLocalPort() > 0);
+                ServerConfig.ThreadPoolStats stats = ServerConfig.ThreadPoolStats.of(server);
+                assertEquals(16, stats.maxThreads);
+                assertTrue(stats.threads >= 4);
+                assertEquals(stats.threads, stats.idleThreads + stats.busyThreads);
+            } finally {
+                server.stop();
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void invalid_values_are_rejected() {
+        Properties notANumber = new Properties();
+        notANumber.setProperty("threads.max", "many");
+        expect(IllegalArgumentException.class, () -> ServerConfig.fromProperties(notANumber));
+
+        Properties maxBelowMin = new Properties();
+        maxBelowMin.setProperty("threads.min", "10");
+        maxBelowMin.setProperty("threads.max", "5");
+        expect(IllegalArgumentException.class, () -> ServerConfig.fromProperties(maxBelowMin));
+    }
+
+    @Test
+    public void virtual_thread_pool_requires_virtual_threads() {
+        if (VirtualThreadPool.isAvailable()) {
+            VirtualThreadPool pool = new VirtualThreadPool();
+            assertEquals(0, pool.getThreads());
+        } else {
+            expect(UnsupportedOperationException.class, VirtualThreadPool::new);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package pt.isel.pc.examples;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SimpleServletExampleTests {
+
+    private static final Logger log = LoggerFactory.getLogger(SimpleServletExampleTests.class);
+
+    private static final int MAX_THREADS = 10;
+    private static final long DELAY_MS = 500;
+    private static final int N_OF_REQUESTS = 50;
+
+    @Test
+    public void concurrent_requests_are_not_bounded_by_the_pool_threads() throws Exception {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        QueuedThreadPool threadPool = new QueuedThreadPool(MAX_THREADS, MAX_THREADS);
+        Server server = new Server(threadPool);
+        ServerConnector connector = new ServerConnector(server, 1, 1);
+        connector.setPort(0);
+        server.addConnector(connector);
+        ServletHandler handler = new ServletHandler();
+        handler.addServletWithMapping(
+                SimpleServletExample.asyncHolder(new SimpleServletExample.TheAsyncServlet(timer, DELAY_MS)), "/*");
+        server.setHandler(handler);
+        server.start();
+        try {
+            HttpClient client = HttpClient.newHttpClient();
+            long start = System.nanoTime();
+            List<CompletableFuture<HttpResponse<String>>> futures = new ArrayList<>();
+            for (int i = 0; i < N_OF_REQUESTS; ++i) {
+                HttpRequest request = HttpRequest.newBuilder(
+                        URI.create("http://localhost:" + connector.getLocalPort() + "/request/" + i)).build();
+                futures.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+            }
+            for (int i = 0; i < N_OF_REQUESTS; ++i) {
+                HttpResponse<String> response = futures.get(i).get(10, TimeUnit.SECONDS);
+                assertEquals(200, response.statusCode());
+                assertTrue(response.body().contains("URI='/request/" + i + "'"));
+            }
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            log.info("{} requests completed in {} ms, with at most {} threads",
+                    N_OF_REQUESTS, elapsedMs, MAX_THREADS);
+
+            // With a blocking servlet, at most MAX_THREADS requests would be delayed at the same time,
+            // so it would take at least (N_OF_REQUESTS / MAX_THREADS) * DELAY_MS
+            long blockingLowerBoundMs = (N_OF_REQUESTS / MAX_THREADS) * DELAY_MS;
+            assertTrue("elapsed " + elapsedMs + " ms", elapsedMs < blockingLowerBoundMs);
+        } finally {
+            server.stop();
+            timer.shutdown();
+        }
+    }
+
+    @Test
+    public void requests_fail_with_service_unavailable_when_the_timer_is_shut_down() throws Exception {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        timer.shutdown();
+        Server server = new Server(new QueuedThreadPool(MAX_THREADS, MAX_THREADS));
+        ServerConnector connector = new ServerConnector(server, 1, 1);
+        connector.setPort(0);
+        server.addConnector(connector);
+        ServletHandler handler = new ServletHandler();
+        handler.addServletWithMapping(
+                SimpleServletExample.asyncHolder(new SimpleServletExample.TheAsyncServlet(timer, DELAY_MS)), "/*");
+        server.setHandler(handler);
+        server.start();
+        try {
+            HttpClient client = HttpClient.newHttpClient();
+            HttpRequest request = HttpRequest.newBuilder(
+                    URI.create("http://localhost:" + connector.getLocalPort() + "/request")).build();
+            HttpResponse<String> response = client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                    .get(10, TimeUnit.SECONDS);
+            assertEquals(503, response.statusCode());
+        } finally {
+            server.stop();
+        }
+    }
+}
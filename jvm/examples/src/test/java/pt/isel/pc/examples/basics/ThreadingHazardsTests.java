@@ -2,6 +2,7 @@ package pt.isel.pc.examples.basics;
 
 import org.junit.Test;
 import pt.isel.pc.examples.utils.TestUtils;
+import pt.isel.pc.utils.KeyedCounter;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -219,6 +220,33 @@ public class ThreadingHazardsTests {
         assertEquals(N_OF_THREADS * N_OF_REPS, totalCount);
     }
 
+    private static final KeyedCounter keyedCounter = new KeyedCounter();
+
+    @Test
+    public void not_loosing_increments_with_a_striped_keyed_counter() {
+
+        List<Thread> ths = new ArrayList<>(N_OF_THREADS);
+        for (int i = 0; i < N_OF_THREADS; ++i) {
+            Thread th = new Thread(() -> {
+                for (int j = 0; j < N_OF_REPS; ++j) {
+                    int key = j;
+                    // no check-then-act on the caller side and no allocation per key
+                    keyedCounter.increment(key);
+                }
+            });
+            th.start();
+            ths.add(th);
+        }
+
+        ths.forEach(TestUtils::uninterruptibleJoin);
+
+        long totalCount = keyedCounter.toList().stream()
+                .map(Map.Entry::getValue)
+                .reduce(0L, Long::sum);
+
+        assertEquals(N_OF_THREADS * N_OF_REPS, totalCount);
+    }
+
     public static class SimpleLinkedStack<T> {
 
         static class Node<T> {
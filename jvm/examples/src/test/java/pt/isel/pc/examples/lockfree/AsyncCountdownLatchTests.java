@@ -0,0 +1,77 @@
+package pt.isel.pc.examples.lockfree;
+
+import org.junit.Test;
+import pt.isel.pc.examples.utils.TestHelper;
+import pt.isel.pc.examples.utils.TestHttpServer;
+import pt.isel.pc.nio.FetchAndSave3;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncCountdownLatchTests {
+
+    private static final long TIMEOUT_MS = 10_000;
+    private static final byte[] BODY = "the response body".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void completes_when_the_count_reaches_zero() throws Exception {
+        int count = 100;
+        AsyncCountdownLatch latch = new AsyncCountdownLatch(count);
+        CompletableFuture<Boolean> future = latch.awaitAsync(TIMEOUT_MS);
+        TestHelper helper = new TestHelper(Duration.ofSeconds(5));
+        helper.createAndStartMultiple(count, (index, isDone) -> latch.countDown());
+        helper.join();
+        assertTrue(future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(0, latch.getCount());
+        assertTrue(latch.await(0));
+        // extra count downs are ignored
+        latch.countDown();
+        assertEquals(0, latch.getCount());
+    }
+
+    @Test
+    public void await_times_out_before_reaching_zero() throws Exception {
+        AsyncCountdownLatch latch = new AsyncCountdownLatch(2);
+        latch.countDown();
+        assertFalse(latch.await(50));
+        assertFalse(latch.awaitAsync(50).get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(new AsyncCountdownLatch(0).awaitAsync(0).get());
+    }
+
+    @Test
+    public void fan_in_over_fetch_and_save_completions() throws Exception {
+        int nOfFetches = 8;
+        try (TestHttpServer server = new TestHttpServer(
+                (request, out) -> TestHttpServer.writeResponse(out, BODY, false))) {
+            List<Path> files = new ArrayList<>();
+            try {
+                AsyncCountdownLatch latch = new AsyncCountdownLatch(nOfFetches);
+                for (int i = 0; i < nOfFetches; ++i) {
+                    Path file = Files.createTempFile("fetch", ".txt");
+                    files.add(file);
+                    FetchAndSave3.run(server.urlFor("/get/" + i), file.toString(), latch.asCompletionHandler());
+                }
+                assertTrue(latch.awaitAsync(TIMEOUT_MS).get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+                assertNull(latch.getFailure());
+                for (Path file : files) {
+                    assertEquals(new String(BODY, StandardCharsets.US_ASCII), Files.readString(file));
+                }
+            } finally {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package pt.isel.pc.examples.lockfree;
+
+import org.junit.Test;
+import pt.isel.pc.examples.utils.TestHelper;
+import pt.isel.pc.examples.utils.TestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LockFreeManualResetEventTests {
+
+    private static final int N_OF_WAITERS = 1000;
+    private static final long TIMEOUT_MS = 10_000;
+
+    @Test
+    public void set_releases_all_the_waiters() throws InterruptedException {
+        LockFreeManualResetEvent event = new LockFreeManualResetEvent(false);
+        AtomicInteger released = new AtomicInteger();
+        TestHelper helper = new TestHelper(Duration.ofSeconds(10));
+        helper.createAndStartMultiple(N_OF_WAITERS, (index, isDone) -> {
+            assertTrue(event.awaitSet(TIMEOUT_MS));
+            released.incrementAndGet();
+        });
+        Thread.sleep(200);
+        assertEquals(0, released.get());
+        event.set();
+        helper.join();
+        assertEquals(N_OF_WAITERS, released.get());
+    }
+
+    @Test
+    public void waiters_are_released_even_if_the_event_is_reset_right_after_set() throws InterruptedException {
+        LockFreeManualResetEvent event = new LockFreeManualResetEvent(false);
+        CountDownLatch started = new CountDownLatch(N_OF_WAITERS);
+        AtomicInteger released = new AtomicInteger();
+        TestHelper helper = new TestHelper(Duration.ofSeconds(10));
+        helper.createAndStartMultiple(N_OF_WAITERS, (index, isDone) -> {
+            started.countDown();
+            if (event.awaitSet(TIMEOUT_MS)) {
+                released.incrementAndGet();
+            }
+        });
+        assertTrue(started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Thread.sleep(200);
+        event.set();
+        event.reset();
+        assertFalse(event.isSet());
+        helper.join();
+        assertEquals(N_OF_WAITERS, released.get());
+    }
+
+    @Test
+    public void await_on_a_set_event_returns_immediately() throws InterruptedException {
+        LockFreeManualResetEvent event = new LockFreeManualResetEvent(true);
+        assertTrue(event.awaitSet(0));
+        event.reset();
+        assertFalse(event.awaitSet(0));
+        event.set();
+        assertTrue(event.isSet());
+        assertTrue(event.awaitSet(0));
+    }
+
+    @Test
+    public void await_times_out_if_not_set() throws InterruptedException {
+        LockFreeManualResetEvent event = new LockFreeManualResetEvent(false);
+        long start = System.nanoTime();
+        assertFalse(event.awaitSet(100));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+    }
+
+    @Test
+    public void interrupted_waiter_throws() throws InterruptedException {
+        LockFreeManualResetEvent event = new LockFreeManualResetEvent(false);
+        AtomicReference<Throwable> result = new AtomicReference<>();
+        Thread th = new Thread(() -> {
+            try {
+                event.awaitSet(TIMEOUT_MS);
+            } catch (Throwable e) {
+                result.set(e);
+            }
+        });
+        th.start();
+        Thread.sleep(100);
+        th.interrupt();
+        th.join();
+        assertTrue(result.get() instanceof InterruptedException);
+    }
+
+    @Test
+    public void concurrent_set_and_reset() throws InterruptedException {
+        // each waiter either observes a set or times out, without errors or hanging
+        LockFreeManualResetEvent event = new LockFreeManualResetEvent(false);
+        AtomicInteger released = new AtomicInteger();
+        TestHelper helper = new TestHelper(Duration.ofSeconds(2));
+        helper.createAndStartMultiple(16, (index, isDone) -> {
+            while (!isDone.get()) {
+                if (event.awaitSet(1)) {
+                    released.incrementAndGet();
+                }
+            }
+        });
+        helper.createAndStart(16, (index, isDone) -> {
+            while (!isDone.get()) {
+                event.set();
+                TestUtils.sleep(Duration.ofMillis(1));
+                event.reset();
+            }
+            // releases the waiters still waiting
+            event.set();
+        });
+        helper.join();
+        assertTrue(released.get() > 0);
+    }
+
+    @Test
+    public void set_completes_the_async_waiters() throws Exception {
+        LockFreeManualResetEvent event = new LockFreeManualResetEvent(false);
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < N_OF_WAITERS; ++i) {
+            futures.add(event.awaitSetAsync(TIMEOUT_MS));
+        }
+        futures.forEach(future -> assertFalse(future.isDone()));
+        event.set();
+        event.reset();
+        for (CompletableFuture<Boolean> future : futures) {
+            assertTrue(future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        }
+        assertTrue(event.awaitSetAsync(0).isDone());
+        assertFalse(event.awaitSetAsync(0).get());
+    }
+
+    @Test
+    public void async_await_times_out_if_not_set() throws Exception {
+        LockFreeManualResetEvent event = new LockFreeManualResetEvent(false);
+        CompletableFuture<Boolean> future = event.awaitSetAsync(50);
+        assertFalse(future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        // a set after the timeout doesn't change the result
+        event.set();
+        assertFalse(future.get());
+        assertTrue(event.awaitSetAsync(50).get());
+    }
+
+    @Test
+    public void timed_out_waiters_below_the_top_are_removed() throws Exception {
+        LockFreeManualResetEvent event = new LockFreeManualResetEvent(false);
+        // live waiters on the bottom and on the top of the stack, with the timed out ones between them
+        CompletableFuture<Boolean> bottom = event.awaitSetAsync(TIMEOUT_MS);
+        List<CompletableFuture<Boolean>> timedOut = new ArrayList<>();
+        for (int i = 0; i < N_OF_WAITERS; ++i) {
+            timedOut.add(event.awaitSetAsync(50));
+        }
+        CompletableFuture<Boolean> top = event.awaitSetAsync(TIMEOUT_MS);
+        for (CompletableFuture<Boolean> future : timedOut) {
+            assertFalse(future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        }
+        // the removal runs on the timer thread, after the future is completed
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (event.getWaiterCount() > 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, event.getWaiterCount());
+        event.set();
+        assertTrue(bottom.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(top.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(0, event.getWaiterCount());
+    }
+}
@@ -0,0 +1,163 @@
+package pt.isel.pc.examples.nio;
+
+import org.junit.Test;
+import pt.isel.pc.examples.utils.TestHttpServer;
+import pt.isel.pc.nio.ConnectionPool;
+import pt.isel.pc.nio.FetchAndSave3;
+import pt.isel.pc.utils.CancellationToken;
+import pt.isel.pc.utils.Timeouts;
+
+import java.net.URL;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static pt.isel.pc.examples.utils.TestUtils.expect;
+
+public class ConnectionPoolTests {
+
+    private static final byte[] BODY = "the response body".getBytes(StandardCharsets.US_ASCII);
+
+    private static int fetch(URL url, Path file, ConnectionPool pool) throws Exception {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        FetchAndSave3.run(url, file.toString(), pool, new CompletionHandler<>() {
+            @Override
+            public void completed(Integer result, Void attachment) {
+                future.complete(result);
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                future.completeExceptionally(exc);
+            }
+        });
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    private static CompletableFuture<ConnectionPool.Connection> acquire(
+            ConnectionPool pool, TestHttpServer server, CancellationToken token) {
+        CompletableFuture<ConnectionPool.Connection> future = new CompletableFuture<>();
+        pool.acquire(server.getAddress(), token, new CompletionHandler<>() {
+            @Override
+            public void completed(ConnectionPool.Connection result, Void attachment) {
+                future.complete(result);
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                future.completeExceptionally(exc);
+            }
+        });
+        return future;
+    }
+
+    private static void fetchTimes(int times, TestHttpServer server, ConnectionPool pool) throws Exception {
+        for (int i = 0; i < times; ++i) {
+            Path file = Files.createTempFile("fetch", ".txt");
+            try {
+                assertEquals(BODY.length, fetch(server.urlFor("/get"), file, pool));
+                assertEquals(new String(BODY, StandardCharsets.US_ASCII), Files.readString(file));
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void keep_alive_connections_are_reused() throws Exception {
+        try (TestHttpServer server = new TestHttpServer(
+                (request, out) -> TestHttpServer.writeResponse(out, BODY, true));
+             ConnectionPool pool = new ConnectionPool(2, 10, TimeUnit.SECONDS)) {
+            fetchTimes(3, server, pool);
+            assertEquals(1, server.getAcceptCount());
+            assertEquals(1, pool.getIdleCount(server.getAddress()));
+        }
+    }
+
+    @Test
+    public void connections_are_not_reused_if_server_asks_for_close() throws Exception {
+        try (TestHttpServer server = new TestHttpServer(
+                (request, out) -> TestHttpServer.writeResponse(out, BODY, false));
+             ConnectionPool pool = new ConnectionPool(2, 10, TimeUnit.SECONDS)) {
+            fetchTimes(3, server, pool);
+            assertEquals(3, server.getAcceptCount());
+            assertEquals(0, pool.getOpenCount(server.getAddress()));
+        }
+    }
+
+    @Test
+    public void request_is_retried_if_reused_connection_was_closed_by_the_server() throws Exception {
+        // The server closes the connection after each response, without signaling it
+        try (TestHttpServer server = new TestHttpServer(
+                (request, out) -> !TestHttpServer.writeResponse(out, BODY, true));
+             ConnectionPool pool = new ConnectionPool(2, 10, TimeUnit.SECONDS)) {
+            fetchTimes(3, server, pool);
+            assertEquals(3, server.getAcceptCount());
+        }
+    }
+
+    @Test
+    public void idle_connections_are_evicted() throws Exception {
+        try (TestHttpServer server = new TestHttpServer(
+                (request, out) -> TestHttpServer.writeResponse(out, BODY, true));
+             ConnectionPool pool = new ConnectionPool(2, 100, TimeUnit.MILLISECONDS)) {
+            fetchTimes(1, server, pool);
+            assertEquals(1, pool.getIdleCount(server.getAddress()));
+            Thread.sleep(200);
+            pool.evictExpired();
+            assertEquals(0, pool.getOpenCount(server.getAddress()));
+        }
+    }
+
+    @Test
+    public void idle_connections_are_evicted_by_the_timer_and_the_host_removed() throws Exception {
+        try (TestHttpServer server = new TestHttpServer(
+                (request, out) -> TestHttpServer.writeResponse(out, BODY, true));
+             ConnectionPool pool = new ConnectionPool(2, 100, TimeUnit.MILLISECONDS)) {
+            fetchTimes(1, server, pool);
+            assertEquals(1, pool.getIdleCount(server.getAddress()));
+            assertEquals(1, pool.getHostCount());
+            long deadline = Timeouts.deadlineFor(5_000);
+            while (pool.getHostCount() != 0 && !Timeouts.isTimeout(Timeouts.remainingUntil(deadline))) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, pool.getOpenCount(server.getAddress()));
+            assertEquals(0, pool.getHostCount());
+        }
+    }
+
+    @Test
+    public void hosts_without_connections_are_removed() throws Exception {
+        try (TestHttpServer server = new TestHttpServer(
+                (request, out) -> TestHttpServer.writeResponse(out, BODY, false));
+             ConnectionPool pool = new ConnectionPool(2, 10, TimeUnit.SECONDS)) {
+            fetchTimes(2, server, pool);
+            assertEquals(0, pool.getHostCount());
+        }
+    }
+
+    @Test
+    public void pending_acquires_are_removed_at_the_token_deadline() throws Exception {
+        try (TestHttpServer server = new TestHttpServer(
+                (request, out) -> TestHttpServer.writeResponse(out, BODY, true));
+             ConnectionPool pool = new ConnectionPool(1, 10, TimeUnit.SECONDS)) {
+            ConnectionPool.Connection held = acquire(pool, server, CancellationToken.none())
+                    .get(10, TimeUnit.SECONDS);
+            CompletableFuture<ConnectionPool.Connection> pending =
+                    acquire(pool, server, CancellationToken.withTimeout(100, TimeUnit.MILLISECONDS));
+            expect(CancellationException.class, () -> pending.get(10, TimeUnit.SECONDS));
+
+            // the next acquire gets the released connection, instead of the cancelled one
+            CompletableFuture<ConnectionPool.Connection> next = acquire(pool, server, CancellationToken.none());
+            pool.release(held, true);
+            assertEquals(held, next.get(10, TimeUnit.SECONDS));
+            pool.release(held, true);
+            assertEquals(1, pool.getIdleCount(server.getAddress()));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package pt.isel.pc.examples.nio;
+
+import org.junit.Test;
+import pt.isel.pc.nio.DeflateTransform;
+import pt.isel.pc.nio.HttpResponseParser;
+import pt.isel.pc.nio.ReadWrite;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeflateTransformTests {
+
+    private static final byte[] TEXT;
+
+    static {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 512 * 1024; ++i) {
+            sb.append("line ").append(i).append(": some highly compressible text\n");
+        }
+        TEXT = sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Transforms the input in chunks of inputChunk bytes, using an output buffer with outputSize bytes
+    private static byte[] transform(DeflateTransform transform, byte[] data, int inputChunk, int outputSize) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        ByteBuffer output = ByteBuffer.allocateDirect(outputSize);
+        for (int i = 0; i < data.length; i += inputChunk) {
+            ByteBuffer input = ByteBuffer.allocateDirect(Math.min(inputChunk, data.length - i));
+            input.put(data, i, input.capacity()).flip();
+            boolean consumed;
+            do {
+                consumed = transform.transform(input, output);
+                drain(output, result);
+            } while (!consumed);
+        }
+        boolean finished;
+        do {
+            finished = transform.finish(output);
+            drain(output, result);
+        } while (!finished);
+        transform.close();
+        return result.toByteArray();
+    }
+
+    private static void drain(ByteBuffer output, ByteArrayOutputStream result) {
+        output.flip();
+        byte[] bytes = new byte[output.remaining()];
+        output.get(bytes);
+        result.write(bytes, 0, bytes.length);
+        output.clear();
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    public void gzip_output_can_be_decompressed() throws Exception {
+        DeflateTransform transform = DeflateTransform.gzip(Deflater.DEFAULT_COMPRESSION);
+        byte[] compressed = transform(transform, TEXT, 4096, 4096);
+        assertArrayEquals(TEXT, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+        assertEquals(TEXT.length, transform.getInputSize());
+        assertEquals(compressed.length, transform.getOutputSize());
+        assertTrue(compressed.length * 5 < TEXT.length);
+    }
+
+    @Test
+    public void deflate_output_can_be_decompressed() throws Exception {
+        byte[] compressed = transform(DeflateTransform.deflate(Deflater.BEST_SPEED), TEXT, 1000, 4096);
+        assertArrayEquals(TEXT, readAll(new InflaterInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    public void output_buffer_smaller_than_header_and_trailer() throws Exception {
+        // not compressible, so each input produces more output than the output buffer size
+        byte[] data = new byte[64 * 1024];
+        new Random(1).nextBytes(data);
+        byte[] compressed = transform(DeflateTransform.gzip(Deflater.DEFAULT_COMPRESSION), data, 8192, 3);
+        assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    public void empty_input() throws Exception {
+        byte[] compressed = transform(DeflateTransform.gzip(Deflater.DEFAULT_COMPRESSION), new byte[0], 1, 16);
+        assertEquals(0, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))).length);
+    }
+
+    @Test
+    public void read_write_compresses_the_response_body() throws Exception {
+        byte[] head = ("HTTP/1.1 200 OK\r\nContent-Length: " + TEXT.length + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        copyCompressed(head, new HttpResponseParser());
+    }
+
+    @Test
+    public void read_write_compresses_until_end_of_stream() throws Exception {
+        copyCompressed(new byte[0], null);
+    }
+
+    // Serves head followed by TEXT, on a single connection, and copies it compressed into a file
+    private static void copyCompressed(byte[] head, HttpResponseParser parser) throws Exception {
+        Path path = Files.createTempFile("deflate", ".gz");
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread server = new Thread(() -> {
+                try (Socket socket = serverSocket.accept()) {
+                    OutputStream out = socket.getOutputStream();
+                    out.write(head);
+                    out.write(TEXT);
+                } catch (Exception e) {
+                    // observed by the client as a content difference
+                }
+            });
+            server.start();
+            CompletableFuture<Integer> future = new CompletableFuture<>();
+            try (AsynchronousSocketChannel source = AsynchronousSocketChannel.open();
+                 AsynchronousFileChannel target = AsynchronousFileChannel.open(path, StandardOpenOption.WRITE);
+                 DeflateTransform transform = DeflateTransform.gzip(Deflater.DEFAULT_COMPRESSION)) {
+                source.connect(serverSocket.getLocalSocketAddress()).get(10, TimeUnit.SECONDS);
+                // a small buffer, so that the output of some inputs doesn't fit in a single buffer
+                ReadWrite.run(source, target, parser, 1024, transform, new CompletionHandler<>() {
+                    @Override
+                    public void completed(Integer result, Void attachment) {
+                        future.complete(result);
+                    }
+
+                    @Override
+                    public void failed(Throwable exc, Void attachment) {
+                        future.completeExceptionally(exc);
+                    }
+                });
+                assertEquals(TEXT.length, (int) future.get(10, TimeUnit.SECONDS));
+                assertEquals(transform.getOutputSize(), Files.size(path));
+            }
+            server.join();
+            assertArrayEquals(TEXT, readAll(new GZIPInputStream(Files.newInputStream(path))));
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package pt.isel.pc.examples.nio;
+
+import org.junit.Test;
+import pt.isel.pc.examples.utils.TestHttpServer;
+import pt.isel.pc.nio.FetchAndSaveRanges;
+import pt.isel.pc.nio.IoCompletionPool;
+import pt.isel.pc.nio.SocketOptionsProfile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FetchAndSaveRangesTests {
+
+    private static final byte[] DATA = new byte[256 * 1024 + 17];
+
+    static {
+        for (int i = 0; i < DATA.length; ++i) {
+            DATA[i] = (byte) (i * 31);
+        }
+    }
+
+    private static long fetch(URL url, Path file, int segments) throws Exception {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        FetchAndSaveRanges.run(url, file.toString(), segments, FetchAndSaveRanges.DEFAULT_MAX_RETRIES,
+                SocketOptionsProfile.DEFAULT, IoCompletionPool.shared(), new CompletionHandler<>() {
+                    @Override
+                    public void completed(Long result, Void attachment) {
+                        future.complete(result);
+                    }
+
+                    @Override
+                    public void failed(Throwable exc, Void attachment) {
+                        future.completeExceptionally(exc);
+                    }
+                });
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    // Serves DATA with range support. If failFirst is true, the first request for each range end
+    // only sends half of the range bytes and then closes the connection.
+    private static TestHttpServer.Handler rangeHandler(AtomicInteger rangeRequests, boolean failFirst) {
+        Set<Integer> seenEnds = ConcurrentHashMap.newKeySet();
+        return (request, out) -> {
+            String range = request.headers.get("range");
+            if (request.method.equals("HEAD")) {
+                writeHead(out, "200 OK", DATA.length, "Accept-Ranges: bytes\r\n");
+                return false;
+            }
+            if (range == null) {
+                return TestHttpServer.writeResponse(out, DATA, false);
+            }
+            rangeRequests.incrementAndGet();
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            int start = Integer.parseInt(bounds[0]);
+            int end = Integer.parseInt(bounds[1]);
+            int length = end - start + 1;
+            writeHead(out, "206 Partial Content", length,
+                    "Content-Range: bytes " + start + "-" + end + "/" + DATA.length + "\r\n");
+            boolean fail = failFirst && seenEnds.add(end);
+            out.write(DATA, start, fail ? length / 2 : length);
+            out.flush();
+            return false;
+        };
+    }
+
+    private static void writeHead(OutputStream out, String status, long length, String headers) throws IOException {
+        String head = "HTTP/1.1 " + status + "\r\nContent-Length: " + length + "\r\n"
+                + headers
+                + "Connection: close\r\n"
+                + "\r\n";
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    @Test
+    public void fetches_the_segments_in_parallel() throws Exception {
+        Path file = Files.createTempFile("ranges", ".bin");
+        // previous content, longer than the resource
+        Files.write(file, new byte[DATA.length * 2]);
+        AtomicInteger rangeRequests = new AtomicInteger();
+        try (TestHttpServer server = new TestHttpServer(rangeHandler(rangeRequests, false))) {
+            assertEquals(DATA.length, fetch(server.urlFor("/data"), file, 4));
+            assertEquals(4, rangeRequests.get());
+            // one HEAD plus one GET per segment
+            assertEquals(5, server.getAcceptCount());
+            assertArrayEquals(DATA, Files.readAllBytes(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void retries_interrupted_segments() throws Exception {
+        Path file = Files.createTempFile("ranges", ".bin");
+        AtomicInteger rangeRequests = new AtomicInteger();
+        Set<String> ranges = ConcurrentHashMap.newKeySet();
+        TestHttpServer.Handler handler = rangeHandler(rangeRequests, true);
+        try (TestHttpServer server = new TestHttpServer((request, out) -> {
+            String range = request.headers.get("range");
+            if (range != null) {
+                ranges.add(range);
+            }
+            return handler.handle(request, out);
+        })) {
+            assertEquals(DATA.length, fetch(server.urlFor("/data"), file, 4));
+            assertTrue(rangeRequests.get() > 4);
+            assertArrayEquals(DATA, Files.readAllBytes(file));
+            // the retries resume exactly after the half that was sent, without requesting any byte twice
+            long segmentSize = (DATA.length + 3) / 4;
+            for (int i = 0; i < 4; ++i) {
+                long start = i * segmentSize;
+                long end = Math.min(DATA.length, start + segmentSize) - 1;
+                long resume = start + (end - start + 1) / 2;
+                assertTrue(ranges.toString(), ranges.contains("bytes=" + resume + "-" + end));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void falls_back_to_a_single_request_without_range_support() throws Exception {
+        Path file = Files.createTempFile("ranges", ".bin");
+        try (TestHttpServer server = new TestHttpServer((request, out) -> {
+            if (request.method.equals("HEAD")) {
+                writeHead(out, "200 OK", DATA.length, "");
+                return false;
+            }
+            return TestHttpServer.writeResponse(out, DATA, false);
+        })) {
+            assertEquals(DATA.length, fetch(server.urlFor("/data"), file, 4));
+            assertEquals(2, server.getRequestCount());
+            assertArrayEquals(DATA, Files.readAllBytes(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void falls_back_to_a_single_request_when_head_is_not_allowed() throws Exception {
+        Path file = Files.createTempFile("ranges", ".bin");
+        try (TestHttpServer server = new TestHttpServer((request, out) -> {
+            if (request.method.equals("HEAD")) {
+                writeHead(out, "405 Method Not Allowed", 0, "");
+                return false;
+            }
+            return TestHttpServer.writeResponse(out, DATA, false);
+        })) {
+            assertEquals(DATA.length, fetch(server.urlFor("/data"), file, 4));
+            assertEquals(2, server.getRequestCount());
+            assertArrayEquals(DATA, Files.readAllBytes(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -1,13 +1,34 @@
 package pt.isel.pc.examples.nio;
 
 import org.junit.Test;
+import pt.isel.pc.examples.utils.TestHttpServer;
+import pt.isel.pc.nio.ConnectionPool;
+import pt.isel.pc.nio.FetchAndSave1;
 import pt.isel.pc.nio.FetchAndSave2;
+import pt.isel.pc.nio.FetchAndSave3;
+import pt.isel.pc.utils.CancellationToken;
 
+import java.io.IOException;
 import java.net.URL;
 import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static pt.isel.pc.examples.utils.TestUtils.expect;
+
 public class FetchAndSaveTests {
 
     @Test
@@ -33,4 +54,219 @@ public class FetchAndSaveTests {
             throw observedThrowable;
         }
     }
+
+    private static final String BODY = "a body with a known length, received over several reads";
+
+    private static int fetchMapped(URL url, Path file) throws Exception {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        FetchAndSave3.runMapped(url, file.toString(), new CompletionHandler<>() {
+            @Override
+            public void completed(Integer result, Void attachment) {
+                future.complete(result);
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                future.completeExceptionally(exc);
+            }
+        });
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testFetchAndSave1_and_2_send_the_url_host() throws Exception {
+        byte[] body = BODY.getBytes(StandardCharsets.US_ASCII);
+        Path file = Files.createTempFile("fetch", ".txt");
+        ConcurrentLinkedQueue<String> hosts = new ConcurrentLinkedQueue<>();
+        try (TestHttpServer server = new TestHttpServer((request, out) -> {
+            hosts.add(request.headers.get("host"));
+            return TestHttpServer.writeResponse(out, body, false);
+        })) {
+            URL url = server.urlFor("/get");
+            assertEquals(body.length, FetchAndSave1.run(url, file.toString()));
+            CompletableFuture<Integer> future = new CompletableFuture<>();
+            FetchAndSave2.run(url, file.toString(), new CompletionHandler<>() {
+                @Override
+                public void completed(Integer result, Void attachment) {
+                    future.complete(result);
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    future.completeExceptionally(exc);
+                }
+            });
+            assertEquals(body.length, (int) future.get(10, TimeUnit.SECONDS));
+            assertEquals(BODY, Files.readString(file));
+            assertEquals(List.of(url.getHost(), url.getHost()), new ArrayList<>(hosts));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testFetchAndSave3Mapped_with_content_length() throws Exception {
+        byte[] body = BODY.getBytes(StandardCharsets.US_ASCII);
+        Path file = Files.createTempFile("fetch", ".txt");
+        // previous content, longer than the body
+        Files.writeString(file, BODY + BODY);
+        try (TestHttpServer server = new TestHttpServer(
+                (request, out) -> TestHttpServer.writeResponse(out, body, false))) {
+            assertEquals(body.length, fetchMapped(server.urlFor("/get"), file));
+            assertEquals(BODY, Files.readString(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testFetchAndSave3Mapped_with_chunked_encoding() throws Exception {
+        Path file = Files.createTempFile("fetch", ".txt");
+        try (TestHttpServer server = new TestHttpServer((request, out) -> {
+            out.write(("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                    + "6\r\nchunk \r\n5\r\nbody!\r\n0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            return false;
+        })) {
+            assertEquals(11, fetchMapped(server.urlFor("/get"), file));
+            assertEquals("chunk body!", Files.readString(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    // Sends the headers and part of the body, and then stalls until released
+    private static TestHttpServer stallingServer(CountDownLatch release) throws Exception {
+        return new TestHttpServer((request, out) -> {
+            out.write("HTTP/1.1 200 OK\r\nContent-Length: 1000\r\n\r\npartial".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        });
+    }
+
+    @Test
+    public void testFetchAndSave3_is_abandoned_at_the_token_deadline() throws Exception {
+        Path file = Files.createTempFile("fetch", ".txt");
+        CountDownLatch release = new CountDownLatch(1);
+        try (TestHttpServer server = stallingServer(release)) {
+            CompletableFuture<Integer> future = new CompletableFuture<>();
+            CancellationToken token = CancellationToken.withTimeout(200, TimeUnit.MILLISECONDS);
+            FetchAndSave3.run(server.urlFor("/get"), file.toString(), token, new CompletionHandler<>() {
+                @Override
+                public void completed(Integer result, Void attachment) {
+                    future.complete(result);
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    future.completeExceptionally(exc);
+                }
+            });
+            // the failure of the cancelled operation is the cause
+            CancellationException e = expect(CancellationException.class, () -> future.get(10, TimeUnit.SECONDS));
+            assertTrue(e.getCause() != null);
+        } finally {
+            release.countDown();
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testFetchAndSave2_is_abandoned_at_the_token_deadline() throws Exception {
+        Path file = Files.createTempFile("fetch", ".txt");
+        CountDownLatch release = new CountDownLatch(1);
+        try (TestHttpServer server = stallingServer(release)) {
+            CompletableFuture<Integer> future = new CompletableFuture<>();
+            CancellationToken token = CancellationToken.withTimeout(200, TimeUnit.MILLISECONDS);
+            FetchAndSave2.run(server.urlFor("/get"), file.toString(), token, new CompletionHandler<>() {
+                @Override
+                public void completed(Integer result, Void attachment) {
+                    future.complete(result);
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    future.completeExceptionally(exc);
+                }
+            });
+            CancellationException e = expect(CancellationException.class, () -> future.get(10, TimeUnit.SECONDS));
+            assertTrue(e.getCause() != null);
+        } finally {
+            release.countDown();
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testFetchAndSave1_is_abandoned_when_the_token_is_cancelled() throws Exception {
+        Path file = Files.createTempFile("fetch", ".txt");
+        CountDownLatch release = new CountDownLatch(1);
+        try (TestHttpServer server = stallingServer(release)) {
+            CancellationToken token = new CancellationToken();
+            CompletableFuture<Integer> future = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return FetchAndSave1.run(server.urlFor("/get"), file.toString(), token);
+                } catch (IOException | ExecutionException | InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            Thread.sleep(200);
+            token.cancel();
+            ExecutionException e = expect(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof CancellationException);
+        } finally {
+            release.countDown();
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testFetchAndSave3_is_cancelled_while_waiting_for_a_pool_connection() throws Exception {
+        Path file = Files.createTempFile("fetch", ".txt");
+        try (TestHttpServer server = new TestHttpServer(
+                (request, out) -> TestHttpServer.writeResponse(out, "body".getBytes(StandardCharsets.US_ASCII), true));
+             ConnectionPool pool = new ConnectionPool(1, 10, TimeUnit.SECONDS)) {
+            // holds the only connection, so that the fetch waits for it
+            CompletableFuture<ConnectionPool.Connection> held = new CompletableFuture<>();
+            pool.acquire(server.getAddress(), new CompletionHandler<>() {
+                @Override
+                public void completed(ConnectionPool.Connection result, Void attachment) {
+                    held.complete(result);
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    held.completeExceptionally(exc);
+                }
+            });
+            ConnectionPool.Connection connection = held.get(10, TimeUnit.SECONDS);
+            CancellationToken token = new CancellationToken();
+            CompletableFuture<Integer> future = new CompletableFuture<>();
+            FetchAndSave3.run(server.urlFor("/get"), file.toString(), pool, token, new CompletionHandler<>() {
+                @Override
+                public void completed(Integer result, Void attachment) {
+                    future.complete(result);
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    future.completeExceptionally(exc);
+                }
+            });
+            assertFalse(future.isDone());
+            token.cancel();
+            // without waiting for the held connection
+            expect(CancellationException.class, () -> future.get(10, TimeUnit.SECONDS));
+            // the cancelled acquire is no longer pending, so the connection becomes idle
+            pool.release(connection, true);
+            assertEquals(1, pool.getIdleCount(server.getAddress()));
+            assertEquals(0, server.getRequestCount());
+        } finally {
+            Files.delete(file);
+        }
+    }
 }
@@ -0,0 +1,133 @@
+package pt.isel.pc.examples.nio;
+
+import org.junit.Test;
+import pt.isel.pc.nio.HttpResponseParser;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static pt.isel.pc.examples.utils.TestUtils.expect;
+
+public class HttpResponseParserTests {
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Feeds the response to the parser in chunks of 'chunkSize' bytes and returns the decoded body
+    private static String decode(HttpResponseParser parser, byte[] response, int chunkSize) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        ByteBuffer buf = ByteBuffer.allocate(chunkSize);
+        for (int i = 0; i < response.length; i += chunkSize) {
+            buf.clear();
+            buf.put(response, i, Math.min(chunkSize, response.length - i));
+            buf.flip();
+            parser.decode(buf);
+            while (buf.hasRemaining()) {
+                body.write(buf.get());
+            }
+        }
+        return body.toString(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void response_with_content_length() {
+        byte[] response = ascii("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 11\r\n\r\n"
+                + "hello world" + "HTTP/1.1 200 OK\r\n");
+        for (int chunkSize = 1; chunkSize <= response.length; ++chunkSize) {
+            HttpResponseParser parser = new HttpResponseParser();
+            assertEquals("hello world", decode(parser, response, chunkSize));
+            assertTrue(parser.isDone());
+            assertEquals(200, parser.getStatusCode());
+            assertEquals(11, parser.getContentLength());
+        }
+    }
+
+    @Test
+    public void response_with_chunked_encoding() {
+        byte[] response = ascii("HTTP/1.1 200 OK\r\ntransfer-encoding:  Chunked \r\n\r\n"
+                + "5\r\nhello\r\n1;ext=1\r\n \r\nA\r\n0123456789\r\n0\r\nTrailer: x\r\n\r\n");
+        for (int chunkSize = 1; chunkSize <= response.length; ++chunkSize) {
+            HttpResponseParser parser = new HttpResponseParser();
+            assertEquals("hello 0123456789", decode(parser, response, chunkSize));
+            assertTrue(parser.isDone());
+            assertTrue(parser.isChunked());
+        }
+    }
+
+    @Test
+    public void response_until_end_of_stream() {
+        byte[] response = ascii("HTTP/1.0 200 OK\r\n\r\nall the bytes until the end");
+        HttpResponseParser parser = new HttpResponseParser();
+        assertEquals("all the bytes until the end", decode(parser, response, 7));
+        assertFalse(parser.isDone());
+        assertTrue(parser.endOfStream());
+        assertTrue(parser.isDone());
+    }
+
+    @Test
+    public void response_without_body() {
+        byte[] response = ascii("HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 204 No Content\r\n\r\n");
+        HttpResponseParser parser = new HttpResponseParser();
+        assertEquals("", decode(parser, response, 5));
+        assertTrue(parser.isDone());
+        assertEquals(204, parser.getStatusCode());
+    }
+
+    @Test
+    public void premature_end_of_stream() {
+        byte[] response = ascii("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\n12345");
+        HttpResponseParser parser = new HttpResponseParser();
+        assertEquals("12345", decode(parser, response, 8));
+        assertFalse(parser.endOfStream());
+    }
+
+    @Test
+    public void malformed_responses() {
+        expect(HttpResponseParser.ParseException.class,
+                () -> decode(new HttpResponseParser(), ascii("SMTP ready\r\n"), 4));
+        expect(HttpResponseParser.ParseException.class,
+                () -> decode(new HttpResponseParser(), ascii("HTTP/1.1 200 OK\r\nContent-Length: x\r\n\r\n"), 4));
+        expect(HttpResponseParser.ParseException.class,
+                () -> decode(new HttpResponseParser(),
+                        ascii("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n"), 4));
+    }
+
+    @Test
+    public void head_response_has_no_body() {
+        byte[] response = ascii("HTTP/1.1 200 OK\r\nContent-Length: 1000\r\nAccept-Ranges: bytes\r\n\r\n");
+        HttpResponseParser parser = HttpResponseParser.forHead();
+        assertEquals("", decode(parser, response, response.length));
+        assertTrue(parser.isDone());
+        assertTrue(parser.isConnectionReusable());
+        assertTrue(parser.acceptsRanges());
+        assertEquals(1000, parser.getContentLength());
+    }
+
+    @Test
+    public void partial_content_response() {
+        byte[] response = ascii("HTTP/1.1 206 Partial Content\r\nContent-Range: bytes 10-14/100\r\n"
+                + "Content-Length: 5\r\n\r\nhello");
+        for (int chunkSize = 1; chunkSize <= response.length; ++chunkSize) {
+            HttpResponseParser parser = new HttpResponseParser();
+            assertEquals("hello", decode(parser, response, chunkSize));
+            assertEquals(206, parser.getStatusCode());
+            assertFalse(parser.acceptsRanges());
+            assertEquals(10, parser.getContentRangeStart());
+            assertEquals(14, parser.getContentRangeEnd());
+            assertEquals(100, parser.getContentRangeTotal());
+        }
+
+        HttpResponseParser unknownTotal = new HttpResponseParser();
+        decode(unknownTotal, ascii("HTTP/1.1 206 Partial Content\r\nContent-Range: bytes 0-0/*\r\n"
+                + "Content-Length: 1\r\n\r\nx"), 64);
+        assertEquals(-1, unknownTotal.getContentRangeTotal());
+
+        expect(HttpResponseParser.ParseException.class,
+                () -> decode(new HttpResponseParser(), ascii("HTTP/1.1 206 OK\r\nContent-Range: 0-1/2\r\n"), 64));
+    }
+}
@@ -0,0 +1,143 @@
+package pt.isel.pc.examples.nio;
+
+import org.junit.Test;
+import pt.isel.pc.examples.utils.TestHttpServer;
+import pt.isel.pc.nio.FetchAndSave3;
+import pt.isel.pc.nio.IoCompletionPool;
+import pt.isel.pc.nio.SocketOptionsProfile;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static pt.isel.pc.examples.utils.TestUtils.expect;
+
+public class IoCompletionPoolTests {
+
+    private static final byte[] BODY = "the response body".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void completions_run_on_the_pool_threads() throws Exception {
+        try (TestHttpServer server = new TestHttpServer(
+                (request, out) -> TestHttpServer.writeResponse(out, BODY, false));
+             IoCompletionPool ioPool = IoCompletionPool.fixed("test-io", 2)) {
+            Path file = Files.createTempFile("fetch", ".txt");
+            try {
+                CompletableFuture<String> future = new CompletableFuture<>();
+                FetchAndSave3.run(server.urlFor("/get"), file.toString(), SocketOptionsProfile.DEFAULT, ioPool,
+                        new CompletionHandler<>() {
+                            @Override
+                            public void completed(Integer result, Void attachment) {
+                                future.complete(Thread.currentThread().getName());
+                            }
+
+                            @Override
+                            public void failed(Throwable exc, Void attachment) {
+                                future.completeExceptionally(exc);
+                            }
+                        });
+                String threadName = future.get(10, TimeUnit.SECONDS);
+                assertTrue(threadName, threadName.startsWith("test-io-"));
+                assertEquals(new String(BODY, StandardCharsets.US_ASCII), Files.readString(file));
+            } finally {
+                Files.delete(file);
+            }
+            assertTrue(ioPool.getLargestPoolSize() > 0);
+            assertTrue(ioPool.getLargestPoolSize() <= 2);
+        }
+    }
+
+    @Test
+    public void shared_pool_cannot_be_closed() {
+        expect(IllegalStateException.class, () -> {
+            IoCompletionPool.shared().close();
+            return null;
+        });
+    }
+
+    @Test
+    public void bounded_cached_pool_queues_completions_instead_of_running_them_on_the_submitter() throws Exception {
+        try (IoCompletionPool ioPool = IoCompletionPool.cached("test-io", 1)) {
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<String> queued = new CompletableFuture<>();
+            ioPool.getExecutor().execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            ioPool.getExecutor().execute(() -> queued.complete(Thread.currentThread().getName()));
+            assertEquals(1, ioPool.getQueueSize());
+            release.countDown();
+            String threadName = queued.get(10, TimeUnit.SECONDS);
+            assertTrue(threadName, threadName.startsWith("test-io-"));
+            assertEquals(1, ioPool.getLargestPoolSize());
+        }
+    }
+
+    @Test
+    public void immediate_completions_are_nested_up_to_the_jdk_bound() throws Exception {
+        int size = 16 * 1024;
+        AtomicInteger minDepth = new AtomicInteger(Integer.MAX_VALUE);
+        AtomicInteger maxDepth = new AtomicInteger(0);
+        AtomicInteger threadChanges = new AtomicInteger();
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             IoCompletionPool ioPool = IoCompletionPool.fixed("test-io", 1);
+             AsynchronousSocketChannel socket = ioPool.openSocket()) {
+            socket.connect(server.getLocalSocketAddress()).get(10, TimeUnit.SECONDS);
+            try (Socket peer = server.accept()) {
+                // all the data is already received before the first read,
+                // so the reads initiated on the group thread complete immediately
+                peer.getOutputStream().write(new byte[size]);
+                peer.shutdownOutput();
+                Thread.sleep(100);
+
+                CompletableFuture<Integer> done = new CompletableFuture<>();
+                ByteBuffer buffer = ByteBuffer.allocate(1);
+                socket.read(buffer, 0, new CompletionHandler<Integer, Integer>() {
+                    private int lastDepth = -1;
+
+                    @Override
+                    public void completed(Integer result, Integer total) {
+                        int depth = Thread.currentThread().getStackTrace().length;
+                        minDepth.accumulateAndGet(depth, Math::min);
+                        maxDepth.accumulateAndGet(depth, Math::max);
+                        if (depth < lastDepth) {
+                            // the JDK handed the completion to the pool, starting on a new stack
+                            threadChanges.incrementAndGet();
+                        }
+                        lastDepth = depth;
+                        if (result == -1) {
+                            done.complete(total);
+                            return;
+                        }
+                        buffer.clear();
+                        socket.read(buffer, total + result, this);
+                    }
+
+                    @Override
+                    public void failed(Throwable exc, Integer total) {
+                        done.completeExceptionally(exc);
+                    }
+                });
+                assertEquals(size, (int) done.get(10, TimeUnit.SECONDS));
+            }
+        }
+        // each nested completion adds a few frames, up to the 16 nested handlers allowed by the JDK
+        assertTrue("min=" + minDepth.get() + ", max=" + maxDepth.get(), maxDepth.get() - minDepth.get() < 16 * 16);
+        assertTrue("changes=" + threadChanges.get(), threadChanges.get() >= size / 16 / 2);
+    }
+}
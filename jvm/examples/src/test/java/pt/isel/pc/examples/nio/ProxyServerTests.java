@@ -0,0 +1,138 @@
+package pt.isel.pc.examples.nio;
+
+import org.junit.Test;
+import pt.isel.pc.examples.utils.TestHttpServer;
+import pt.isel.pc.nio.FetchAndSave3;
+import pt.isel.pc.nio.ProxyServer;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProxyServerTests {
+
+    private static final InetSocketAddress ANY_LOOPBACK = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    private static void awaitActiveConnections(ProxyServer server, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getActiveConnections() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, server.getActiveConnections());
+    }
+
+    @Test
+    public void echo_server_echoes_until_end_of_stream() throws Exception {
+        byte[] data = new byte[256 * 1024];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) i;
+        }
+        try (ProxyServer server = ProxyServer.start(ANY_LOOPBACK, null, 4, 0, TimeUnit.SECONDS);
+             Socket socket = new Socket()) {
+            socket.connect(server.getLocalAddress());
+            // writing on a separate thread, so that both directions progress
+            Thread writer = new Thread(() -> {
+                try {
+                    OutputStream out = socket.getOutputStream();
+                    out.write(data);
+                    socket.shutdownOutput();
+                } catch (Exception e) {
+                    // observed by the reader
+                }
+            });
+            writer.start();
+            byte[] received = socket.getInputStream().readAllBytes();
+            writer.join();
+            assertArrayEquals(data, received);
+            awaitActiveConnections(server, 0);
+        }
+    }
+
+    @Test
+    public void proxy_server_forwards_to_upstream() throws Exception {
+        byte[] body = "the response body".getBytes(StandardCharsets.US_ASCII);
+        try (TestHttpServer upstream = new TestHttpServer(
+                (request, out) -> TestHttpServer.writeResponse(out, body, false));
+             ProxyServer server = ProxyServer.start(ANY_LOOPBACK, upstream.getAddress(), 4, 10, TimeUnit.SECONDS)) {
+            InetSocketAddress address = server.getLocalAddress();
+            URL url = new URL("http", address.getAddress().getHostAddress(), address.getPort(), "/get");
+            Path file = Files.createTempFile("proxy", ".txt");
+            try {
+                CompletableFuture<Integer> future = new CompletableFuture<>();
+                FetchAndSave3.run(url, file.toString(), new CompletionHandler<>() {
+                    @Override
+                    public void completed(Integer result, Void attachment) {
+                        future.complete(result);
+                    }
+
+                    @Override
+                    public void failed(Throwable exc, Void attachment) {
+                        future.completeExceptionally(exc);
+                    }
+                });
+                assertEquals(body.length, (int) future.get(10, TimeUnit.SECONDS));
+                assertArrayEquals(body, Files.readAllBytes(file));
+            } finally {
+                Files.delete(file);
+            }
+            assertEquals(1, upstream.getRequestCount());
+        }
+    }
+
+    @Test
+    public void idle_connections_are_closed() throws Exception {
+        try (ProxyServer server = ProxyServer.start(ANY_LOOPBACK, null, 4, 200, TimeUnit.MILLISECONDS);
+             Socket socket = new Socket()) {
+            socket.connect(server.getLocalAddress());
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            // activity postpones the timeout
+            for (int i = 0; i < 4; ++i) {
+                out.write(i);
+                assertEquals(i, in.read());
+                Thread.sleep(100);
+            }
+            long start = System.currentTimeMillis();
+            assertEquals(-1, in.read());
+            assertTrue(System.currentTimeMillis() - start < 5000);
+            awaitActiveConnections(server, 0);
+        }
+    }
+
+    @Test
+    public void accepts_are_parked_when_the_maximum_is_reached() throws Exception {
+        try (ProxyServer server = ProxyServer.start(ANY_LOOPBACK, null, 1, 0, TimeUnit.SECONDS);
+             Socket first = new Socket();
+             Socket second = new Socket()) {
+            first.connect(server.getLocalAddress());
+            awaitActiveConnections(server, 1);
+            // the connect completes on the backlog, but the connection is only served after the first one ends
+            second.connect(server.getLocalAddress());
+            second.setSoTimeout(200);
+            second.getOutputStream().write(42);
+            try {
+                second.getInputStream().read();
+                throw new AssertionError("second connection must not be served yet");
+            } catch (SocketTimeoutException e) {
+                // expected
+            }
+            first.close();
+            second.setSoTimeout(5000);
+            assertEquals(42, second.getInputStream().read());
+        }
+    }
+}
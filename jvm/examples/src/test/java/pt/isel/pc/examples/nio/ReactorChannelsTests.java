@@ -0,0 +1,125 @@
+package pt.isel.pc.examples.nio;
+
+import org.junit.Test;
+import org.reactivestreams.Subscription;
+import pt.isel.pc.examples.utils.TestHttpServer;
+import pt.isel.pc.nio.HttpResponseParser;
+import pt.isel.pc.nio.ReactorChannels;
+import pt.isel.pc.nio.ReactorReadWrite;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ReactorChannelsTests {
+
+    private static byte[] content(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    @Test
+    public void file_flux_emits_the_whole_file_in_order() throws Exception {
+        byte[] data = content(100_000);
+        Path path = Files.createTempFile("reactor", ".bin");
+        try (AsynchronousFileChannel file = AsynchronousFileChannel.open(path, StandardOpenOption.READ)) {
+            Files.write(path, data);
+            List<ByteBuffer> buffers = ReactorChannels.read(file, 0, 4096)
+                    .collectList()
+                    .block(Duration.ofSeconds(10));
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            for (ByteBuffer buffer : buffers) {
+                received.write(buffer.array(), buffer.position(), buffer.remaining());
+            }
+            assertArrayEquals(data, received.toByteArray());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void file_flux_only_reads_when_requested() throws Exception {
+        Path path = Files.createTempFile("reactor", ".bin");
+        try (AsynchronousFileChannel file = AsynchronousFileChannel.open(path, StandardOpenOption.READ)) {
+            Files.write(path, content(100_000));
+            AtomicInteger received = new AtomicInteger();
+            ReactorChannels.read(file, 0, 1024).subscribe(new BaseSubscriber<>() {
+                @Override
+                protected void hookOnSubscribe(Subscription subscription) {
+                    request(2);
+                }
+
+                @Override
+                protected void hookOnNext(ByteBuffer value) {
+                    received.incrementAndGet();
+                }
+            });
+            Thread.sleep(200);
+            assertEquals(2, received.get());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void file_sink_writes_buffers_in_sequence() throws Exception {
+        byte[] data = content(10_000);
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (int offset = 0; offset < data.length; offset += 333) {
+            buffers.add(ByteBuffer.wrap(data, offset, Math.min(333, data.length - offset)));
+        }
+        Path path = Files.createTempFile("reactor", ".bin");
+        try (AsynchronousFileChannel file = AsynchronousFileChannel.open(path, StandardOpenOption.WRITE)) {
+            long size = Flux.fromIterable(buffers)
+                    .concatMap(ReactorChannels.fileSink(file))
+                    .reduce(0L, (acc, written) -> acc + written)
+                    .block(Duration.ofSeconds(10));
+            assertEquals(data.length, size);
+            assertArrayEquals(data, Files.readAllBytes(path));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void reactor_read_write_copies_the_response_body() throws Exception {
+        byte[] body = content(50_000);
+        Path path = Files.createTempFile("reactor", ".bin");
+        try (TestHttpServer server = new TestHttpServer(
+                (request, out) -> TestHttpServer.writeResponse(out, body, true));
+             AsynchronousSocketChannel socket = AsynchronousSocketChannel.open();
+             AsynchronousFileChannel file = AsynchronousFileChannel.open(path, StandardOpenOption.WRITE)) {
+            socket.connect(server.getAddress()).get(10, TimeUnit.SECONDS);
+            ByteBuffer request = ByteBuffer.wrap(
+                    "GET /get HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            while (request.hasRemaining()) {
+                socket.write(request).get(10, TimeUnit.SECONDS);
+            }
+            // the connection is kept alive, so the copy must end on the response end
+            long size = ReactorReadWrite.run(socket, file, new HttpResponseParser(), 1024)
+                    .block(Duration.ofSeconds(10));
+            assertEquals(body.length, size);
+            assertArrayEquals(body, Files.readAllBytes(path));
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package pt.isel.pc.examples.nio;
+
+import org.junit.Test;
+import pt.isel.pc.nio.CopyResult;
+import pt.isel.pc.nio.HttpResponseParser;
+import pt.isel.pc.nio.ReadWrite;
+import pt.isel.pc.nio.ReadWriteParallel;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ReadWriteDigestTests {
+
+    private static final byte[] DATA = new byte[1024 * 1024 + 3];
+
+    static {
+        for (int i = 0; i < DATA.length; ++i) {
+            DATA[i] = (byte) (i * 31);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Copy {
+        void run(AsynchronousSocketChannel source, AsynchronousFileChannel target,
+                 CompletionHandler<CopyResult, Void> ch) throws Exception;
+    }
+
+    // Serves bytes on a single connection and copies them into a file using copy
+    private static CopyResult copy(byte[] bytes, Copy copy, Consumer<Path> check) throws Exception {
+        Path path = Files.createTempFile("digest", ".bin");
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread server = new Thread(() -> {
+                try (Socket socket = serverSocket.accept()) {
+                    OutputStream out = socket.getOutputStream();
+                    out.write(bytes);
+                } catch (Exception e) {
+                    // observed by the client as a size or digest difference
+                }
+            });
+            server.start();
+            CompletableFuture<CopyResult> future = new CompletableFuture<>();
+            try (AsynchronousSocketChannel source = AsynchronousSocketChannel.open();
+                 AsynchronousFileChannel target = AsynchronousFileChannel.open(path, StandardOpenOption.WRITE)) {
+                source.connect(serverSocket.getLocalSocketAddress()).get(10, TimeUnit.SECONDS);
+                copy.run(source, target, new CompletionHandler<>() {
+                    @Override
+                    public void completed(CopyResult result, Void attachment) {
+                        future.complete(result);
+                    }
+
+                    @Override
+                    public void failed(Throwable exc, Void attachment) {
+                        future.completeExceptionally(exc);
+                    }
+                });
+                future.get(10, TimeUnit.SECONDS);
+            }
+            server.join();
+            check.accept(path);
+            return future.get();
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static void assertContent(byte[] expected, Path path) {
+        try {
+            assertArrayEquals(expected, Files.readAllBytes(path));
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void sequential_copy_digest() throws Exception {
+        CopyResult result = copy(DATA, (source, target, ch) -> ReadWrite.runDigesting(
+                source, target, null, 4096, MessageDigest.getInstance("SHA-256"), ch),
+                path -> assertContent(DATA, path));
+        assertEquals(DATA.length, result.getSize());
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(DATA), result.getDigest());
+    }
+
+    @Test
+    public void parallel_copy_digest() throws Exception {
+        CopyResult result = copy(DATA, (source, target, ch) -> ReadWriteParallel.runDigesting(
+                source, target, 4096, MessageDigest.getInstance("SHA-256"), ch),
+                path -> assertContent(DATA, path));
+        assertEquals(DATA.length, result.getSize());
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(DATA), result.getDigest());
+    }
+
+    @Test
+    public void digest_only_covers_the_response_body() throws Exception {
+        byte[] body = "the response body".getBytes(StandardCharsets.US_ASCII);
+        byte[] response = ("HTTP/1.1 200 OK\r\nContent-Length: " + body.length + "\r\n\r\n"
+                + new String(body, StandardCharsets.US_ASCII)).getBytes(StandardCharsets.US_ASCII);
+        CopyResult result = copy(response, (source, target, ch) -> ReadWrite.runDigesting(
+                source, target, new HttpResponseParser(), 4096, MessageDigest.getInstance("MD5"), ch),
+                path -> assertContent(body, path));
+        assertEquals(body.length, result.getSize());
+        assertEquals(
+                new CopyResult(0, MessageDigest.getInstance("MD5").digest(body)).getDigestHex(),
+                result.getDigestHex());
+    }
+}
@@ -0,0 +1,69 @@
+package pt.isel.pc.examples.nio;
+
+import org.junit.Test;
+import pt.isel.pc.nio.RxReadWrite;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RxReadWriteTests {
+
+    private static final byte[] DATA = new byte[1024 * 1024];
+
+    static {
+        for (int i = 0; i < DATA.length; ++i) {
+            DATA[i] = (byte) (i * 31);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Copy {
+        long run(AsynchronousSocketChannel source, AsynchronousFileChannel target);
+    }
+
+    // Serves DATA on a single connection and copies it into a file using copy
+    private static void copyAndCheck(Copy copy) throws Exception {
+        Path path = Files.createTempFile("rx", ".bin");
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread server = new Thread(() -> {
+                try (Socket socket = serverSocket.accept()) {
+                    OutputStream out = socket.getOutputStream();
+                    out.write(DATA);
+                } catch (Exception e) {
+                    // observed by the client as a missing end-of-stream or size difference
+                }
+            });
+            server.start();
+            try (AsynchronousSocketChannel source = AsynchronousSocketChannel.open();
+                 AsynchronousFileChannel target = AsynchronousFileChannel.open(path, StandardOpenOption.WRITE)) {
+                source.connect(serverSocket.getLocalSocketAddress()).get(10, TimeUnit.SECONDS);
+                assertEquals(DATA.length, copy.run(source, target));
+            }
+            server.join();
+            assertArrayEquals(DATA, Files.readAllBytes(path));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void sequential_copy() throws Exception {
+        copyAndCheck((source, target) -> RxReadWrite.run(source, target, 4096).blockingGet());
+    }
+
+    @Test
+    public void parallel_copy_writes_at_the_read_positions() throws Exception {
+        copyAndCheck((source, target) -> RxReadWrite.runParallel(source, target, 4096, 8).blockingGet());
+    }
+}
@@ -0,0 +1,65 @@
+package pt.isel.pc.examples.synchronizers;
+
+import org.junit.Test;
+import pt.isel.pc.utils.CancellationToken;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BlockingMessageQueueTests {
+
+    private static final long TIMEOUT_MS = 10_000;
+
+    @Test
+    public void blocked_dequeue_gives_up_when_the_token_is_cancelled() throws Exception {
+        BlockingMessageQueue<String> queue = new BlockingMessageQueue<>();
+        CancellationToken token = new CancellationToken();
+        CompletableFuture<Optional<String>> dequeued = new CompletableFuture<>();
+        Thread th = new Thread(() -> {
+            try {
+                dequeued.complete(queue.dequeue(token));
+            } catch (InterruptedException e) {
+                dequeued.completeExceptionally(e);
+            }
+        });
+        th.start();
+        Thread.sleep(100);
+        assertFalse(dequeued.isDone());
+        token.cancel();
+        assertFalse(dequeued.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).isPresent());
+        th.join();
+        // the cancelled request was removed, so the message isn't delivered to it
+        assertFalse(queue.enqueue("message", 0));
+    }
+
+    @Test
+    public void the_token_deadline_limits_the_wait() throws InterruptedException {
+        BlockingMessageQueue<String> queue = new BlockingMessageQueue<>();
+        CancellationToken token = CancellationToken.withTimeout(50, TimeUnit.MILLISECONDS);
+        assertFalse(queue.enqueue("message", token));
+        assertFalse(queue.dequeue(token).isPresent());
+    }
+
+    @Test
+    public void messages_are_delivered_with_a_token() throws Exception {
+        BlockingMessageQueue<String> queue = new BlockingMessageQueue<>();
+        CancellationToken token = CancellationToken.withTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        CompletableFuture<Boolean> enqueued = new CompletableFuture<>();
+        Thread th = new Thread(() -> {
+            try {
+                enqueued.complete(queue.enqueue("message", token));
+            } catch (InterruptedException e) {
+                enqueued.completeExceptionally(e);
+            }
+        });
+        th.start();
+        assertEquals(Optional.of("message"), queue.dequeue(token));
+        assertTrue(enqueued.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        th.join();
+    }
+}
@@ -0,0 +1,114 @@
+package pt.isel.pc.examples.synchronizers;
+
+import org.junit.Test;
+import pt.isel.pc.utils.CancellationToken;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ManualResetEventTests {
+
+    private static final long TIMEOUT_MS = 10_000;
+
+    @Test
+    public void set_completes_the_async_waiters() throws Exception {
+        ManualResetEvent event = new ManualResetEvent(false);
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            futures.add(event.awaitSetAsync(TIMEOUT_MS));
+        }
+        futures.forEach(future -> assertFalse(future.isDone()));
+        event.set();
+        event.reset();
+        for (CompletableFuture<Boolean> future : futures) {
+            assertTrue(future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void async_await_on_a_set_event_completes_immediately() throws Exception {
+        ManualResetEvent event = new ManualResetEvent(true);
+        CompletableFuture<Boolean> future = event.awaitSetAsync(TIMEOUT_MS);
+        assertTrue(future.isDone());
+        assertTrue(future.get());
+        event.reset();
+        assertFalse(event.awaitSetAsync(0).get());
+    }
+
+    @Test
+    public void async_await_times_out_if_not_set() throws Exception {
+        ManualResetEvent event = new ManualResetEvent(false);
+        CompletableFuture<Boolean> timedOut = event.awaitSetAsync(50);
+        CompletableFuture<Boolean> waiting = event.awaitSetAsync(TIMEOUT_MS);
+        assertFalse(timedOut.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertFalse(waiting.isDone());
+        event.set();
+        assertTrue(waiting.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertFalse(timedOut.get());
+    }
+
+    @Test
+    public void sync_and_async_waiters_are_released_by_the_same_set() throws Exception {
+        ManualResetEvent event = new ManualResetEvent(false);
+        CompletableFuture<Boolean> async = event.awaitSetAsync(TIMEOUT_MS);
+        CompletableFuture<Boolean> sync = new CompletableFuture<>();
+        Thread th = new Thread(() -> {
+            try {
+                sync.complete(event.awaitSet(TIMEOUT_MS));
+            } catch (InterruptedException e) {
+                sync.completeExceptionally(e);
+            }
+        });
+        th.start();
+        Thread.sleep(100);
+        event.set();
+        assertTrue(sync.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(async.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        th.join();
+    }
+
+    @Test
+    public void waiters_give_up_when_the_token_is_cancelled() throws Exception {
+        ManualResetEvent event = new ManualResetEvent(false);
+        CancellationToken token = new CancellationToken();
+        CompletableFuture<Boolean> async = event.awaitSetAsync(token);
+        CompletableFuture<Boolean> sync = new CompletableFuture<>();
+        Thread th = new Thread(() -> {
+            try {
+                sync.complete(event.awaitSet(token));
+            } catch (InterruptedException e) {
+                sync.completeExceptionally(e);
+            }
+        });
+        th.start();
+        Thread.sleep(100);
+        assertFalse(sync.isDone());
+        assertFalse(async.isDone());
+        token.cancel();
+        assertFalse(sync.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertFalse(async.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        th.join();
+        assertFalse(event.awaitSet(token));
+        assertFalse(event.awaitSet(CancellationToken.withTimeout(50, TimeUnit.MILLISECONDS)));
+        event.set();
+        assertTrue(event.awaitSet(token));
+    }
+
+    @Test
+    public void async_waiters_give_up_at_the_token_deadline() throws Exception {
+        ManualResetEvent event = new ManualResetEvent(false);
+        CompletableFuture<Boolean> timedOut =
+                event.awaitSetAsync(CancellationToken.withTimeout(50, TimeUnit.MILLISECONDS));
+        CompletableFuture<Boolean> waiting = event.awaitSetAsync(new CancellationToken());
+        assertFalse(timedOut.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        // a token without deadline only completes on set or on cancellation
+        assertFalse(waiting.isDone());
+        event.set();
+        assertTrue(waiting.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+}
@@ -4,6 +4,7 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import pt.isel.pc.examples.utils.TestHelper;
+import pt.isel.pc.utils.CancellationToken;
 
 import java.time.Duration;
 import java.util.Arrays;
@@ -13,6 +14,7 @@ import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class NArySemaphoreTests {
@@ -155,4 +157,42 @@ public class NArySemaphoreTests {
         order_test2(NAryFifoSemaphoreWithKernelStyleAndSpecificNotification::new);
     }
 
+    private void cancellation_test(NArySemaphore semaphore) throws Exception {
+        CancellationToken token = new CancellationToken();
+        CompletableFuture<Boolean> cancelled = new CompletableFuture<>();
+        Thread th = new Thread(() -> {
+            try {
+                cancelled.complete(semaphore.acquire(2, token));
+            } catch (InterruptedException e) {
+                cancelled.completeExceptionally(e);
+            }
+        });
+        th.start();
+        Thread.sleep(100);
+        assertFalse(cancelled.isDone());
+        token.cancel();
+        assertFalse(cancelled.get(10, TimeUnit.SECONDS));
+        th.join();
+        // the cancelled request was removed, so it doesn't prevent the following ones
+        semaphore.release(1);
+        assertTrue(semaphore.acquire(1, 0));
+        // the token's deadline also limits the wait
+        assertFalse(semaphore.acquire(2, CancellationToken.withTimeout(50, TimeUnit.MILLISECONDS)));
+        assertFalse(semaphore.acquire(2, token));
+    }
+
+    @Test
+    public void NAryFifoSemaphore_cancellation_test() throws Exception {
+        cancellation_test(new NAryFifoSemaphore(1));
+    }
+
+    @Test
+    public void NAryFifoSemaphoreWithKernelStyle_cancellation_test() throws Exception {
+        cancellation_test(new NAryFifoSemaphoreWithKernelStyle(1));
+    }
+
+    @Test
+    public void NAryFifoSemaphoreWithKernelStyleAndSpecificNotification_cancellation_test() throws Exception {
+        cancellation_test(new NAryFifoSemaphoreWithKernelStyleAndSpecificNotification(1));
+    }
 }
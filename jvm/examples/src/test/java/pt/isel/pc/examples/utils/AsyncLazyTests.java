@@ -0,0 +1,132 @@
+package pt.isel.pc.examples.utils;
+
+import org.junit.Test;
+import pt.isel.pc.utils.AsyncLazy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static pt.isel.pc.examples.utils.TestUtils.expect;
+
+public class AsyncLazyTests {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    @Test
+    public void concurrent_callers_share_a_single_computation() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> source = new CompletableFuture<>();
+        AsyncLazy<String> lazy = new AsyncLazy<>(() -> {
+            calls.incrementAndGet();
+            return source;
+        });
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(() -> {
+                CompletableFuture<String> future = lazy.get();
+                synchronized (futures) {
+                    futures.add(future);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread th : threads) {
+            th.join();
+        }
+        assertEquals(1, calls.get());
+        futures.forEach(future -> assertFalse(future.isDone()));
+
+        source.complete("value");
+        for (CompletableFuture<String> future : futures) {
+            assertEquals("value", future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+        assertEquals("value", lazy.get().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void callers_cannot_complete_the_shared_future() throws Exception {
+        CompletableFuture<String> source = new CompletableFuture<>();
+        AsyncLazy<String> lazy = new AsyncLazy<>(() -> source);
+        lazy.get().complete("from a caller");
+        source.complete("value");
+        assertEquals("value", lazy.get().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failures_are_retried_with_backoff() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AsyncLazy<String> lazy = new AsyncLazy<>(() -> calls.incrementAndGet() <= 2
+                ? CompletableFuture.failedFuture(new IllegalStateException("failure " + calls.get()))
+                : CompletableFuture.completedFuture("value"),
+                3, Duration.ofMillis(20), Duration.ofMillis(100), Duration.ZERO);
+        long start = System.nanoTime();
+        assertEquals("value", lazy.get().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(3, calls.get());
+        // 20 ms before the first retry and 40 ms before the second
+        assertTrue("elapsed " + elapsedMs, elapsedMs >= 60);
+    }
+
+    @Test
+    public void errors_are_not_cached_after_the_retries_are_exhausted() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AsyncLazy<String> lazy = new AsyncLazy<>(() -> calls.incrementAndGet() <= 2
+                ? CompletableFuture.failedFuture(new IllegalStateException("failure"))
+                : CompletableFuture.completedFuture("value"),
+                1, Duration.ofMillis(1), Duration.ofMillis(1), Duration.ZERO);
+        CompletableFuture<String> failed = lazy.get();
+        expect(ExecutionException.class, () -> failed.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(2, calls.get());
+
+        assertEquals("value", lazy.get().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void supplier_exceptions_are_failures() {
+        AsyncLazy<String> lazy = new AsyncLazy<>(() -> {
+            throw new IllegalStateException("synchronous failure");
+        });
+        expect(ExecutionException.class, () -> lazy.get().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void stale_values_are_refreshed_in_the_background() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<Integer> refresh = new CompletableFuture<>();
+        AsyncLazy<Integer> lazy = new AsyncLazy<>(() -> calls.incrementAndGet() == 1
+                ? CompletableFuture.completedFuture(1)
+                : refresh,
+                0, Duration.ZERO, Duration.ZERO, Duration.ofMillis(50));
+        assertEquals(1, (int) lazy.get().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        TestUtils.sleep(Duration.ofMillis(60));
+
+        // starts the refresh, still observing the stale value
+        assertEquals(1, (int) lazy.get().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, (int) lazy.get().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(2, calls.get());
+
+        refresh.complete(2);
+        assertEquals(2, (int) lazy.get().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void invalidate_starts_a_new_computation() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        AsyncLazy<Integer> lazy = new AsyncLazy<>(() -> CompletableFuture.completedFuture(calls.incrementAndGet()));
+        assertEquals(1, (int) lazy.get().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        lazy.invalidate();
+        assertEquals(2, (int) lazy.get().get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+}
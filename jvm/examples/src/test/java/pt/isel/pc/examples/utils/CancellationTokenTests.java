@@ -0,0 +1,121 @@
+package pt.isel.pc.examples.utils;
+
+import org.junit.Test;
+import pt.isel.pc.utils.CancellationToken;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static pt.isel.pc.examples.utils.TestUtils.expect;
+
+public class CancellationTokenTests {
+
+    @Test
+    public void callbacks_run_once_on_cancel() {
+        CancellationToken token = new CancellationToken();
+        AtomicInteger runs = new AtomicInteger();
+        token.register(runs::incrementAndGet);
+        token.register(runs::incrementAndGet);
+        assertFalse(token.isCancelled());
+        assertEquals(Long.MAX_VALUE, token.remainingMillis());
+        assertEquals(Long.MAX_VALUE, token.remainingNanos());
+
+        token.cancel();
+        token.cancel();
+        assertTrue(token.isCancelled());
+        assertEquals(0, token.remainingMillis());
+        assertEquals(0, token.remainingNanos());
+        assertEquals(2, runs.get());
+
+        // registering on a cancelled token runs the callback immediately
+        token.register(runs::incrementAndGet);
+        assertEquals(3, runs.get());
+        expect(CancellationException.class, () -> {
+            token.throwIfCancelled();
+            return null;
+        });
+    }
+
+    @Test
+    public void closed_registrations_do_not_run() {
+        CancellationToken token = new CancellationToken();
+        AtomicInteger runs = new AtomicInteger();
+        CancellationToken.Registration registration = token.register(runs::incrementAndGet);
+        registration.close();
+        registration.close();
+        token.cancel();
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void none_is_never_cancelled() {
+        CancellationToken token = CancellationToken.none();
+        AtomicInteger runs = new AtomicInteger();
+        token.register(runs::incrementAndGet);
+        token.cancel();
+        assertFalse(token.isCancelled());
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void children_are_cancelled_by_the_parent_but_not_the_opposite() {
+        CancellationToken parent = new CancellationToken();
+        CancellationToken child = parent.child();
+        CancellationToken grandChild = child.child();
+        CancellationToken sibling = parent.child();
+
+        sibling.cancel();
+        assertTrue(sibling.isCancelled());
+        assertFalse(parent.isCancelled());
+        assertFalse(child.isCancelled());
+
+        AtomicInteger runs = new AtomicInteger();
+        grandChild.register(runs::incrementAndGet);
+        parent.cancel();
+        assertTrue(child.isCancelled());
+        assertTrue(grandChild.isCancelled());
+        assertEquals(1, runs.get());
+        // a child of a cancelled token is created cancelled
+        assertTrue(parent.child().isCancelled());
+    }
+
+    @Test
+    public void deadline_cancels_the_token() throws InterruptedException {
+        CancellationToken token = CancellationToken.withTimeout(50, TimeUnit.MILLISECONDS);
+        CountDownLatch latch = new CountDownLatch(1);
+        token.register(latch::countDown);
+        assertTrue(token.remainingMillis() <= 50);
+        assertTrue(token.remainingNanos() <= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(token.isCancelled());
+        assertEquals(0, token.remainingNanos());
+    }
+
+    @Test
+    public void children_can_reduce_the_deadline_but_not_extend_it() {
+        CancellationToken parent = CancellationToken.withTimeout(10, TimeUnit.SECONDS);
+        CancellationToken shorter = parent.child(100, TimeUnit.MILLISECONDS);
+        CancellationToken longer = parent.child(1, TimeUnit.HOURS);
+        assertTrue(shorter.remainingMillis() <= 100);
+        assertTrue(longer.remainingMillis() <= parent.remainingMillis());
+        assertTrue(parent.child().remainingMillis() <= parent.remainingMillis());
+        parent.cancel();
+        assertTrue(shorter.isCancelled());
+        assertTrue(longer.isCancelled());
+    }
+
+    @Test
+    public void deadline_callbacks_do_not_run_on_the_timer_thread() throws Exception {
+        CancellationToken token = CancellationToken.withTimeout(20, TimeUnit.MILLISECONDS);
+        CompletableFuture<String> threadName = new CompletableFuture<>();
+        token.register(() -> threadName.complete(Thread.currentThread().getName()));
+        String name = threadName.get(10, TimeUnit.SECONDS);
+        assertFalse(name, name.contains("timer-wheel"));
+    }
+}
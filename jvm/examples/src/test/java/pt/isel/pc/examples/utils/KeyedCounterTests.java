@@ -0,0 +1,83 @@
+package pt.isel.pc.examples.utils;
+
+import org.junit.Test;
+import pt.isel.pc.utils.KeyedCounter;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KeyedCounterTests {
+
+    private static final int N_OF_THREADS = 8;
+
+    @Test
+    public void counts_each_key_including_colliding_and_negative_ones() {
+        KeyedCounter counter = new KeyedCounter(1);
+        // enough keys to grow the table a few times
+        for (int key = -500; key < 500; ++key) {
+            counter.add(key, key + 1000);
+        }
+        counter.increment(Integer.MIN_VALUE);
+        counter.increment(Integer.MAX_VALUE);
+        for (int key = -500; key < 500; ++key) {
+            assertEquals(key + 1000, counter.get(key));
+        }
+        assertEquals(1, counter.get(Integer.MIN_VALUE));
+        assertEquals(1, counter.get(Integer.MAX_VALUE));
+        assertEquals(0, counter.get(1000));
+        assertEquals(1002, counter.toList().size());
+    }
+
+    @Test
+    public void snapshots_do_not_lose_or_repeat_keys() {
+        KeyedCounter counter = new KeyedCounter(5);
+        Map<Integer, Long> expected = new HashMap<>();
+        for (int i = 0; i < 10_000; ++i) {
+            int key = (i * 7919) % 1013;
+            counter.increment(key);
+            expected.merge(key, 1L, Long::sum);
+        }
+        Map<Integer, Long> observed = new HashMap<>();
+        counter.toList().forEach(entry -> assertEquals(null, observed.put(entry.getKey(), entry.getValue())));
+        assertEquals(expected, observed);
+        assertEquals(10_000, counter.total());
+    }
+
+    @Test
+    public void concurrent_increments_and_snapshots() throws InterruptedException {
+        KeyedCounter counter = new KeyedCounter();
+        AtomicLong increments = new AtomicLong();
+        TestHelper helper = new TestHelper(Duration.ofSeconds(2));
+        helper.createAndStartMultiple(N_OF_THREADS, (index, isDone) -> {
+            int key = index;
+            long local = 0;
+            while (!isDone.get()) {
+                key = (key * 31 + 17) % 4096;
+                counter.increment(key);
+                local += 1;
+            }
+            increments.addAndGet(local);
+        });
+        // readers never observe a counter, nor the total, decreasing
+        helper.createAndStartMultiple(2, (index, isDone) -> {
+            long previous = 0;
+            long previousTotal = 0;
+            while (!isDone.get()) {
+                long observed = counter.get(index);
+                assertTrue(observed >= previous);
+                previous = observed;
+                long total = counter.total();
+                assertTrue(total >= previousTotal);
+                previousTotal = total;
+                assertTrue(counter.toList().stream().allMatch(entry -> entry.getValue() > 0));
+            }
+        });
+        helper.join();
+        assertEquals(increments.get(), counter.total());
+    }
+}
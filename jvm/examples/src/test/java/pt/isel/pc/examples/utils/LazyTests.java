@@ -0,0 +1,127 @@
+package pt.isel.pc.examples.utils;
+
+import org.junit.Test;
+import pt.isel.pc.utils.Lazy;
+import pt.isel.pc.utils.LazyRacy;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static pt.isel.pc.examples.utils.TestUtils.expect;
+
+public class LazyTests {
+
+    private static final int N_OF_THREADS = 16;
+
+    private static class Holder {
+        // non-final, so its visibility depends on the safe publication of the holder
+        int value;
+
+        Holder(int value) {
+            this.value = value;
+        }
+    }
+
+    // Calls get on the same instance from multiple threads, started at the same time,
+    // returning the distinct observed instances
+    private static <T> List<Object> getConcurrently(Supplier<T> lazy) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        ConcurrentHashMap<Object, Boolean> observed = new ConcurrentHashMap<>();
+        Thread[] threads = new Thread[N_OF_THREADS];
+        for (int i = 0; i < N_OF_THREADS; ++i) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                observed.put(lazy.get(), true);
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread th : threads) {
+            th.join();
+        }
+        return List.copyOf(observed.keySet());
+    }
+
+    @Test
+    public void lazy_calls_the_supplier_only_once() throws InterruptedException {
+        for (int repetition = 0; repetition < 100; ++repetition) {
+            AtomicInteger calls = new AtomicInteger();
+            Lazy<Holder> lazy = new Lazy<>(() -> {
+                calls.incrementAndGet();
+                return new Holder(42);
+            });
+            List<Object> observed = getConcurrently(lazy);
+            assertEquals(1, calls.get());
+            assertEquals(1, observed.size());
+            assertEquals(42, ((Holder) observed.get(0)).value);
+        }
+    }
+
+    @Test
+    public void lazy_supports_null_values() {
+        AtomicInteger calls = new AtomicInteger();
+        Lazy<String> lazy = new Lazy<>(() -> {
+            calls.incrementAndGet();
+            return null;
+        });
+        assertFalse(lazy.isInitialized());
+        assertNull(lazy.get());
+        assertNull(lazy.get());
+        assertTrue(lazy.isInitialized());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void lazy_retries_after_supplier_exception() {
+        AtomicInteger calls = new AtomicInteger();
+        Lazy<String> lazy = new Lazy<>(() -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new IllegalStateException("first call fails");
+            }
+            return "value";
+        });
+        expect(IllegalStateException.class, lazy::get);
+        assertFalse(lazy.isInitialized());
+        assertEquals("value", lazy.get());
+        assertEquals("value", lazy.get());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void racy_lazy_publishes_a_single_value() throws InterruptedException {
+        for (int repetition = 0; repetition < 100; ++repetition) {
+            AtomicInteger calls = new AtomicInteger();
+            LazyRacy<Holder> lazy = new LazyRacy<>(() -> new Holder(calls.incrementAndGet()));
+            List<Object> observed = getConcurrently(lazy);
+            // the supplier may be called more than once, but all threads observe the same instance
+            assertTrue(calls.get() >= 1);
+            assertEquals(1, observed.size());
+            assertSame(observed.get(0), lazy.get());
+            assertTrue(lazy.isInitialized());
+        }
+    }
+
+    @Test
+    public void both_variants_return_the_supplied_value() {
+        Function<Supplier<String>, List<Supplier<String>>> both = supplier ->
+                List.of(new Lazy<>(supplier), new LazyRacy<>(supplier));
+        for (Supplier<String> lazy : both.apply(() -> "value")) {
+            assertEquals("value", lazy.get());
+            assertEquals("value", lazy.get());
+        }
+        assertNull(new LazyRacy<String>(() -> null).get());
+    }
+}
@@ -0,0 +1,195 @@
+package pt.isel.pc.examples.utils;
+
+import org.junit.Test;
+import pt.isel.pc.utils.LoadingCache;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static pt.isel.pc.examples.utils.TestUtils.expect;
+
+public class LoadingCacheTests {
+
+    private static final int N_OF_THREADS = 16;
+
+    // Loaders cannot throw checked exceptions
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void concurrent_misses_on_the_same_key_load_once() throws InterruptedException {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        LoadingCache<String, String> cache = new LoadingCache<>(key -> {
+            loads.incrementAndGet();
+            await(release);
+            return key.toUpperCase();
+        }, 100);
+        TestHelper helper = new TestHelper(Duration.ofSeconds(5));
+        AtomicInteger observed = new AtomicInteger();
+        helper.createAndStartMultiple(N_OF_THREADS, (index, isDone) -> {
+            assertEquals("A", cache.get("a"));
+            observed.incrementAndGet();
+        });
+        // lets all the threads reach the cache before the load completes
+        Thread.sleep(100);
+        release.countDown();
+        helper.join();
+        assertEquals(N_OF_THREADS, observed.get());
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getStats().loads);
+    }
+
+    @Test
+    public void failed_loads_are_not_cached() {
+        AtomicInteger loads = new AtomicInteger();
+        LoadingCache<String, String> cache = new LoadingCache<>(key -> {
+            if (loads.incrementAndGet() == 1) {
+                throw new IllegalStateException("first load fails");
+            }
+            return key;
+        }, 10);
+        expect(IllegalStateException.class, () -> cache.get("a"));
+        assertEquals(0, cache.size());
+        assertEquals("a", cache.get("a"));
+        assertEquals(2, loads.get());
+        assertEquals(1, cache.getStats().loadFailures);
+    }
+
+    @Test
+    public void concurrent_misses_on_a_failing_load_observe_the_same_failure() throws InterruptedException {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        IllegalStateException failure = new IllegalStateException("load fails");
+        LoadingCache<String, String> cache = new LoadingCache<>(key -> {
+            loads.incrementAndGet();
+            await(release);
+            throw failure;
+        }, 100);
+        TestHelper helper = new TestHelper(Duration.ofSeconds(5));
+        AtomicInteger failed = new AtomicInteger();
+        helper.createAndStartMultiple(N_OF_THREADS, (index, isDone) -> {
+            IllegalStateException e = expect(IllegalStateException.class, () -> cache.get("a"));
+            assertSame(failure, e);
+            failed.incrementAndGet();
+        });
+        // lets all the threads reach the cache before the load fails
+        Thread.sleep(100);
+        release.countDown();
+        helper.join();
+        assertEquals(N_OF_THREADS, failed.get());
+        // a single load for all the waiting threads, after which the entry was removed
+        assertEquals(1, loads.get());
+        assertEquals(0, cache.size());
+        expect(IllegalStateException.class, () -> cache.get("a"));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void eviction_gives_referenced_entries_a_second_chance() {
+        AtomicInteger loads = new AtomicInteger();
+        LoadingCache<Integer, Integer> cache = new LoadingCache<>(key -> {
+            loads.incrementAndGet();
+            return key;
+        }, 2);
+        cache.get(1);
+        cache.get(2);
+        // 1 is referenced, so 2 is evicted
+        cache.get(1);
+        cache.get(3);
+        assertEquals(2, cache.size());
+        assertEquals(3, loads.get());
+        cache.get(1);
+        assertEquals(3, loads.get());
+        cache.get(2);
+        assertEquals(4, loads.get());
+        assertEquals(2, cache.getStats().evictions);
+    }
+
+    @Test
+    public void size_stays_bounded_under_concurrent_access() throws InterruptedException {
+        int maxSize = 50;
+        LoadingCache<Integer, Integer> cache = new LoadingCache<>(key -> key * 2, maxSize);
+        AtomicInteger gets = new AtomicInteger();
+        TestHelper helper = new TestHelper(Duration.ofSeconds(2));
+        helper.createAndStartMultiple(N_OF_THREADS, (index, isDone) -> {
+            int key = index;
+            while (!isDone.get()) {
+                key = (key * 31 + 7) % 1000;
+                assertEquals(key * 2, (int) cache.get(key));
+                gets.incrementAndGet();
+            }
+        });
+        helper.join();
+        // concurrent insertions may only exceed the bound while they are in progress
+        assertTrue(cache.size() <= maxSize);
+        LoadingCache.Stats stats = cache.getStats();
+        assertEquals(gets.get(), stats.hits + stats.misses);
+        // callers waiting on another caller's load also count as misses
+        assertTrue(stats.loads <= stats.misses);
+        assertTrue(stats.evictions > 0);
+    }
+
+    @Test
+    public void expired_values_are_loaded_again() throws InterruptedException {
+        AtomicInteger loads = new AtomicInteger();
+        LoadingCache<String, Integer> cache = new LoadingCache<>(key -> loads.incrementAndGet(), 10,
+                Duration.ofMillis(50), Duration.ZERO, Runnable::run);
+        assertEquals(1, (int) cache.get("a"));
+        assertEquals(1, (int) cache.get("a"));
+        Thread.sleep(60);
+        assertEquals(2, (int) cache.get("a"));
+        LoadingCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.hits);
+        assertEquals(2, stats.misses);
+        assertEquals(1.0 / 3, stats.hitRate(), 1e-9);
+    }
+
+    @Test
+    public void stale_values_are_refreshed_ahead() throws InterruptedException {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch refreshing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            LoadingCache<String, Integer> cache = new LoadingCache<>(key -> {
+                int load = loads.incrementAndGet();
+                if (load == 2) {
+                    refreshing.countDown();
+                    await(release);
+                }
+                return load;
+            }, 10, Duration.ZERO, Duration.ofMillis(50), executor);
+            assertEquals(1, (int) cache.get("a"));
+            Thread.sleep(60);
+
+            // returns the current value, without waiting for the refresh
+            assertEquals(1, (int) cache.get("a"));
+            assertTrue(refreshing.await(5, TimeUnit.SECONDS));
+            assertEquals(1, (int) cache.get("a"));
+            release.countDown();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (cache.get("a") != 2 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, (int) cache.get("a"));
+            assertEquals(2, loads.get());
+            assertEquals(1, cache.getStats().refreshes);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package pt.isel.pc.examples.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal blocking HTTP/1.1 server, with a thread per connection, to be used as a local
+ * target for the NIO client tests.
+ */
+public class TestHttpServer implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(TestHttpServer.class);
+
+    public static class Request {
+        public final String method;
+        public final String path;
+        // header names are in lower case
+        public final Map<String, String> headers;
+
+        Request(String method, String path, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Handler {
+        /**
+         * Writes the response to {@code out}.
+         *
+         * @return {@code true} if the connection should be kept open for another request.
+         */
+        boolean handle(Request request, OutputStream out) throws IOException;
+    }
+
+    private final ServerSocket serverSocket;
+    private final Handler handler;
+    private final AtomicInteger acceptCount = new AtomicInteger();
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    public TestHttpServer(Handler handler) throws IOException {
+        this.handler = handler;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread th = new Thread(this::acceptLoop);
+        th.setDaemon(true);
+        th.start();
+    }
+
+    public static boolean writeResponse(OutputStream out, byte[] body, boolean keepAlive) throws IOException {
+        String head = "HTTP/1.1 200 OK\r\nContent-Length: " + body.length + "\r\n"
+                + (keepAlive ? "" : "Connection: close\r\n")
+                + "\r\n";
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+        out.write(body);
+        out.flush();
+        return keepAlive;
+    }
+
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+    }
+
+    public URL urlFor(String path) throws IOException {
+        return new URL("http", serverSocket.getInetAddress().getHostAddress(), serverSocket.getLocalPort(), path);
+    }
+
+    public int getAcceptCount() {
+        return acceptCount.get();
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void acceptLoop() {
+        while (true) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                // server socket was closed
+                return;
+            }
+            acceptCount.incrementAndGet();
+            Thread th = new Thread(() -> serve(socket));
+            th.setDaemon(true);
+            th.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                String requestLine = readLine(in);
+                if (requestLine == null) {
+                    return;
+                }
+                Map<String, String> headers = new HashMap<>();
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+                }
+                String[] parts = requestLine.split(" ");
+                requestCount.incrementAndGet();
+                if (!handler.handle(new Request(parts[0], parts[1], headers), out)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            log.info("connection ended with {}", e.getMessage());
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        while (true) {
+            int b = in.read();
+            if (b == -1) {
+                return line.size() == 0 ? null : line.toString(StandardCharsets.US_ASCII);
+            }
+            if (b == '\n') {
+                String s = line.toString(StandardCharsets.US_ASCII);
+                return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+            }
+            line.write(b);
+        }
+    }
+}
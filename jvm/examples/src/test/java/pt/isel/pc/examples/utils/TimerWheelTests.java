@@ -0,0 +1,118 @@
+package pt.isel.pc.examples.utils;
+
+import org.junit.Test;
+import pt.isel.pc.utils.TimerWheel;
+import pt.isel.pc.utils.Timeouts;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static pt.isel.pc.examples.utils.TestUtils.expect;
+
+public class TimerWheelTests {
+
+    @Test
+    public void timeouts_run_after_their_delay() throws InterruptedException {
+        try (TimerWheel timer = new TimerWheel("test-timer", Duration.ofMillis(5), 8)) {
+            int n = 100;
+            CountDownLatch latch = new CountDownLatch(n);
+            AtomicInteger early = new AtomicInteger();
+            for (int i = 0; i < n; ++i) {
+                // delays longer than a rotation (40 ms) stay in the bucket for more than one rotation
+                long delayMs = i;
+                long deadline = Timeouts.deadlineFor(delayMs);
+                timer.schedule(() -> {
+                    if (Timeouts.remainingNanosUntil(deadline) > 0) {
+                        early.incrementAndGet();
+                    }
+                    latch.countDown();
+                }, delayMs, TimeUnit.MILLISECONDS);
+            }
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertEquals(0, early.get());
+        }
+    }
+
+    @Test
+    public void cancelled_timeouts_do_not_run() throws InterruptedException {
+        try (TimerWheel timer = new TimerWheel("test-timer", Duration.ofMillis(5), 8)) {
+            AtomicInteger runs = new AtomicInteger();
+            TimerWheel.Timeout cancelled = timer.schedule(runs::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+            CountDownLatch latch = new CountDownLatch(1);
+            TimerWheel.Timeout completed = timer.schedule(latch::countDown, 100, TimeUnit.MILLISECONDS);
+            assertTrue(cancelled.cancel());
+            assertFalse(cancelled.cancel());
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertFalse(completed.cancel());
+            assertEquals(0, runs.get());
+        }
+    }
+
+    @Test
+    public void concurrent_schedules_and_cancels() throws InterruptedException {
+        try (TimerWheel timer = new TimerWheel("test-timer", Duration.ofMillis(1), 64)) {
+            AtomicInteger scheduled = new AtomicInteger();
+            AtomicInteger cancelled = new AtomicInteger();
+            AtomicInteger runs = new AtomicInteger();
+            TestHelper helper = new TestHelper(Duration.ofSeconds(1));
+            helper.createAndStartMultiple(8, (index, isDone) -> {
+                int i = 0;
+                while (!isDone.get()) {
+                    TimerWheel.Timeout timeout = timer.schedule(runs::incrementAndGet, i % 20, TimeUnit.MILLISECONDS);
+                    scheduled.incrementAndGet();
+                    if (i++ % 2 == 0 && timeout.cancel()) {
+                        cancelled.incrementAndGet();
+                    }
+                }
+            });
+            helper.join();
+            long deadline = Timeouts.deadlineFor(5_000);
+            while (runs.get() + cancelled.get() < scheduled.get() && !Timeouts.isTimeout(Timeouts.remainingUntil(deadline))) {
+                Thread.sleep(10);
+            }
+            assertEquals(scheduled.get(), runs.get() + cancelled.get());
+        }
+    }
+
+    @Test
+    public void failing_tasks_do_not_stop_the_timer() throws InterruptedException {
+        try (TimerWheel timer = new TimerWheel("test-timer", Duration.ofMillis(5), 8)) {
+            timer.schedule(() -> {
+                throw new IllegalStateException("task failure");
+            }, 0, TimeUnit.MILLISECONDS);
+            CountDownLatch latch = new CountDownLatch(1);
+            timer.schedule(latch::countDown, 20, TimeUnit.MILLISECONDS);
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void closed_timer_rejects_and_shared_cannot_be_closed() {
+        TimerWheel timer = new TimerWheel("test-timer", Duration.ofMillis(5), 8);
+        timer.close();
+        expect(RejectedExecutionException.class, () -> timer.schedule(() -> { }, 0, TimeUnit.MILLISECONDS));
+        expect(IllegalStateException.class, () -> {
+            TimerWheel.shared().close();
+            return null;
+        });
+    }
+
+    @Test
+    public void remaining_time_is_rounded_up_and_does_not_overflow() {
+        long deadline = Timeouts.deadlineForNanos(TimeUnit.MICROSECONDS.toNanos(500));
+        long remaining = Timeouts.remainingUntil(deadline);
+        // a fraction of a millisecond is not a zero wait
+        assertTrue(remaining == 1 || Timeouts.remainingNanosUntil(deadline) <= 0);
+
+        long infinite = Timeouts.deadlineFor(Long.MAX_VALUE);
+        assertFalse(Timeouts.isTimeout(Timeouts.remainingUntil(infinite)));
+        assertFalse(Timeouts.isTimeout(Timeouts.remainingNanosUntil(infinite)));
+        assertTrue(Timeouts.isTimeout(Timeouts.remainingUntil(Timeouts.deadlineFor(-1))));
+    }
+}